@@ -0,0 +1,158 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.api.roas;
+
+import com.google.common.hash.Hashing;
+import lombok.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serialized export that is only built again when the version of its input changes. The body is kept as is and
+ * gzip compressed, so that requests are answered by writing the bytes.
+ */
+class CachedExport {
+
+    private final AtomicReference<Body> current = new AtomicReference<>();
+
+    /**
+     * The body for the version, serializing it when the cached body is of another version.
+     */
+    Body get(Object version, Supplier<byte[]> serialize) {
+        final Body cached = current.get();
+        if (cached != null && cached.getVersion().equals(version)) {
+            return cached;
+        }
+        synchronized (this) {
+            final Body previous = current.get();
+            if (previous != null && previous.getVersion().equals(version)) {
+                return previous;
+            }
+            final byte[] bytes = serialize.get();
+            final String etag = "\"" + Hashing.sha256().hashBytes(bytes).toString().substring(0, 32) + "\"";
+            // An export that did not change keeps its modification time, e.g. when only the ignore filters changed
+            final long lastModified = previous != null && previous.getEtag().equals(etag) ?
+                    previous.getLastModified() :
+                    System.currentTimeMillis();
+            final Body body = new Body(version, bytes, gzip(bytes), etag, lastModified);
+            current.set(body);
+            return body;
+        }
+    }
+
+    /**
+     * Writes the body, compressed when the client accepts gzip, or only the status 304 when the client has it.
+     */
+    static void write(Body body, String contentType, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final boolean gzip = acceptsGzip(request);
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        final String etag = gzip ? body.getEtag().replaceFirst("\"$", "-gzip\"") : body.getEtag();
+        if (new ServletWebRequest(request, response).checkNotModified(etag, body.getLastModified())) {
+            return;
+        }
+        final byte[] bytes = gzip ? body.getGzipped() : body.getBytes();
+        response.setContentType(contentType);
+        if (gzip) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        response.setContentLength(bytes.length);
+        response.getOutputStream().write(bytes);
+    }
+
+    /**
+     * gzip is accepted when it, or otherwise "*", is listed in Accept-Encoding with a q-value above 0.
+     */
+    static boolean acceptsGzip(HttpServletRequest request) {
+        final Enumeration<String> headers = request.getHeaders(HttpHeaders.ACCEPT_ENCODING);
+        if (headers == null) {
+            return false;
+        }
+        Double gzip = null;
+        Double any = null;
+        for (String header : Collections.list(headers)) {
+            for (String coding : header.split(",")) {
+                final String[] parameters = coding.split(";");
+                final String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+                if (name.equals("gzip") || name.equals("x-gzip")) {
+                    gzip = qValue(parameters);
+                } else if (name.equals("*")) {
+                    any = qValue(parameters);
+                }
+            }
+        }
+        final Double q = gzip != null ? gzip : any;
+        return q != null && q > 0;
+    }
+
+    private static double qValue(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            final String parameter = parameters[i].trim();
+            if (parameter.length() > 2 && Character.toLowerCase(parameter.charAt(0)) == 'q' && parameter.charAt(1) == '=') {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 8);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    @Value
+    static class Body {
+        Object version;
+        byte[] bytes;
+        byte[] gzipped;
+        String etag;
+        long lastModified;
+    }
+}
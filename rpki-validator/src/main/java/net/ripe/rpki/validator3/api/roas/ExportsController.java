@@ -30,25 +30,42 @@
 package net.ripe.rpki.validator3.api.roas;
 
 import au.com.bytecode.opencsv.CSVWriter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiModelProperty;
 import io.swagger.annotations.ApiOperation;
-import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.api.PublicApiCall;
+import net.ripe.rpki.validator3.api.ignorefilters.IgnoreFilter;
 import net.ripe.rpki.validator3.api.ignorefilters.IgnoreFilterService;
+import net.ripe.rpki.validator3.api.roaprefixassertions.RoaPrefixAssertionEntity;
 import net.ripe.rpki.validator3.api.roaprefixassertions.RoaPrefixAssertionsService;
+import net.ripe.rpki.validator3.api.slurm.SlurmStore;
 import net.ripe.rpki.validator3.domain.IgnoreFiltersPredicate;
 import net.ripe.rpki.validator3.domain.validation.ValidatedRpkiObjects;
 import net.ripe.rpki.validator3.storage.Storage;
 import net.ripe.rpki.validator3.storage.stores.Settings;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static net.ripe.rpki.validator3.api.ModelPropertyDescriptions.ASN_EXAMPLE;
@@ -84,34 +101,55 @@ public class ExportsController {
 
     private final RoaPrefixAssertionsService roaPrefixAssertions;
 
+    private final SlurmStore slurmStore;
+
     private final Settings settings;
     private final Storage storage;
 
+    private final ObjectMapper objectMapper;
+
+    private final CachedExport jsonExport = new CachedExport();
+    private final CachedExport csvExport = new CachedExport();
+
+    private final VrpHistory<VRP> vrpHistory;
+
     @Autowired
-    public ExportsController(ValidatedRpkiObjects validatedRpkiObjects, IgnoreFilterService ignoreFilters, RoaPrefixAssertionsService roaPrefixAssertions, Settings settings, Storage storage) {
+    public ExportsController(ValidatedRpkiObjects validatedRpkiObjects, IgnoreFilterService ignoreFilters, RoaPrefixAssertionsService roaPrefixAssertions, SlurmStore slurmStore, Settings settings, Storage storage, @Lazy ObjectMapper objectMapper,
+                             @Value("${rpki.validator.export.delta-history-size:100}") int deltaHistorySize) {
         this.validatedRpkiObjects = validatedRpkiObjects;
         this.ignoreFilters = ignoreFilters;
         this.roaPrefixAssertions = roaPrefixAssertions;
+        this.slurmStore = slurmStore;
         this.settings = settings;
         this.storage = storage;
+        this.objectMapper = objectMapper;
+        this.vrpHistory = new VrpHistory<>(deltaHistorySize);
     }
 
     @ApiOperation("export VRPs (json)")
     @GetMapping(path = "/api/export.json")
-    public JsonExport exportJson(HttpServletResponse response) {
+    public void exportJson(HttpServletRequest request, HttpServletResponse response) throws IOException {
         response.setContentType(JSON);
 
         if (!storage.readTx(settings::isInitialValidationRunCompleted)) {
             response.setStatus(HttpServletResponse.SC_NO_CONTENT);
-            return null;
+            return;
         }
 
-        return new JsonExport(vrpStream());
+        final ValidatedRpkiObjects.Snapshot snapshot = validatedRpkiObjects.getSnapshot();
+        final CachedExport.Body body = jsonExport.get(exportVersion(snapshot), () -> {
+            try {
+                return objectMapper.writeValueAsBytes(new JsonExport(vrps(snapshot).get()));
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        CachedExport.write(body, JSON, request, response);
     }
 
     @ApiOperation("export VRPs (CSV)")
     @GetMapping(path = "/api/export.csv")
-    public void exportCsv(HttpServletResponse response) throws IOException {
+    public void exportCsv(HttpServletRequest request, HttpServletResponse response) throws IOException {
         response.setContentType(CSV);
 
         if (!storage.readTx(settings::isInitialValidationRunCompleted)) {
@@ -119,16 +157,48 @@ public class ExportsController {
             return;
         }
 
-        try (CSVWriter writer = new CSVWriter(response.getWriter())) {
-            writer.writeNext(new String[]{"ASN", "IP Prefix", "Max Length", "Trust Anchor"});
-            vrpStream().forEach(prefix ->
-                writer.writeNext(new String[]{
-                    prefix.getAsn(),
-                    prefix.getPrefix(),
-                    String.valueOf(prefix.getMaxLength()),
-                    prefix.getTa()
-            }));
+        final ValidatedRpkiObjects.Snapshot snapshot = validatedRpkiObjects.getSnapshot();
+        final CachedExport.Body body = csvExport.get(exportVersion(snapshot), () -> {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (CSVWriter writer = new CSVWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+                writer.writeNext(new String[]{"ASN", "IP Prefix", "Max Length", "Trust Anchor"});
+                vrps(snapshot).get().forEach(prefix ->
+                    writer.writeNext(new String[]{
+                        prefix.getAsn(),
+                        prefix.getPrefix(),
+                        String.valueOf(prefix.getMaxLength()),
+                        prefix.getTa()
+                }));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toByteArray();
+        });
+        CachedExport.write(body, CSV, request, response);
+    }
+
+    @ApiOperation("export the changes to the VRPs (json) since a version, all VRPs when the version is not known (anymore)")
+    @GetMapping(path = "/api/export/delta")
+    public JsonDelta exportDelta(@RequestParam(name = "since", required = false) Long since, HttpServletResponse response) {
+        response.setContentType(JSON);
+
+        if (!storage.readTx(settings::isInitialValidationRunCompleted)) {
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            return null;
         }
+
+        final ValidatedRpkiObjects.Snapshot snapshot = validatedRpkiObjects.getSnapshot();
+        vrpHistory.update(exportVersion(snapshot), vrps(snapshot));
+        final VrpHistory.Delta<VRP> delta = vrpHistory.since(since);
+        return new JsonDelta(delta.getVersion(), delta.isFull(), delta.getAdditions(), delta.getWithdrawals());
+    }
+
+    /**
+     * The exports depend on the validated objects and on the SLURM filters and assertions, the version is read
+     * before serializing so that a concurrent change leads to another serialization on the next request.
+     */
+    private List<Long> exportVersion(ValidatedRpkiObjects.Snapshot snapshot) {
+        return Arrays.asList(snapshot.getVersion(), slurmStore.getVersion());
     }
 
     @ApiOperation("export VRPs (JSON) extended with validity and serial number")
@@ -203,45 +273,62 @@ public class ExportsController {
     }
 
     /**
-     * Get the stream of VRPs based on ROAs - whitelist + SLURM assertions.
+     * Get the stream of VRPs based on ROAs - whitelist + SLURM assertions. The SLURM is read right away, so the
+     * supplier returns the same VRPs when it is called again after the SLURM changed.
      */
-    private Stream<VRP> vrpStream() {
-        Stream<VRP> validatedPrefixes = validatedRpkiObjects
-            .findCurrentlyValidatedRoaPrefixes()
-            .getObjects()
-            .filter(new IgnoreFiltersPredicate(ignoreFilters.all()).negate())
-            .map(r -> new VRP(
-                String.valueOf(r.getAsn()),
-                r.getPrefix().toString(),
-                r.getEffectiveLength(),
-                r.getTrustAnchor().getName())
-            );
-
-        final Stream<VRP> assertions = roaPrefixAssertions
-            .all()
-            .map(assertion -> new VRP(
-                assertion.getAsn().toString(),
-                assertion.getPrefix().toString(),
-                assertion.getMaxPrefixLength() != null ? assertion.getMaxPrefixLength() : assertion.getPrefix().getPrefixLength(),
-                "SLURM"
-            ));
+    private Supplier<Stream<VRP>> vrps(ValidatedRpkiObjects.Snapshot snapshot) {
+        final List<IgnoreFilter> filters = ignoreFilters.all().collect(Collectors.toList());
+        final List<RoaPrefixAssertionEntity> prefixAssertions = roaPrefixAssertions.all().collect(Collectors.toList());
+        return () -> {
+            Stream<VRP> validatedPrefixes = snapshot
+                .findRoaPrefixes()
+                .getObjects()
+                .filter(new IgnoreFiltersPredicate(filters.stream()).negate())
+                .map(r -> new VRP(
+                    String.valueOf(r.getAsn()),
+                    r.getPrefix().toString(),
+                    r.getEffectiveLength(),
+                    r.getTrustAnchor().getName())
+                );
+
+            final Stream<VRP> assertions = prefixAssertions
+                .stream()
+                .map(assertion -> new VRP(
+                    assertion.getAsn().toString(),
+                    assertion.getPrefix().toString(),
+                    assertion.getMaxPrefixLength() != null ? assertion.getMaxPrefixLength() : assertion.getPrefix().getPrefixLength(),
+                    "SLURM"
+                ));
 
-        return Stream.concat(validatedPrefixes, assertions).distinct();
+            return Stream.concat(validatedPrefixes, assertions).distinct();
+        };
     }
 
 
-    @Value
+    @lombok.Value
     private static class JsonExport {
         @ApiModelProperty(position = 3)
         Stream<VRP> roas;
     }
-    @Value
+    @lombok.Value
+    private static class JsonDelta {
+        @ApiModelProperty(value = "version to pass as since in the next request", position = 1)
+        long version;
+        @ApiModelProperty(value = "whether the additions are all VRPs, which replace the ones the client has", position = 2)
+        boolean full;
+        @ApiModelProperty(position = 3)
+        Collection<VRP> additions;
+        @ApiModelProperty(position = 4)
+        Collection<VRP> withdrawals;
+    }
+
+    @lombok.Value
     private static class JsonExportExtended {
         @ApiModelProperty(position = 4)
         Stream<ExtendedRoa> roas;
     }
 
-    @Value
+    @lombok.Value
     private static class VRP {
         @ApiModelProperty(value = ASN_PROPERTY, example = ASN_EXAMPLE)
         private String asn;
@@ -252,7 +339,7 @@ public class ExportsController {
         private String ta;
     }
 
-    @Value
+    @lombok.Value
     private static class ExtendedRoa {
         @ApiModelProperty(value = ASN_PROPERTY, example = ASN_EXAMPLE)
         private String asn;
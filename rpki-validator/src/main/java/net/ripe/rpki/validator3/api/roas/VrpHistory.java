@@ -0,0 +1,150 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.api.roas;
+
+import com.google.common.collect.Sets;
+import lombok.Value;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Bounded history of the changes to a set of exported values, so that clients only fetch what changed since the
+ * version they have.
+ * <p>
+ * The history is brought up to date when it is used. Only the supplier of the current values is kept, not the
+ * values themselves; it has to return the same values every time it is called.
+ */
+class VrpHistory<T> {
+
+    private final int maxDeltas;
+
+    /**
+     * Starts at the current time so that a version of an earlier run of the validator is not mistaken for a
+     * version of this run.
+     */
+    private long version = System.currentTimeMillis();
+    private Object sourceVersion;
+    private Supplier<Stream<T>> values;
+
+    /**
+     * The changes of each version to the next, oldest first.
+     */
+    private final Deque<Delta<T>> deltas = new ArrayDeque<>();
+
+    VrpHistory(int maxDeltas) {
+        this.maxDeltas = maxDeltas;
+    }
+
+    /**
+     * Records the changes to the values when the version of their source is not the one of the current values.
+     */
+    synchronized void update(Object sourceVersion, Supplier<Stream<T>> values) {
+        if (sourceVersion.equals(this.sourceVersion)) {
+            return;
+        }
+        if (this.values != null) {
+            final Set<T> previous = this.values.get().collect(Collectors.toSet());
+            final Set<T> current = values.get().collect(Collectors.toSet());
+            if (!previous.equals(current)) {
+                version++;
+                deltas.addLast(new Delta<>(version, false,
+                        new HashSet<>(Sets.difference(current, previous)),
+                        new HashSet<>(Sets.difference(previous, current))));
+                while (deltas.size() > maxDeltas) {
+                    deltas.removeFirst();
+                }
+            }
+        }
+        this.sourceVersion = sourceVersion;
+        this.values = values;
+    }
+
+    /**
+     * The changes since the version, or all current values as additions when the version is not (or no longer)
+     * in the history.
+     */
+    synchronized Delta<T> since(Long since) {
+        if (since == null || since > version || since < oldestVersion()) {
+            return new Delta<>(version, true, values.get().collect(Collectors.toSet()), Collections.emptySet());
+        }
+
+        final Set<T> additions = new HashSet<>();
+        final Set<T> withdrawals = new HashSet<>();
+        final Iterator<Delta<T>> newestFirst = deltas.descendingIterator();
+        while (newestFirst.hasNext()) {
+            final Delta<T> delta = newestFirst.next();
+            if (delta.getVersion() <= since) {
+                break;
+            }
+            // Going back in time, a value withdrawn by a newer delta that this one added did not change, and vice versa
+            for (T value : delta.getAdditions()) {
+                if (!withdrawals.remove(value)) {
+                    additions.add(value);
+                }
+            }
+            for (T value : delta.getWithdrawals()) {
+                if (!additions.remove(value)) {
+                    withdrawals.add(value);
+                }
+            }
+        }
+        return new Delta<>(version, false, additions, withdrawals);
+    }
+
+    synchronized long getVersion() {
+        return version;
+    }
+
+    private long oldestVersion() {
+        return deltas.isEmpty() ? version : deltas.getFirst().getVersion() - 1;
+    }
+
+    @Value
+    static class Delta<T> {
+        /**
+         * The version the changes lead to.
+         */
+        long version;
+        /**
+         * The additions are all values, the changes could not be determined.
+         */
+        boolean full;
+        Set<T> additions;
+        Set<T> withdrawals;
+    }
+}
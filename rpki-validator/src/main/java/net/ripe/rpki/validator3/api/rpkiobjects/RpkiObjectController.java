@@ -148,10 +148,7 @@ public class RpkiObjectController {
     }
 
     private Stream<Triple<RpkiObject, SortedSet<String>, Optional<ValidationCheck>>> getAssociatedRpkiObjects(Tx.Read tx, CertificateTreeValidationRun vr, Map<String, ValidationCheck> checkMap) {
-        return validationRuns.findAssociatedPks(tx, vr).stream()
-                .map(k -> rpkiObjects.get(tx, k))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
+        return rpkiObjects.getAll(tx, validationRuns.findAssociatedPks(tx, vr)).stream()
                 .map(ro -> {
                     final SortedSet<String> locations = rpkiObjects.getLocations(tx, ro.key());
                     final Optional<ValidationCheck> check = locations
@@ -185,10 +182,12 @@ public class RpkiObjectController {
         return byteStream.
                 collect(Collectors.toList()).
                 parallelStream().
-                map(bytes -> {
-                    ValidationResult vr = newValidationResult("whatever." + fileExtension);
-                    return CertificateRepositoryObjectFactory.createCertificateRepositoryObject(bytes, vr);
-                });
+                map(bytes -> parseObject(bytes, fileExtension));
+    }
+
+    private static CertificateRepositoryObject parseObject(byte[] bytes, String fileExtension) {
+        ValidationResult vr = newValidationResult("whatever." + fileExtension);
+        return CertificateRepositoryObjectFactory.createCertificateRepositoryObject(bytes, vr);
     }
 
     @GetMapping(path = "/certified.csv", produces = "text/csv; charset=UTF-8")
@@ -272,8 +271,10 @@ public class RpkiObjectController {
         try (final CSVWriter writer = new CSVWriter(response.getWriter())) {
             writer.writeNext(new String[]{"Subject", "Resources"});
 
-            Stream<byte[]> byteStream = storage.readTx(tx -> rpkiObjects.streamObjects(tx, RpkiObject.Type.CER));
-            objectStream(byteStream, "cer")
+            // Parse and write the certificates one at a time while reading them, so that memory use does
+            // not depend on the number of certificates
+            storage.readTx0(tx -> rpkiObjects.streamObjects(tx, RpkiObject.Type.CER)
+                    .map(bytes -> parseObject(bytes, "cer"))
                     .forEachOrdered(c -> {
                         if (c instanceof X509ResourceCertificate) {
                             final X509ResourceCertificate cert = (X509ResourceCertificate) c;
@@ -282,7 +283,7 @@ public class RpkiObjectController {
                                     cert.getResources().toString()
                             });
                         }
-                    });
+                    }));
         }
     }
 
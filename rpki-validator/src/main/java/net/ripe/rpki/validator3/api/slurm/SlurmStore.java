@@ -66,6 +66,12 @@ public class SlurmStore {
     @Getter
     private final AtomicLong idSeq = new AtomicLong(0);
 
+    /**
+     * Incremented every time the SLURM is saved.
+     */
+    @Getter
+    private volatile long version;
+
     public SlurmStore(String path) {
         final File slurmFile = new File(path, "slurm.json");
         this.slurmFileName = slurmFile.getAbsolutePath();
@@ -86,6 +92,7 @@ public class SlurmStore {
 
     public synchronized void save(SlurmExt slurm) {
         slurmExt = slurm.copy();
+        version++;
         final String tmp = slurmFileName + ".tmp";
         try {
             byte[] bytes = gson.toJson(slurmExt.toSlurm()).getBytes(StandardCharsets.UTF_8);
@@ -35,6 +35,8 @@ import net.ripe.rpki.commons.validation.ValidationOptions;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+
 @Component
 @ConfigurationProperties("rpki.validator")
 public class ValidationConfig {
@@ -56,6 +58,21 @@ public class ValidationConfig {
     @Setter
     private boolean rsyncOnly;
 
+    /**
+     * Reuse the results of certificate authorities whose certificate, manifest and CRL did not change
+     * since the previous certificate tree validation run of the trust anchor.
+     */
+    @Getter
+    @Setter
+    private boolean incrementalValidation = false;
+
+    /**
+     * Maximum time between two full (non-incremental) certificate tree validation runs of a trust anchor.
+     */
+    @Getter
+    @Setter
+    private Duration fullValidationInterval = Duration.ofHours(1);
+
     public ValidationOptions validationOptions() {
         if (earlyWarningValidation) {
             return ValidationOptions.paranoidTestValidations();
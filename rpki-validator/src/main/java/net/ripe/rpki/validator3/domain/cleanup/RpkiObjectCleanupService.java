@@ -29,6 +29,9 @@
  */
 package net.ripe.rpki.validator3.domain.cleanup;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.api.util.InstantWithoutNanos;
 import net.ripe.rpki.validator3.storage.Storage;
@@ -41,6 +44,7 @@ import org.springframework.stereotype.Service;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @Slf4j
@@ -53,17 +57,38 @@ public class RpkiObjectCleanupService {
 
     private final Storage storage;
 
+    private final Counter deletedCounter;
+
+    private final AtomicLong pendingDeletes = new AtomicLong();
+
 
     public RpkiObjectCleanupService(@Value("${rpki.validator.rpki.object.cleanup.grace.duration}") String cleanupGraceDuration,
-                                    Storage storage) {
+                                    Storage storage,
+                                    MeterRegistry registry) {
         this.cleanupGraceDuration = Duration.parse(cleanupGraceDuration);
         log.info("Configured to remove objects older than {}", cleanupGraceDuration);
         this.storage = storage;
+        this.deletedCounter = Counter.builder("rpkivalidator.cleanup.rpki.objects.deleted")
+                .description("Number of unreachable RPKI objects deleted")
+                .register(registry);
+        Gauge.builder("rpkivalidator.cleanup.rpki.objects.pending", pendingDeletes, AtomicLong::get)
+                .description("Number of unreachable RPKI objects the running cleanup still has to delete")
+                .register(registry);
     }
 
     public long cleanupRpkiObjects() throws Exception {
         final InstantWithoutNanos unreachableSince = InstantWithoutNanos.now().minus(cleanupGraceDuration);
-        final Pair<Long, Long> deleted = Time.timed(() -> rpkiObjects.deleteUnreachableObjects(unreachableSince));
+        final Pair<Long, Long> deleted;
+        try {
+            deleted = Time.timed(() -> rpkiObjects.deleteUnreachableObjects(unreachableSince, remaining -> {
+                final long previous = pendingDeletes.getAndSet(remaining);
+                if (previous > remaining) {
+                    deletedCounter.increment(previous - remaining);
+                }
+            }));
+        } finally {
+            pendingDeletes.set(0);
+        }
         log.info("Removed {} RPKI objects that have not been marked reachable since {}, took {}ms", deleted.getLeft(), unreachableSince, deleted.getRight());
         storage.gc();
         return deleted.getLeft();
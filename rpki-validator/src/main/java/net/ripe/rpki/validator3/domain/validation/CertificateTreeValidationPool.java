@@ -0,0 +1,199 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.validator3.domain.validation.ValidatedRpkiObjects.TrustAnchorData;
+import net.ripe.rpki.validator3.storage.data.Key;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Dedicated fork-join pool for the certificate tree validation, so that tree validation does not compete with RRDP
+ * parsing and BGP preview updates for the threads of the common fork-join pool.
+ *
+ * Every trust anchor has a budget of tasks it can fork into the pool. When the budget is used up the remaining
+ * work is done by the thread that is already working on the trust anchor, so a single large trust anchor cannot
+ * fill up the work queues and starve the validation of the other trust anchors.
+ */
+@Component
+@Slf4j
+public class CertificateTreeValidationPool {
+
+    private final ForkJoinPool pool;
+
+    private final int trustAnchorParallelism;
+
+    private final MeterRegistry registry;
+
+    private final Map<Key, AtomicInteger> forkedTasksByTrustAnchor = new ConcurrentHashMap<>();
+
+    @Autowired
+    public CertificateTreeValidationPool(@Value("${rpki.validator.tree-validation.parallelism:0}") int parallelism,
+                                         @Value("${rpki.validator.tree-validation.trust-anchor-parallelism:0}") int trustAnchorParallelism,
+                                         MeterRegistry registry) {
+        final int poolParallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.trustAnchorParallelism = trustAnchorParallelism > 0 ?
+                Math.min(trustAnchorParallelism, poolParallelism) :
+                Math.max(1, poolParallelism / 2);
+        this.registry = registry;
+        this.pool = new ForkJoinPool(poolParallelism, CertificateTreeValidationPool::newThread, null, false);
+        log.info("Certificate tree validation pool parallelism is {}, at most {} per trust anchor", poolParallelism, this.trustAnchorParallelism);
+
+        Gauge.builder("rpkivalidator.tree.validation.pool.queued.tasks", pool, p -> p.getQueuedTaskCount() + p.getQueuedSubmissionCount())
+                .description("Number of certificate tree validation tasks waiting to be executed")
+                .register(registry);
+        Gauge.builder("rpkivalidator.tree.validation.pool.active.threads", pool, ForkJoinPool::getActiveThreadCount)
+                .description("Number of threads executing certificate tree validation tasks")
+                .register(registry);
+        Gauge.builder("rpkivalidator.tree.validation.pool.size", pool, ForkJoinPool::getPoolSize)
+                .description("Number of threads in the certificate tree validation pool")
+                .register(registry);
+        FunctionCounter.builder("rpkivalidator.tree.validation.pool.steals", pool, ForkJoinPool::getStealCount)
+                .description("Number of certificate tree validation tasks stolen from the queue of another thread")
+                .register(registry);
+    }
+
+    private static ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("tree-validation-" + thread.getPoolIndex());
+        return thread;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Run the validation of a trust anchor in the pool and wait for the result.
+     */
+    public <T> T invoke(Supplier<T> validation) {
+        if (ForkJoinTask.getPool() == pool) {
+            return validation.get();
+        }
+        return pool.invoke(new SupplierTask<>(validation));
+    }
+
+    /**
+     * Apply f to all items, forking tasks into the pool as long as the trust anchor has not used up its budget and
+     * running the rest in the current thread.
+     *
+     * @return the results in the order of the items
+     */
+    public <T, R> List<R> map(TrustAnchorData trustAnchor, List<T> items, Function<T, R> f) {
+        if (ForkJoinTask.getPool() != pool) {
+            return invoke(() -> map(trustAnchor, items, f));
+        }
+
+        final AtomicInteger forkedTasks = forkedTasks(trustAnchor);
+        final List<ForkJoinTask<R>> tasks = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            final T item = items.get(i);
+            // Never fork the last item, the current thread would only be waiting for it.
+            if (i < items.size() - 1 && tryAcquire(forkedTasks)) {
+                tasks.add(new SupplierTask<>(() -> {
+                    try {
+                        return f.apply(item);
+                    } finally {
+                        forkedTasks.decrementAndGet();
+                    }
+                }).fork());
+            } else {
+                tasks.add(null);
+            }
+        }
+
+        final List<R> results = new ArrayList<>(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            results.add(tasks.get(i) == null ? f.apply(items.get(i)) : null);
+        }
+        for (int i = 0; i < items.size(); i++) {
+            if (tasks.get(i) != null) {
+                results.set(i, tasks.get(i).join());
+            }
+        }
+        return results;
+    }
+
+    private boolean tryAcquire(AtomicInteger forkedTasks) {
+        // The thread calling map is already working on the trust anchor, so fork one task less.
+        final int limit = trustAnchorParallelism - 1;
+        int current;
+        do {
+            current = forkedTasks.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!forkedTasks.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private AtomicInteger forkedTasks(TrustAnchorData trustAnchor) {
+        return forkedTasksByTrustAnchor.computeIfAbsent(trustAnchor.getId(), id -> {
+            final AtomicInteger forkedTasks = new AtomicInteger();
+            Gauge.builder("rpkivalidator.tree.validation.forked.tasks", forkedTasks, AtomicInteger::get)
+                    .description("Number of certificate tree validation tasks forked for this trust anchor")
+                    .tag("trust_anchor", trustAnchor.getName())
+                    .register(registry);
+            return forkedTasks;
+        });
+    }
+
+    private static class SupplierTask<T> extends RecursiveTask<T> {
+        private final Supplier<T> supplier;
+
+        SupplierTask(Supplier<T> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        protected T compute() {
+            return supplier.get();
+        }
+    }
+}
@@ -33,11 +33,14 @@ import com.google.common.collect.ImmutableSortedSet;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.cms.RpkiSignedObject;
 import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
 import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.x509cert.X509GenericCertificate;
 import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
 import net.ripe.rpki.commons.util.RepositoryObjectType;
 import net.ripe.rpki.commons.validation.ValidationLocation;
+import net.ripe.rpki.commons.validation.ValidationOptions;
 import net.ripe.rpki.commons.validation.ValidationResult;
 import net.ripe.rpki.commons.validation.ValidationStatus;
 import net.ripe.rpki.commons.validation.ValidationString;
@@ -47,6 +50,10 @@ import net.ripe.rpki.validator3.background.ValidationScheduler;
 import net.ripe.rpki.validator3.config.ValidationConfig;
 import net.ripe.rpki.validator3.domain.ErrorCodes;
 import net.ripe.rpki.validator3.domain.metrics.TrustAnchorMetricsService;
+import net.ripe.rpki.validator3.domain.validation.IncrementalValidationCache.ChildCertificateAuthority;
+import net.ripe.rpki.validator3.domain.validation.IncrementalValidationCache.Fingerprint;
+import net.ripe.rpki.validator3.domain.validation.IncrementalValidationCache.Generation;
+import net.ripe.rpki.validator3.domain.validation.IncrementalValidationCache.Slice;
 import net.ripe.rpki.validator3.domain.validation.ValidatedRpkiObjects.Accumulator;
 import net.ripe.rpki.validator3.domain.validation.ValidatedRpkiObjects.TrustAnchorData;
 import net.ripe.rpki.validator3.storage.Storage;
@@ -65,6 +72,7 @@ import net.ripe.rpki.validator3.storage.stores.ValidationRuns;
 import net.ripe.rpki.validator3.util.Bench;
 import net.ripe.rpki.validator3.util.Time;
 import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -76,6 +84,7 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.SortedSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.stream.Collectors.toList;
 import static net.ripe.rpki.commons.validation.ValidationString.VALIDATOR_CRL_FOUND;
@@ -110,6 +119,9 @@ public class CertificateTreeValidationService {
     private final Storage storage;
     private final ValidatedRpkiObjects validatedRpkiObjects;
     private final TrustAnchorState trustAnchorState;
+    private final CertificateTreeValidationPool validationPool;
+    private final SignatureVerificationCache signatureVerificationCache;
+    private final IncrementalValidationCache incrementalValidationCache = new IncrementalValidationCache();
 
     @Autowired
     public CertificateTreeValidationService(RpkiObjects rpkiObjects,
@@ -122,7 +134,9 @@ public class CertificateTreeValidationService {
                                             Storage storage,
                                             TrustAnchorState trustAnchorState,
                                             TrustAnchorMetricsService taMetricsService,
-                                            ValidationConfig validationConfig) {
+                                            ValidationConfig validationConfig,
+                                            CertificateTreeValidationPool validationPool,
+                                            SignatureVerificationCache signatureVerificationCache) {
         this.rpkiObjects = rpkiObjects;
         this.rpkiRepositories = rpkiRepositories;
         this.settings = settings;
@@ -134,7 +148,8 @@ public class CertificateTreeValidationService {
         this.taMetricsService = taMetricsService;
         this.trustAnchorState = trustAnchorState;
         this.validationConfig = validationConfig;
-
+        this.validationPool = validationPool;
+        this.signatureVerificationCache = signatureVerificationCache;
     }
 
     /** Log at INFO when below threshold, log at WARN when above */
@@ -161,6 +176,7 @@ public class CertificateTreeValidationService {
             Bench.mark0("validateTa " + trustAnchor.getName(), () -> validateTa(trustAnchor));
         } else {
             log.error("Couldn't find trust anchor {}", trustAnchorId);
+            incrementalValidationCache.remove(Key.of(trustAnchorId));
         }
     }
 
@@ -172,6 +188,10 @@ public class CertificateTreeValidationService {
 
         final Ref<TrustAnchor> trustAnchorRef = storage.readTx(tx -> trustAnchors.makeRef(tx, trustAnchor.key()));
         final CertificateTreeValidationRun validationRun = new CertificateTreeValidationRun(trustAnchorRef);
+        final Generation generation = incrementalValidationCache.startRun(
+                trustAnchor.key(),
+                validationConfig.isIncrementalValidation(),
+                validationConfig.getFullValidationInterval());
 
         String trustAnchorLocation = trustAnchor.getLocations().get(0);
         ValidationResult validations = ValidationResult.withLocation(trustAnchorLocation).withoutStoringPassingChecks();
@@ -200,8 +220,18 @@ public class CertificateTreeValidationService {
             }
 
             TrustAnchorData trustAnchorData = TrustAnchorData.of(trustAnchor.getId(), trustAnchor.getName());
-            CertificateAuthorityValidationResult certificateAuthorityValidationResult = validateCertificateAuthority(trustAnchorData, registeredRepositories, context);
+            // All lookups of one tree validation run read from the same snapshot of the object store, so the
+            // run sees a consistent view of the repository and avoids a transaction per lookup.
+            CertificateAuthorityValidationResult certificateAuthorityValidationResult;
+            try (Tx.Snapshot snapshot = storage.readSnapshot()) {
+                certificateAuthorityValidationResult = validationPool.invoke(() ->
+                        validateCertificateAuthority(trustAnchorData, registeredRepositories, generation, snapshot, context));
+            }
             validations.addAll(certificateAuthorityValidationResult.getAllValidationResults());
+            incrementalValidationCache.completeRun(trustAnchor.key(), generation);
+            if (generation.isIncremental()) {
+                log.info("Reused the results of {} certificate authorities of {} from the previous validation run", generation.reusedCount(), trustAnchor.getName());
+            }
 
             Accumulator accumulator = certificateAuthorityValidationResult.getAllValidatedObjects();
 
@@ -265,6 +295,8 @@ public class CertificateTreeValidationService {
     private CertificateAuthorityValidationResult validateCertificateAuthority(
             final TrustAnchorData trustAnchor,
             final Map<URI, RpkiRepository> registeredRepositories,
+            final Generation generation,
+            final Tx.Snapshot snapshot,
             final CertificateRepositoryObjectValidationContext context
     ) {
         ValidationResult validations = newValidationResult(context.getLocation());
@@ -283,7 +315,7 @@ public class CertificateTreeValidationService {
             validations.setLocation(new ValidationLocation(manifestUri));
 
             Optional<RpkiObject> manifestObject = Bench.mark(trustAnchor.getName(), "findLatestMftByAKI", () ->
-                storage.readTx(tx -> rpkiObjects.findLatestMftByAKI(tx, certificate.getSubjectKeyIdentifier())));
+                rpkiObjects.findLatestMftByAKI(snapshot.tx(), certificate.getSubjectKeyIdentifier()));
 
             if (!manifestObject.isPresent()) {
                 if (rpkiRepository.getStatus() == RpkiRepository.Status.FAILED) {
@@ -316,7 +348,18 @@ public class CertificateTreeValidationService {
             Map.Entry<String, byte[]> crlEntry = crlEntries.get(0);
             URI crlUri = manifestUri.resolve(crlEntry.getKey());
 
-            Optional<RpkiObject> crlObject = storage.readTx(tx -> rpkiObjects.findBySha256(tx, crlEntry.getValue()));
+            final Fingerprint fingerprint = generation.isEnabled() ?
+                    Fingerprint.of(context, manifestObject.get().key(), Key.of(crlEntry.getValue())) :
+                    null;
+            if (fingerprint != null) {
+                Optional<CertificateAuthorityValidationResult> reused = generation.reusable(fingerprint)
+                        .flatMap(slice -> reuseSlice(trustAnchor, registeredRepositories, generation, snapshot, context, validations, fingerprint, slice));
+                if (reused.isPresent()) {
+                    return reused.get();
+                }
+            }
+
+            Optional<RpkiObject> crlObject = rpkiObjects.findBySha256(snapshot.tx(), crlEntry.getValue());
             validations.rejectIfFalse(crlObject.isPresent(), VALIDATOR_CRL_FOUND, crlUri.toASCIIString());
             if (validations.hasFailureForCurrentLocation()) {
                 return result;
@@ -329,13 +372,18 @@ public class CertificateTreeValidationService {
             }
 
             final X509Crl x509Crl = crl.get();
-            x509Crl.validate(crlUri.toASCIIString(), context, null, validationConfig.validationOptions(), validations);
+            final Key crlKey = crlObject.get().key();
+            final Key issuerKey = SignatureVerificationCache.issuerKey(context);
+            final ValidationOptions validationOptions = validationConfig.validationOptions();
+            signatureVerificationCache.validate(x509Crl, crlKey, issuerKey, null, validationOptions, validations, v ->
+                    x509Crl.validate(crlUri.toASCIIString(), context, null, validationOptions, v));
             if (validations.hasFailureForCurrentLocation()) {
                 return result;
             }
 
             validations.setLocation(new ValidationLocation(manifestUri));
-            manifest.validate(manifestUri.toASCIIString(), context, x509Crl, manifest.getCrlUri(), validationConfig.validationOptions(), validations);
+            signatureVerificationCache.validate(manifest, manifestObject.get().key(), issuerKey, crlKey, validationOptions, validations, v ->
+                    manifest.validate(manifestUri.toASCIIString(), context, x509Crl, manifest.getCrlUri(), validationOptions, v));
             if (validations.hasFailureForCurrentLocation()) {
                 return result;
             }
@@ -343,30 +391,74 @@ public class CertificateTreeValidationService {
             result.add(trustAnchor, manifestObject.get().key(), manifest, manifestUri);
 
             CertificateAuthorityValidationResult validatedManifestEntries
-                    = validateManifestEntries(trustAnchor, registeredRepositories, context, manifestUri, manifest, crlUri, x509Crl);
+                    = validateManifestEntries(trustAnchor, registeredRepositories, generation, snapshot, context, issuerKey, manifestUri, manifest, crlUri, crlKey, x509Crl);
             result.addAll(validatedManifestEntries);
+
+            if (fingerprint != null && result.getValidationResult().hasNoFailuresOrWarnings()) {
+                generation.record(fingerprint, Slice.of(
+                        result.getAccumulator(),
+                        result.getChildCertificateAuthorities(),
+                        result.getValidUntil().get()));
+            }
         } catch (Exception e) {
             validations.error(ErrorCodes.UNHANDLED_EXCEPTION, e.toString(), ExceptionUtils.getStackTrace(e));
         }
         return result;
     }
 
+    /**
+     * Reuse the objects validated under a CA in the previous validation run. The child CAs are still visited,
+     * since their manifests may have changed independently.
+     *
+     * @return empty when a child CA certificate can no longer be loaded, the CA must then be validated in full.
+     */
+    private Optional<CertificateAuthorityValidationResult> reuseSlice(
+            TrustAnchorData trustAnchor,
+            final Map<URI, RpkiRepository> registeredRepositories,
+            final Generation generation,
+            final Tx.Snapshot snapshot,
+            CertificateRepositoryObjectValidationContext context,
+            ValidationResult validations,
+            Fingerprint fingerprint,
+            Slice slice
+    ) {
+        List<CertificateRepositoryObjectValidationContext> childContexts = new ArrayList<>(slice.getChildren().size());
+        for (ChildCertificateAuthority child : slice.getChildren()) {
+            Optional<X509ResourceCertificate> certificate = rpkiObjects.get(snapshot.tx(), child.getKey())
+                    .flatMap(o -> o.get(X509ResourceCertificate.class, child.getLocation().toASCIIString()));
+            if (!certificate.isPresent()) {
+                return Optional.empty();
+            }
+            childContexts.add(context.createChildContext(child.getLocation(), certificate.get()));
+        }
+
+        generation.recordReused(fingerprint, slice);
+
+        CertificateAuthorityValidationResult result = CertificateAuthorityValidationResult.of(validations);
+        result.getAccumulator().addAll(slice.getAccumulator());
+        validationPool.map(trustAnchor, childContexts, childContext ->
+                validateCertificateAuthority(trustAnchor, registeredRepositories, generation, snapshot, childContext)
+        ).forEach(result::addChild);
+        return Optional.of(result);
+    }
+
     private CertificateAuthorityValidationResult validateManifestEntries(
             TrustAnchorData trustAnchor,
             final Map<URI, RpkiRepository> registeredRepositories,
+            final Generation generation,
+            final Tx.Snapshot snapshot,
             CertificateRepositoryObjectValidationContext context,
+            Key issuerKey,
             URI manifestUri,
             ManifestCms manifest,
             URI crlUri,
+            Key crlKey,
             X509Crl x509Crl
     ) {
-        CertificateAuthorityValidationResult result = manifest.getFiles().entrySet().parallelStream()
-                .map(entry -> validateManifestEntry(trustAnchor, registeredRepositories, context, manifestUri, crlUri, x509Crl, entry))
-                .collect(
-                        CertificateAuthorityValidationResult::empty,
-                        CertificateAuthorityValidationResult::addAll,
-                        CertificateAuthorityValidationResult::addAll
-                );
+        CertificateAuthorityValidationResult result = CertificateAuthorityValidationResult.empty();
+        validationPool.map(trustAnchor, new ArrayList<>(manifest.getFiles().entrySet()), entry ->
+                validateManifestEntry(trustAnchor, registeredRepositories, generation, snapshot, context, issuerKey, manifestUri, crlUri, crlKey, x509Crl, entry)
+        ).forEach(result::addAll);
 
         if (!validationConfig.isStrictValidation()) {
             return result;
@@ -388,9 +480,13 @@ public class CertificateTreeValidationService {
     private CertificateAuthorityValidationResult validateManifestEntry(
             TrustAnchorData trustAnchor,
             final Map<URI, RpkiRepository> registeredRepositories,
+            final Generation generation,
+            final Tx.Snapshot snapshot,
             CertificateRepositoryObjectValidationContext context,
+            Key issuerKey,
             URI manifestUri,
             URI crlUri,
+            Key crlKey,
             X509Crl crl,
             Map.Entry<String, byte[]> entry
     ) {
@@ -399,7 +495,7 @@ public class CertificateTreeValidationService {
         ValidationResult validations = newValidationResult(location);
         CertificateAuthorityValidationResult result = CertificateAuthorityValidationResult.of(validations);
 
-        Optional<RpkiObject> object = storage.readTx(tx -> rpkiObjects.findBySha256(tx, entry.getValue()));
+        Optional<RpkiObject> object = rpkiObjects.findBySha256(snapshot.tx(), entry.getValue());
         validations.rejectIfFalse(object.isPresent(), VALIDATOR_MANIFEST_ENTRY_FOUND, manifestUri.toASCIIString());
         if (validations.hasFailureForCurrentLocation()) {
             return result;
@@ -412,7 +508,7 @@ public class CertificateTreeValidationService {
             return result;
         }
 
-        SortedSet<String> locations = storage.readTx(tx -> rpkiObjects.getLocations(tx, rpkiObject.key()));
+        SortedSet<String> locations = rpkiObjects.getLocations(snapshot.tx(), rpkiObject.key());
         validations.rejectIfFalse(locations.contains(location.toASCIIString()), VALIDATOR_REPOSITORY_NOT_AT_EXPECTED_LOCATION, location.toASCIIString());
         if (validations.hasFailureForCurrentLocation()) {
             return result;
@@ -426,8 +522,10 @@ public class CertificateTreeValidationService {
         }
 
         CertificateRepositoryObject certificateRepositoryObject = maybeCertificateRepositoryObject.get();
+        final ValidationOptions validationOptions = validationConfig.validationOptions();
         Bench.mark0(trustAnchor.getName(), "certificateRepositoryObject.validate", () ->
-                certificateRepositoryObject.validate(location.toASCIIString(), context, crl, crlUri, validationConfig.validationOptions(), validations)
+                signatureVerificationCache.validate(certificateRepositoryObject, key, issuerKey, crlKey, validationOptions, validations, v ->
+                        certificateRepositoryObject.validate(location.toASCIIString(), context, crl, crlUri, validationOptions, v))
         );
         if (validations.hasFailureForCurrentLocation()) {
             return result;
@@ -439,7 +537,8 @@ public class CertificateTreeValidationService {
             X509ResourceCertificate resourceCertificate = (X509ResourceCertificate) certificateRepositoryObject;
             if (resourceCertificate.isCa()) {
                 CertificateRepositoryObjectValidationContext childContext = context.createChildContext(location, resourceCertificate);
-                result.addChild(validateCertificateAuthority(trustAnchor, registeredRepositories, childContext));
+                result.addChildCertificateAuthority(key, location);
+                result.addChild(validateCertificateAuthority(trustAnchor, registeredRepositories, generation, snapshot, childContext));
             }
         }
 
@@ -474,6 +573,9 @@ public class CertificateTreeValidationService {
         ValidationResult validationResult;
         Accumulator accumulator = new Accumulator();
         List<CertificateAuthorityValidationResult> children = new ArrayList<>();
+        List<ChildCertificateAuthority> childCertificateAuthorities = new ArrayList<>();
+        /** Time (epoch millis) at which the first of the accumulated objects expires */
+        AtomicLong validUntil = new AtomicLong(Long.MAX_VALUE);
 
         public static CertificateAuthorityValidationResult empty() {
             return CertificateAuthorityValidationResult.of(newValidationResult("<empty>"));
@@ -481,18 +583,44 @@ public class CertificateTreeValidationService {
 
         public void add(TrustAnchorData trustAnchor, Key key, CertificateRepositoryObject object, URI location) {
             this.accumulator.add(trustAnchor, key, object, ImmutableSortedSet.of(location.toASCIIString()));
+            this.validUntil.accumulateAndGet(expiresAt(object), Math::min);
         }
 
         public void addAll(CertificateAuthorityValidationResult that) {
             this.validationResult.addAll(that.validationResult);
             this.accumulator.addAll(that.accumulator);
             this.children.addAll(that.children);
+            this.childCertificateAuthorities.addAll(that.childCertificateAuthorities);
+            this.validUntil.accumulateAndGet(that.validUntil.get(), Math::min);
         }
 
         public void addChild(CertificateAuthorityValidationResult result) {
             this.children.add(result);
         }
 
+        public void addChildCertificateAuthority(Key key, URI location) {
+            this.childCertificateAuthorities.add(ChildCertificateAuthority.of(key, location));
+        }
+
+        private static long expiresAt(CertificateRepositoryObject object) {
+            long result = Long.MAX_VALUE;
+            if (object instanceof ManifestCms) {
+                result = earliest(result, ((ManifestCms) object).getNextUpdateTime());
+            }
+            if (object instanceof RpkiSignedObject) {
+                result = earliest(result, ((RpkiSignedObject) object).getNotValidAfter());
+            } else if (object instanceof X509Crl) {
+                result = earliest(result, ((X509Crl) object).getNextUpdateTime());
+            } else if (object instanceof X509GenericCertificate) {
+                result = earliest(result, ((X509GenericCertificate) object).getValidityPeriod().getNotValidAfter());
+            }
+            return result;
+        }
+
+        private static long earliest(long millis, DateTime time) {
+            return time == null ? millis : Math.min(millis, time.getMillis());
+        }
+
         public ValidationResult getAllValidationResults() {
             ValidationResult result = newValidationResult(this.validationResult.getCurrentLocation());
             result.addAll(this.validationResult);
@@ -0,0 +1,199 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import lombok.Value;
+import net.ripe.rpki.commons.validation.objectvalidators.CertificateRepositoryObjectValidationContext;
+import net.ripe.rpki.validator3.domain.validation.ValidatedRpkiObjects.Accumulator;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.util.Sha256;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keeps the per-CA results of the previous certificate tree validation run of every trust anchor.
+ *
+ * A CA result is identified by the fingerprint of everything its validation depends on: the CA certificate,
+ * the resources it effectively holds (inherited resources come from the parent), its latest manifest and the
+ * CRL on that manifest. When the fingerprint of a CA did not change since the previous run its result is
+ * reused and only its child CAs are visited again. Results containing warnings or errors are never reused
+ * and a result is only reused until the first of its objects expires.
+ */
+class IncrementalValidationCache {
+
+    private final Map<Key, Generation> generations = new ConcurrentHashMap<>();
+
+    private final Map<Key, Instant> lastFullValidation = new ConcurrentHashMap<>();
+
+    /**
+     * Start a new validation run for the trust anchor. The run reuses the results of the previous run, unless
+     * incremental validation is disabled or the previous full validation run is too long ago.
+     */
+    Generation startRun(Key trustAnchorKey, boolean incremental, Duration fullValidationInterval) {
+        if (!incremental) {
+            generations.remove(trustAnchorKey);
+            lastFullValidation.remove(trustAnchorKey);
+            return Generation.disabled();
+        }
+
+        final Instant now = Instant.now();
+        final Instant lastFull = lastFullValidation.get(trustAnchorKey);
+        final Generation previous = generations.get(trustAnchorKey);
+        if (previous == null || lastFull == null || lastFull.plus(fullValidationInterval).isBefore(now)) {
+            return Generation.full(now);
+        }
+        return Generation.incremental(previous.current);
+    }
+
+    /**
+     * Make the results of the run available to the next run of the same trust anchor.
+     */
+    void completeRun(Key trustAnchorKey, Generation generation) {
+        if (!generation.enabled) {
+            return;
+        }
+        generations.put(trustAnchorKey, generation);
+        if (generation.startedFullValidationAt != null) {
+            lastFullValidation.put(trustAnchorKey, generation.startedFullValidationAt);
+        }
+    }
+
+    void remove(Key trustAnchorKey) {
+        generations.remove(trustAnchorKey);
+        lastFullValidation.remove(trustAnchorKey);
+    }
+
+    static class Generation {
+        private final boolean enabled;
+        private final Instant startedFullValidationAt;
+        private final Map<Fingerprint, Slice> previous;
+        private final Map<Fingerprint, Slice> current = new ConcurrentHashMap<>();
+        private final AtomicInteger reused = new AtomicInteger();
+
+        private Generation(boolean enabled, Instant startedFullValidationAt, Map<Fingerprint, Slice> previous) {
+            this.enabled = enabled;
+            this.startedFullValidationAt = startedFullValidationAt;
+            this.previous = previous;
+        }
+
+        static Generation disabled() {
+            return new Generation(false, null, Collections.emptyMap());
+        }
+
+        static Generation full(Instant now) {
+            return new Generation(true, now, Collections.emptyMap());
+        }
+
+        static Generation incremental(Map<Fingerprint, Slice> previous) {
+            return new Generation(true, null, previous);
+        }
+
+        boolean isEnabled() {
+            return enabled;
+        }
+
+        boolean isIncremental() {
+            return enabled && startedFullValidationAt == null;
+        }
+
+        Optional<Slice> reusable(Fingerprint fingerprint) {
+            final Slice slice = previous.get(fingerprint);
+            if (slice == null || slice.getValidUntil() <= System.currentTimeMillis()) {
+                return Optional.empty();
+            }
+            return Optional.of(slice);
+        }
+
+        void record(Fingerprint fingerprint, Slice slice) {
+            if (enabled) {
+                current.put(fingerprint, slice);
+            }
+        }
+
+        /**
+         * Records a slice of the previous run that was reused, after reusing it succeeded.
+         */
+        void recordReused(Fingerprint fingerprint, Slice slice) {
+            record(fingerprint, slice);
+            reused.incrementAndGet();
+        }
+
+        int size() {
+            return current.size();
+        }
+
+        int reusedCount() {
+            return reused.get();
+        }
+    }
+
+    @Value(staticConstructor = "of")
+    static class Fingerprint {
+        Key certificate;
+        Key resources;
+        Key manifest;
+        Key crl;
+
+        static Fingerprint of(CertificateRepositoryObjectValidationContext context, Key manifest, Key crl) {
+            return of(
+                Key.of(Sha256.hash(context.getCertificate().getEncoded())),
+                Key.of(Sha256.hash(context.getResources().toString().getBytes(UTF_8))),
+                manifest,
+                crl
+            );
+        }
+    }
+
+    /**
+     * The objects validated directly under one CA, excluding the objects of its child CAs.
+     */
+    @Value(staticConstructor = "of")
+    static class Slice {
+        Accumulator accumulator;
+        List<ChildCertificateAuthority> children;
+        long validUntil;
+    }
+
+    @Value(staticConstructor = "of")
+    static class ChildCertificateAuthority {
+        Key key;
+        URI location;
+    }
+}
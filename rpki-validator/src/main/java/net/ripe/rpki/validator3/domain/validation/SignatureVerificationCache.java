@@ -0,0 +1,180 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.cms.RpkiSignedObject;
+import net.ripe.rpki.commons.crypto.cms.manifest.ManifestCms;
+import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.x509cert.X509GenericCertificate;
+import net.ripe.rpki.commons.validation.ValidationOptions;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.commons.validation.objectvalidators.CertificateRepositoryObjectValidationContext;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.util.Sha256;
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static net.ripe.rpki.validator3.domain.RpkiObjectUtils.newValidationResult;
+
+/**
+ * Remembers which objects passed validation against a given issuer and CRL, so that unchanged objects do not
+ * have their signatures verified again in every certificate tree validation run.
+ *
+ * A result is identified by the object, the issuer certificate (including the resources the issuer effectively
+ * holds and its subject chain), the CRL and the validation options. Only results without warnings or errors are
+ * kept, and only for the period in which the time-dependent checks of the object (certificate validity, CRL and
+ * manifest this/next update) passed as well. Outside that period the object is fully validated again.
+ */
+@Component
+@Slf4j
+public class SignatureVerificationCache {
+
+    private final Cache<Verification, ValidityWindow> cache;
+
+    @Autowired
+    public SignatureVerificationCache(@Value("${rpki.validator.signature-verification-cache.maximum-size:400000}") long maximumSize,
+                                      MeterRegistry registry) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        log.info("Caching up to {} signature verification results", maximumSize);
+        GuavaCacheMetrics.monitor(registry, cache, "signature-verifications");
+    }
+
+    /**
+     * The identity of everything in the validation context an object is validated against.
+     */
+    public static Key issuerKey(CertificateRepositoryObjectValidationContext context) {
+        final StringBuilder sb = new StringBuilder()
+                .append(context.getResources())
+                .append('\n')
+                .append(String.join("\n", context.getSubjectChain()));
+        final byte[] certificate = context.getCertificate().getEncoded();
+        final byte[] rest = sb.toString().getBytes(UTF_8);
+        final byte[] bytes = new byte[certificate.length + rest.length];
+        System.arraycopy(certificate, 0, bytes, 0, certificate.length);
+        System.arraycopy(rest, 0, bytes, certificate.length, rest.length);
+        return Key.of(Sha256.hash(bytes));
+    }
+
+    /**
+     * Validate the object using <code>validation</code>, unless the same object was validated successfully
+     * against the same issuer, CRL and options before and the object is still within its validity window.
+     *
+     * @param crl key of the CRL the object is validated with, <code>null</code> when validated without a CRL
+     */
+    public void validate(CertificateRepositoryObject object,
+                         Key objectKey,
+                         Key issuer,
+                         Key crl,
+                         ValidationOptions options,
+                         ValidationResult validations,
+                         Consumer<ValidationResult> validation) {
+        final Verification verification = Verification.of(objectKey, issuer, crl, optionsKey(options));
+        final ValidityWindow window = cache.getIfPresent(verification);
+        if (window != null && window.contains(System.currentTimeMillis())) {
+            return;
+        }
+
+        final ValidationResult temporary = newValidationResult(validations.getCurrentLocation());
+        validation.accept(temporary);
+        validations.addAll(temporary);
+        if (temporary.hasNoFailuresOrWarnings()) {
+            validityWindow(object).ifPresent(w -> cache.put(verification, w));
+        }
+    }
+
+    static Optional<ValidityWindow> validityWindow(CertificateRepositoryObject object) {
+        if (object instanceof X509Crl) {
+            final X509Crl crl = (X509Crl) object;
+            return ValidityWindow.of(crl.getThisUpdateTime(), crl.getNextUpdateTime());
+        } else if (object instanceof ManifestCms) {
+            final ManifestCms manifest = (ManifestCms) object;
+            return ValidityWindow.of(manifest.getNotValidBefore(), manifest.getNotValidAfter())
+                    .flatMap(w -> ValidityWindow.of(manifest.getThisUpdateTime(), manifest.getNextUpdateTime()).map(w::intersect));
+        } else if (object instanceof RpkiSignedObject) {
+            final RpkiSignedObject signedObject = (RpkiSignedObject) object;
+            return ValidityWindow.of(signedObject.getNotValidBefore(), signedObject.getNotValidAfter());
+        } else if (object instanceof X509GenericCertificate) {
+            final X509GenericCertificate certificate = (X509GenericCertificate) object;
+            return ValidityWindow.of(certificate.getValidityPeriod().getNotValidBefore(), certificate.getValidityPeriod().getNotValidAfter());
+        }
+        return Optional.empty();
+    }
+
+    private static String optionsKey(ValidationOptions options) {
+        return options.isStrictManifestCRLValidityChecks() + ":" +
+                options.isAllowOverclaimParentChild() + ":" +
+                options.getCrlMaxStalePeriod() + ":" +
+                options.getManifestMaxStalePeriod();
+    }
+
+    @lombok.Value(staticConstructor = "of")
+    private static class Verification {
+        Key object;
+        Key issuer;
+        Key crl;
+        String options;
+    }
+
+    @lombok.Value
+    static class ValidityWindow {
+        long notBefore;
+        long notAfter;
+
+        static Optional<ValidityWindow> of(DateTime notBefore, DateTime notAfter) {
+            if (notBefore == null || notAfter == null) {
+                return Optional.empty();
+            }
+            return Optional.of(new ValidityWindow(notBefore.getMillis(), notAfter.getMillis()));
+        }
+
+        ValidityWindow intersect(ValidityWindow that) {
+            return new ValidityWindow(Math.max(notBefore, that.notBefore), Math.min(notAfter, that.notAfter));
+        }
+
+        boolean contains(long millis) {
+            return notBefore <= millis && millis < notAfter;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import net.ripe.ipresource.IpRange;
+import net.ripe.ipresource.IpResourceType;
+import net.ripe.rpki.validator3.api.Paging;
+import net.ripe.rpki.validator3.api.SearchTerm;
+import net.ripe.rpki.validator3.api.Sorting;
+import net.ripe.rpki.validator3.domain.ValidatedRoaPrefix;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static net.ripe.rpki.validator3.domain.validation.ValidatedRoaPrefixTable.compare;
+import static net.ripe.rpki.validator3.domain.validation.ValidatedRoaPrefixTable.lowBits;
+
+/**
+ * The validated ROA prefixes of all trust anchors in every order the API sorts them by, built once when the
+ * prefixes change. A page of all prefixes is read straight from the order, searches by ASN or prefix only
+ * visit the matching prefixes and sort them by their position in the order.
+ *
+ * The rows of the index number the rows of the tables one after the other.
+ */
+public final class ValidatedRoaPrefixIndex {
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    public static final ValidatedRoaPrefixIndex EMPTY = of(Collections.emptyList());
+
+    private final ValidatedRoaPrefixTable[] tables;
+    /**
+     * The first row of every table, followed by the total number of rows.
+     */
+    private final int[] offsets;
+
+    /**
+     * The rows in the ascending order of {@link Sorting#comparator()} and the position of every row in it.
+     */
+    private final Map<Sorting.By, int[]> orders = new EnumMap<>(Sorting.By.class);
+    private final Map<Sorting.By, int[]> ranks = new EnumMap<>(Sorting.By.class);
+
+    /**
+     * The rows ordered by address family, first address and prefix length.
+     */
+    private final int[] byAddress;
+
+    private ValidatedRoaPrefixIndex(Collection<ValidatedRoaPrefixTable> tables) {
+        this.tables = tables.toArray(new ValidatedRoaPrefixTable[0]);
+        this.offsets = new int[this.tables.length + 1];
+        for (int t = 0; t < this.tables.length; t++) {
+            offsets[t + 1] = offsets[t] + this.tables[t].size();
+        }
+
+        // The names of the trust anchors and the first locations of the ROAs are only compared once, to rank them
+        final int[] trustAnchorRank = new int[size()];
+        final int[] locationRank = new int[size()];
+        final int[][] trustAnchorRanks = ranks(Arrays.stream(this.tables).map(ValidatedRoaPrefixTable::trustAnchorNames).toArray(String[][]::new));
+        final int[][] locationRanks = ranks(Arrays.stream(this.tables).map(ValidatedRoaPrefixTable::firstLocations).toArray(String[][]::new));
+        for (int t = 0; t < this.tables.length; t++) {
+            for (int row = 0; row < this.tables[t].size(); row++) {
+                trustAnchorRank[offsets[t] + row] = trustAnchorRanks[t][this.tables[t].getTrustAnchorId(row)];
+                locationRank[offsets[t] + row] = locationRanks[t][this.tables[t].getRoaId(row)];
+            }
+        }
+
+        // The same columns as Sorting#comparator() compares
+        final Map<Sorting.By, RowComparator> comparators = new EnumMap<>(Sorting.By.class);
+        comparators.put(Sorting.By.PREFIX, (a, b) -> {
+            int c = comparePrefixes(a, b);
+            if (c == 0) {
+                c = Integer.compare(getEffectiveLength(a), getEffectiveLength(b));
+            }
+            if (c == 0) {
+                c = Long.compare(getAsn(a), getAsn(b));
+            }
+            return c != 0 ? c : Integer.compare(trustAnchorRank[a], trustAnchorRank[b]);
+        });
+        comparators.put(Sorting.By.ASN, (a, b) -> {
+            int c = Long.compare(getAsn(a), getAsn(b));
+            if (c == 0) {
+                c = comparePrefixes(a, b);
+            }
+            return c != 0 ? c : Integer.compare(trustAnchorRank[a], trustAnchorRank[b]);
+        });
+        comparators.put(Sorting.By.TA, (a, b) -> {
+            int c = Integer.compare(trustAnchorRank[a], trustAnchorRank[b]);
+            if (c == 0) {
+                c = Long.compare(getAsn(a), getAsn(b));
+            }
+            return c != 0 ? c : comparePrefixes(a, b);
+        });
+        comparators.put(Sorting.By.LOCATION, (a, b) -> {
+            final int c = Integer.compare(locationRank[a], locationRank[b]);
+            return c != 0 ? c : Integer.compare(trustAnchorRank[a], trustAnchorRank[b]);
+        });
+
+        comparators.forEach((by, comparator) -> {
+            final int[] order = sortedRows(comparator);
+            final int[] rank = new int[order.length];
+            for (int position = 0; position < order.length; position++) {
+                rank[order[position]] = position;
+            }
+            orders.put(by, order);
+            ranks.put(by, rank);
+        });
+
+        this.byAddress = sortedRows(this::comparePrefixes);
+    }
+
+    public static ValidatedRoaPrefixIndex of(Collection<ValidatedRoaPrefixTable> tables) {
+        return new ValidatedRoaPrefixIndex(tables);
+    }
+
+    public int size() {
+        return offsets[tables.length];
+    }
+
+    public long count(SearchTerm searchTerm) {
+        return searchTerm == null ? size() : matchingRows(searchTerm).length;
+    }
+
+    public Stream<ValidatedRoaPrefix> find(SearchTerm searchTerm, Sorting sorting, Paging paging) {
+        final Sorting.By by = orderBy(sorting.getBy());
+        final boolean descending = sorting.getDirection() == Sorting.Direction.DESC;
+        final int[] order = orders.get(by);
+
+        final int[] positions;
+        if (searchTerm == null) {
+            positions = null;
+        } else {
+            final int[] rank = ranks.get(by);
+            positions = matchingRows(searchTerm);
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = rank[positions[i]];
+            }
+            Arrays.sort(positions);
+        }
+
+        final int count = positions == null ? order.length : positions.length;
+        final long startFrom = Math.max(0, paging.getStartFrom());
+        final long pageSize = Math.max(1, paging.getPageSize());
+        final int from = (int) Math.min(count, startFrom);
+        final int to = (int) Math.min(count, startFrom + Math.min(pageSize, count));
+        return IntStream.range(from, to)
+                .map(i -> descending ? count - 1 - i : i)
+                .map(i -> positions == null ? order[i] : order[positions[i]])
+                .mapToObj(this::get);
+    }
+
+    /**
+     * The rows that match the search term, in no particular order.
+     */
+    private int[] matchingRows(SearchTerm searchTerm) {
+        final Long asn = searchTerm.asAsn();
+        if (asn != null) {
+            return rowsWithAsn(asn);
+        }
+        final IpRange range = searchTerm.asIpRange();
+        if (range != null) {
+            return rowsOverlapping(range);
+        }
+        final IntStream.Builder rows = IntStream.builder();
+        for (int t = 0; t < tables.length; t++) {
+            final int offset = offsets[t];
+            final IntPredicate matching = tables[t].matching(searchTerm);
+            for (int row = 0; row < tables[t].size(); row++) {
+                if (matching.test(row)) {
+                    rows.add(offset + row);
+                }
+            }
+        }
+        return rows.build().toArray();
+    }
+
+    /**
+     * The prefixes of an ASN are next to each other in the ASN order.
+     */
+    private int[] rowsWithAsn(long asn) {
+        final int[] order = orders.get(Sorting.By.ASN);
+        int low = 0;
+        int high = order.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (getAsn(order[middle]) < asn) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int end = low;
+        while (end < order.length && getAsn(order[end]) == asn) {
+            end++;
+        }
+        return Arrays.copyOfRange(order, low, end);
+    }
+
+    /**
+     * A prefix overlaps the range when it starts inside the range or when it contains the first address of the
+     * range. The prefixes that start inside the range are next to each other in the address order, the ones
+     * that contain the first address start at the first address with all bits beyond their length cleared.
+     */
+    private int[] rowsOverlapping(IpRange range) {
+        final boolean ipv6 = range.getType() == IpResourceType.IPv6;
+        final int bits = ipv6 ? 128 : 32;
+        final BigInteger start = range.getStart().getValue();
+        final BigInteger end = range.getEnd().getValue();
+        final long startHigh = start.shiftRight(Long.SIZE).longValue();
+        final long startLow = start.longValue();
+        final long endHigh = end.shiftRight(Long.SIZE).longValue();
+        final long endLow = end.longValue();
+
+        final IntStream.Builder rows = IntStream.builder();
+        for (int position = firstAtOrAfter(ipv6, startHigh, startLow, 0);
+             position < byAddress.length && isIpv6(byAddress[position]) == ipv6 &&
+                     compare(getAddressHigh(byAddress[position]), getAddressLow(byAddress[position]), endHigh, endLow) <= 0;
+             position++) {
+            rows.add(byAddress[position]);
+        }
+
+        for (int length = 0; length <= bits; length++) {
+            final int hostBits = bits - length;
+            final long high = hostBits > Long.SIZE ? startHigh & ~lowBits(hostBits - Long.SIZE) : startHigh;
+            final long low = startLow & ~lowBits(Math.min(hostBits, Long.SIZE));
+            if (high == startHigh && low == startLow) {
+                // Starts inside the range, so it was found above
+                continue;
+            }
+            for (int position = firstAtOrAfter(ipv6, high, low, length);
+                 position < byAddress.length && isIpv6(byAddress[position]) == ipv6 &&
+                         getAddressHigh(byAddress[position]) == high && getAddressLow(byAddress[position]) == low &&
+                         getPrefixLength(byAddress[position]) == length;
+                 position++) {
+                rows.add(byAddress[position]);
+            }
+        }
+        return rows.build().toArray();
+    }
+
+    private int firstAtOrAfter(boolean ipv6, long high, long low, int length) {
+        int from = 0;
+        int to = byAddress.length;
+        while (from < to) {
+            final int middle = (from + to) >>> 1;
+            final int row = byAddress[middle];
+            int c = Boolean.compare(isIpv6(row), ipv6);
+            if (c == 0) {
+                c = compare(getAddressHigh(row), getAddressLow(row), high, low);
+            }
+            if (c == 0) {
+                c = Integer.compare(getPrefixLength(row), length);
+            }
+            if (c < 0) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * The orders that are precomputed, the other sort keys fall back to the trust anchor order like
+     * {@link Sorting#comparator()} does.
+     */
+    private static Sorting.By orderBy(Sorting.By by) {
+        switch (by) {
+            case PREFIX:
+            case ASN:
+            case LOCATION:
+                return by;
+            default:
+                return Sorting.By.TA;
+        }
+    }
+
+    /**
+     * The rank of every name in the order of all names, by table and by position in the table's array. Equal
+     * names have the same rank and a null name is ranked first.
+     */
+    private static int[][] ranks(String[][] names) {
+        final TreeMap<String, Integer> rankOfName = new TreeMap<>(Comparator.nullsFirst(Comparator.naturalOrder()));
+        for (String[] tableNames : names) {
+            for (String name : tableNames) {
+                rankOfName.put(name, 0);
+            }
+        }
+        int rank = 0;
+        for (Map.Entry<String, Integer> entry : rankOfName.entrySet()) {
+            entry.setValue(rank++);
+        }
+        final int[][] result = new int[names.length][];
+        for (int t = 0; t < names.length; t++) {
+            result[t] = Arrays.stream(names[t]).mapToInt(rankOfName::get).toArray();
+        }
+        return result;
+    }
+
+    /**
+     * Address family, first address and prefix length, like {@link IpRange#compareTo} compares prefixes.
+     */
+    private int comparePrefixes(int a, int b) {
+        final int c = Boolean.compare(isIpv6(a), isIpv6(b));
+        if (c != 0) {
+            return c;
+        }
+        final int d = compare(getAddressHigh(a), getAddressLow(a), getAddressHigh(b), getAddressLow(b));
+        return d != 0 ? d : Integer.compare(getPrefixLength(a), getPrefixLength(b));
+    }
+
+    @FunctionalInterface
+    private interface RowComparator {
+        int compare(int a, int b);
+    }
+
+    /**
+     * Stable sort of the row numbers, so rows that compare equal stay in the order of the tables.
+     */
+    private int[] sortedRows(RowComparator comparator) {
+        final int[] rows = IntStream.range(0, size()).toArray();
+        mergeSort(rows.clone(), rows, 0, rows.length, comparator);
+        return rows;
+    }
+
+    /**
+     * Sorts {@code from} to {@code to} of {@code source} into {@code target}, the arrays start out equal.
+     */
+    private static void mergeSort(int[] source, int[] target, int from, int to, RowComparator comparator) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                final int row = target[i];
+                int j = i;
+                while (j > from && comparator.compare(target[j - 1], row) > 0) {
+                    target[j] = target[j - 1];
+                    j--;
+                }
+                target[j] = row;
+            }
+            return;
+        }
+
+        final int middle = (from + to) >>> 1;
+        mergeSort(target, source, from, middle, comparator);
+        mergeSort(target, source, middle, to, comparator);
+        if (comparator.compare(source[middle - 1], source[middle]) <= 0) {
+            System.arraycopy(source, from, target, from, to - from);
+            return;
+        }
+        for (int i = from, left = from, right = middle; i < to; i++) {
+            if (right >= to || left < middle && comparator.compare(source[left], source[right]) <= 0) {
+                target[i] = source[left++];
+            } else {
+                target[i] = source[right++];
+            }
+        }
+    }
+
+    private ValidatedRoaPrefix get(int row) {
+        final int t = table(row);
+        return tables[t].get(row - offsets[t]);
+    }
+
+    private long getAsn(int row) {
+        final int t = table(row);
+        return tables[t].getAsn(row - offsets[t]);
+    }
+
+    private boolean isIpv6(int row) {
+        final int t = table(row);
+        return tables[t].isIpv6(row - offsets[t]);
+    }
+
+    private long getAddressHigh(int row) {
+        final int t = table(row);
+        return tables[t].getAddressHigh(row - offsets[t]);
+    }
+
+    private long getAddressLow(int row) {
+        final int t = table(row);
+        return tables[t].getAddressLow(row - offsets[t]);
+    }
+
+    private int getPrefixLength(int row) {
+        final int t = table(row);
+        return tables[t].getPrefixLength(row - offsets[t]);
+    }
+
+    private int getEffectiveLength(int row) {
+        final int t = table(row);
+        return tables[t].getEffectiveLength(row - offsets[t]);
+    }
+
+    private int table(int row) {
+        // There are only a handful of trust anchors
+        int t = 0;
+        while (offsets[t + 1] <= row) {
+            t++;
+        }
+        return t;
+    }
+}
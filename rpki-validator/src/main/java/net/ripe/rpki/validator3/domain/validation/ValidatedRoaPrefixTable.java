@@ -0,0 +1,326 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import com.google.common.collect.ImmutableSortedSet;
+import lombok.Value;
+import net.ripe.ipresource.IpAddress;
+import net.ripe.ipresource.IpRange;
+import net.ripe.ipresource.IpResourceType;
+import net.ripe.ipresource.Ipv4Address;
+import net.ripe.ipresource.Ipv6Address;
+import net.ripe.rpki.validator3.api.SearchTerm;
+import net.ripe.rpki.validator3.domain.ValidatedRoaPrefix;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Immutable table of validated ROA prefixes stored in primitive columns, one row per prefix.
+ *
+ * The attributes that all prefixes of a ROA have in common (trust anchor, validity, serial number and locations)
+ * are stored once per ROA. The rows are only turned into {@link ValidatedRoaPrefix} objects when they are read,
+ * searching by ASN or prefix only reads the primitive columns.
+ */
+public final class ValidatedRoaPrefixTable {
+
+    public static final ValidatedRoaPrefixTable EMPTY = of(Collections.emptyList());
+
+    private static final byte NO_MAXIMUM_LENGTH = (byte) 0xFF;
+
+    // ROA columns
+    private final ValidatedRpkiObjects.TrustAnchorData[] trustAnchors;
+    private final int[] roaTrustAnchor;
+    private final long[] roaNotBefore;
+    private final long[] roaNotAfter;
+    private final BigInteger[] roaSerialNumber;
+    /**
+     * Either a single location or an ImmutableSortedSet of them, like in {@link ValidatedRoaPrefix}.
+     */
+    private final Object[] roaLocations;
+
+    // Prefix columns
+    private final int[] roa;
+    private final int[] asn;
+    private final BitSet ipv6;
+    private final long[] addressHigh;
+    private final long[] addressLow;
+    private final byte[] prefixLength;
+    private final byte[] maximumLength;
+
+    private ValidatedRoaPrefixTable(Collection<ValidatedRoaPrefix> prefixes) {
+        final int size = prefixes.size();
+        this.roa = new int[size];
+        this.asn = new int[size];
+        this.ipv6 = new BitSet(size);
+        this.addressHigh = new long[size];
+        this.addressLow = new long[size];
+        this.prefixLength = new byte[size];
+        this.maximumLength = new byte[size];
+
+        final Map<ValidatedRpkiObjects.TrustAnchorData, Integer> trustAnchorIds = new LinkedHashMap<>();
+        final Map<RoaRow, Integer> roaIds = new LinkedHashMap<>();
+        final Map<Object, Object> internedLocations = new HashMap<>();
+        int row = 0;
+        for (ValidatedRoaPrefix prefix : prefixes) {
+            final ImmutableSortedSet<String> locations = prefix.getLocations();
+            final Object location = locations.size() == 1 ? locations.first() : locations;
+            final RoaRow roaRow = RoaRow.of(
+                    trustAnchorIds.computeIfAbsent(prefix.getTrustAnchor(), ta -> trustAnchorIds.size()),
+                    prefix.getNotBefore(),
+                    prefix.getNotAfter(),
+                    prefix.getSerialNumber(),
+                    internedLocations.computeIfAbsent(location, l -> l));
+            roa[row] = roaIds.computeIfAbsent(roaRow, r -> roaIds.size());
+
+            final IpRange range = prefix.getPrefix();
+            final BigInteger address = range.getStart().getValue();
+            asn[row] = (int) prefix.getAsn();
+            ipv6.set(row, range.getType() == IpResourceType.IPv6);
+            addressHigh[row] = address.shiftRight(Long.SIZE).longValue();
+            addressLow[row] = address.longValue();
+            prefixLength[row] = (byte) range.getPrefixLength();
+            maximumLength[row] = prefix.getMaximumLength() == null ? NO_MAXIMUM_LENGTH : prefix.getMaximumLength().byteValue();
+            row++;
+        }
+
+        this.trustAnchors = trustAnchorIds.keySet().toArray(new ValidatedRpkiObjects.TrustAnchorData[0]);
+        final int roas = roaIds.size();
+        this.roaTrustAnchor = new int[roas];
+        this.roaNotBefore = new long[roas];
+        this.roaNotAfter = new long[roas];
+        this.roaSerialNumber = new BigInteger[roas];
+        this.roaLocations = new Object[roas];
+        roaIds.forEach((r, id) -> {
+            roaTrustAnchor[id] = r.getTrustAnchor();
+            roaNotBefore[id] = r.getNotBefore();
+            roaNotAfter[id] = r.getNotAfter();
+            roaSerialNumber[id] = r.getSerialNumber();
+            roaLocations[id] = r.getLocations();
+        });
+    }
+
+    /**
+     * Table of the distinct prefixes.
+     */
+    public static ValidatedRoaPrefixTable of(Collection<ValidatedRoaPrefix> prefixes) {
+        return new ValidatedRoaPrefixTable(new LinkedHashSet<>(prefixes));
+    }
+
+    public int size() {
+        return asn.length;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public ValidatedRoaPrefix get(int row) {
+        final int r = roa[row];
+        return new ValidatedRoaPrefix(
+                trustAnchors[roaTrustAnchor[r]],
+                asn[row],
+                getPrefix(row),
+                maximumLength[row] == NO_MAXIMUM_LENGTH ? (short) -1 : (short) (maximumLength[row] & 0xFF),
+                roaNotBefore[r],
+                roaNotAfter[r],
+                roaSerialNumber[r],
+                roaLocations[r]
+        );
+    }
+
+    public long getAsn(int row) {
+        return Integer.toUnsignedLong(asn[row]);
+    }
+
+    public IpRange getPrefix(int row) {
+        final IpAddress address = ipv6.get(row) ?
+                new Ipv6Address(toBigInteger(addressHigh[row], addressLow[row])) :
+                new Ipv4Address(addressLow[row]);
+        return IpRange.prefix(address, prefixLength[row] & 0xFF);
+    }
+
+    boolean isIpv6(int row) {
+        return ipv6.get(row);
+    }
+
+    long getAddressHigh(int row) {
+        return addressHigh[row];
+    }
+
+    long getAddressLow(int row) {
+        return addressLow[row];
+    }
+
+    int getPrefixLength(int row) {
+        return prefixLength[row] & 0xFF;
+    }
+
+    int getEffectiveLength(int row) {
+        return maximumLength[row] == NO_MAXIMUM_LENGTH ? getPrefixLength(row) : maximumLength[row] & 0xFF;
+    }
+
+    public ValidatedRpkiObjects.TrustAnchorData getTrustAnchor(int row) {
+        return trustAnchors[roaTrustAnchor[roa[row]]];
+    }
+
+    int getTrustAnchorId(int row) {
+        return roaTrustAnchor[roa[row]];
+    }
+
+    int getRoaId(int row) {
+        return roa[row];
+    }
+
+    /**
+     * The names of the trust anchors, by trust anchor id.
+     */
+    String[] trustAnchorNames() {
+        return Arrays.stream(trustAnchors).map(ValidatedRpkiObjects.TrustAnchorData::getName).toArray(String[]::new);
+    }
+
+    /**
+     * The first location of every ROA, by ROA id, or null for a ROA without locations.
+     */
+    String[] firstLocations() {
+        final String[] result = new String[roaLocations.length];
+        for (int r = 0; r < roaLocations.length; r++) {
+            final Object locations = roaLocations[r];
+            if (locations instanceof String) {
+                result[r] = (String) locations;
+            } else if (!((ImmutableSortedSet<?>) locations).isEmpty()) {
+                result[r] = (String) ((ImmutableSortedSet<?>) locations).first();
+            }
+        }
+        return result;
+    }
+
+    public Stream<ValidatedRoaPrefix> stream() {
+        return IntStream.range(0, size()).mapToObj(this::get);
+    }
+
+    public Stream<ValidatedRoaPrefix> stream(SearchTerm searchTerm) {
+        if (searchTerm == null) {
+            return stream();
+        }
+        return IntStream.range(0, size()).filter(matching(searchTerm)).mapToObj(this::get);
+    }
+
+    public long count(SearchTerm searchTerm) {
+        if (searchTerm == null) {
+            return size();
+        }
+        return IntStream.range(0, size()).filter(matching(searchTerm)).count();
+    }
+
+    /**
+     * The rows that {@link SearchTerm#test(ValidatedRoaPrefix)} accepts, without materializing them.
+     */
+    public IntPredicate matching(SearchTerm searchTerm) {
+        final Long searchAsn = searchTerm.asAsn();
+        if (searchAsn != null) {
+            return row -> getAsn(row) == searchAsn;
+        }
+
+        final IpRange range = searchTerm.asIpRange();
+        if (range != null) {
+            final boolean searchIpv6 = range.getType() == IpResourceType.IPv6;
+            final BigInteger start = range.getStart().getValue();
+            final BigInteger end = range.getEnd().getValue();
+            final long startHigh = start.shiftRight(Long.SIZE).longValue();
+            final long startLow = start.longValue();
+            final long endHigh = end.shiftRight(Long.SIZE).longValue();
+            final long endLow = end.longValue();
+            return row -> ipv6.get(row) == searchIpv6 &&
+                    compare(addressHigh[row], addressLow[row], endHigh, endLow) <= 0 &&
+                    compare(startHigh, startLow, lastHigh(row), lastLow(row)) <= 0;
+        }
+
+        // The term is matched once for every ROA instead of for every prefix
+        final String term = searchTerm.asString();
+        final BitSet matchingRoas = new BitSet(roaLocations.length);
+        for (int r = 0; r < roaLocations.length; r++) {
+            final Object locations = roaLocations[r];
+            final boolean matches = trustAnchors[roaTrustAnchor[r]].getName().contains(term) ||
+                    (locations instanceof String ?
+                            ((String) locations).contains(term) :
+                            ((ImmutableSortedSet<?>) locations).stream().anyMatch(uri -> ((String) uri).contains(term)));
+            matchingRoas.set(r, matches);
+        }
+        return row -> matchingRoas.get(roa[row]);
+    }
+
+    private long lastHigh(int row) {
+        final int hostBits = (ipv6.get(row) ? 128 : 32) - (prefixLength[row] & 0xFF);
+        return hostBits <= Long.SIZE ? addressHigh[row] : addressHigh[row] | lowBits(hostBits - Long.SIZE);
+    }
+
+    private long lastLow(int row) {
+        final int hostBits = (ipv6.get(row) ? 128 : 32) - (prefixLength[row] & 0xFF);
+        return addressLow[row] | lowBits(Math.min(hostBits, Long.SIZE));
+    }
+
+    static long lowBits(int n) {
+        return n >= Long.SIZE ? -1L : (1L << n) - 1;
+    }
+
+    static int compare(long high1, long low1, long high2, long low2) {
+        final int c = Long.compareUnsigned(high1, high2);
+        return c != 0 ? c : Long.compareUnsigned(low1, low2);
+    }
+
+    private static BigInteger toBigInteger(long high, long low) {
+        final byte[] bytes = new byte[2 * Long.BYTES];
+        for (int i = 0; i < Long.BYTES; i++) {
+            bytes[i] = (byte) (high >>> (Long.SIZE - Byte.SIZE * (i + 1)));
+            bytes[Long.BYTES + i] = (byte) (low >>> (Long.SIZE - Byte.SIZE * (i + 1)));
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    @Value(staticConstructor = "of")
+    private static class RoaRow {
+        int trustAnchor;
+        long notBefore;
+        long notAfter;
+        BigInteger serialNumber;
+        Object locations;
+    }
+}
@@ -30,8 +30,10 @@
 package net.ripe.rpki.validator3.domain.validation;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
@@ -52,32 +54,52 @@ import net.ripe.rpki.validator3.storage.data.TrustAnchor;
 import net.ripe.rpki.validator3.storage.stores.RpkiObjects;
 import net.ripe.rpki.validator3.storage.stores.TrustAnchors;
 import net.ripe.rpki.validator3.storage.stores.ValidationRuns;
-import net.ripe.rpki.validator3.util.Locks;
 import net.ripe.rpki.validator3.util.Time;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @Component
 @Slf4j
 public class ValidatedRpkiObjects {
 
-    private final List<Consumer<Collection<RoaPrefixesAndRouterCertificates>>> listeners = new ArrayList<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
 
-    private final Map<Long, RoaPrefixesAndRouterCertificates> validatedObjectsByTrustAnchor = new HashMap<>();
+    /**
+     * Readers use the current snapshot without locking, writers hold the write lock while they publish a new one.
+     */
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.EMPTY);
+    private final Object writeLock = new Object();
+
+    /**
+     * Runs the listeners one after the other. While they run, newer versions are coalesced: the listeners are
+     * only notified again about the latest one.
+     */
+    private final ExecutorService listenerExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("validated-objects-listener-%d").setDaemon(true).build());
+    private final AtomicBoolean notificationPending = new AtomicBoolean();
+    // Only used by the listener thread
+    private long notifiedVersion = Snapshot.EMPTY.getVersion();
 
     @Autowired
     private RpkiObjects rpkiObjects;
@@ -91,8 +113,6 @@ public class ValidatedRpkiObjects {
     @Autowired
     private Storage storage;
 
-    private final ReentrantReadWriteLock dataLock = new ReentrantReadWriteLock();
-
     @PostConstruct
     private void initialize() {
         Long t = Time.timed(() -> {
@@ -126,37 +146,52 @@ public class ValidatedRpkiObjects {
         log.info("Validated objects cache initialised in {}ms", t);
     }
 
+    @PreDestroy
+    private void shutdown() {
+        listenerExecutor.shutdownNow();
+    }
+
     void updateByKey(Ref<TrustAnchor> trustAnchor, Accumulator validatedObjects) {
-        Locks.locked(dataLock.writeLock(), () -> {
-            log.info("updating validation objects cache for trust anchor {} with {} ROA prefixes and {} router certificates",
-                    trustAnchor,
-                    validatedObjects.getValidatedRoaPrefixes().size(),
-                    validatedObjects.getRouterCertificates().size()
-            );
-            validatedObjectsByTrustAnchor.put(
-                    trustAnchor.key().asLong(),
-                    RoaPrefixesAndRouterCertificates.of(
-                            ImmutableSet.copyOf(validatedObjects.getValidatedRoaPrefixes()),
-                            ImmutableSet.copyOf(validatedObjects.getRouterCertificates())
-                    )
-            );
-        });
+        log.info("updating validation objects cache for trust anchor {} with {} ROA prefixes and {} router certificates",
+                trustAnchor,
+                validatedObjects.getValidatedRoaPrefixes().size(),
+                validatedObjects.getRouterCertificates().size()
+        );
+        final RoaPrefixesAndRouterCertificates updated = RoaPrefixesAndRouterCertificates.of(
+                ValidatedRoaPrefixTable.of(validatedObjects.getValidatedRoaPrefixes()),
+                ImmutableSet.copyOf(validatedObjects.getRouterCertificates())
+        );
+        update(byTrustAnchor -> byTrustAnchor.put(trustAnchor.key().asLong(), updated));
+    }
+
+    private void update(Consumer<Map<Long, RoaPrefixesAndRouterCertificates>> change) {
+        synchronized (writeLock) {
+            final Snapshot current = snapshot.get();
+            final Map<Long, RoaPrefixesAndRouterCertificates> byTrustAnchor = new HashMap<>(current.getByTrustAnchor());
+            change.accept(byTrustAnchor);
+            snapshot.set(Snapshot.of(current.getVersion() + 1, byTrustAnchor));
+        }
         notifyListeners();
     }
 
     private Stream<RpkiObject> streamByType(Tx.Read tx, Collection<Key> rpkiObjectsKeys, RpkiObject.Type type) {
         final Set<Key> byType = rpkiObjects.getPkByType(tx, type);
-        return rpkiObjectsKeys.stream()
+        final List<Key> keys = rpkiObjectsKeys.stream()
             .filter(byType::contains)
-            .map(k -> rpkiObjects.get(tx, k))
-            .filter(Optional::isPresent)
-            .map(Optional::get);
+            .collect(Collectors.toList());
+        return rpkiObjects.getAll(tx, keys).stream();
     }
 
     public void remove(TrustAnchor trustAnchor) {
         long trustAnchorId = trustAnchor.key().asLong();
-        Locks.locked(dataLock.writeLock(), () -> validatedObjectsByTrustAnchor.remove(trustAnchorId));
-        notifyListeners();
+        update(byTrustAnchor -> byTrustAnchor.remove(trustAnchorId));
+    }
+
+    /**
+     * The current version of the validated objects.
+     */
+    public Snapshot getSnapshot() {
+        return snapshot.get();
     }
 
     public ValidatedObjects<ValidatedRoaPrefix> findCurrentlyValidatedRoaPrefixes() {
@@ -164,35 +199,27 @@ public class ValidatedRpkiObjects {
     }
 
     public ValidatedObjects<ValidatedRoaPrefix> findCurrentlyValidatedRoaPrefixes(SearchTerm searchTerm, Sorting sorting, Paging paging) {
-        if (paging == null) {
-            paging = Paging.of(0L, Long.MAX_VALUE);
-        }
-        if (sorting == null) {
-            sorting = Sorting.of(Sorting.By.TA, Sorting.Direction.ASC);
-        }
-
-        Sorting finalSorting = sorting;
-        Paging finalPaging = paging;
-        return Locks.locked(dataLock.readLock(), () ->
-            ValidatedObjects.of(
-                countRoaPrefixes(searchTerm),
-                findRoaPrefixes(searchTerm, finalSorting, finalPaging)
-            ));
+        return snapshot.get().findRoaPrefixes(searchTerm, sorting, paging);
     }
 
     public ValidatedObjects<RouterCertificate> findCurrentlyValidatedRouterCertificates() {
-        return Locks.locked(dataLock.readLock(), () ->
-            ValidatedObjects.of(
-                countRouterCertificates(),
-                findRouterCertificates()
-            ));
+        final Collection<RoaPrefixesAndRouterCertificates> validatedObjects = snapshot.get().getByTrustAnchor().values();
+        return ValidatedObjects.of(
+            validatedObjects.stream().mapToInt(x -> x.getRouterCertificates().size()).sum(),
+            validatedObjects.stream().flatMap(x -> x.getRouterCertificates().stream())
+        );
     }
 
-    public void addListener(Consumer<Collection<RoaPrefixesAndRouterCertificates>> listener) {
-        Locks.locked(dataLock.writeLock(), () -> {
-            listeners.add(listener);
-            listener.accept(validatedObjectsByTrustAnchor.values());
-        });
+    /**
+     * The listener is called with the current validated objects right away, and after they change on a separate
+     * thread. Changes that happen while the listeners run are combined into a single call. A listener is never
+     * called concurrently and never with an older version than it was called with before.
+     */
+    public void addListener(Consumer<Collection<RoaPrefixesAndRouterCertificates>> consumer) {
+        final Listener listener = new Listener(consumer);
+        listeners.add(listener);
+        // The listener thread may notify it of the same or a newer version in the meantime, which is skipped here
+        listener.notifyOf(snapshot.get());
     }
 
     @Value(staticConstructor = "of")
@@ -201,9 +228,48 @@ public class ValidatedRpkiObjects {
         Stream<T> objects;
     }
 
+    /**
+     * Immutable version of the validated objects of all trust anchors, the version increases with every change.
+     */
+    @Value
+    public static class Snapshot {
+        static final Snapshot EMPTY = of(0, Collections.emptyMap());
+
+        long version;
+        ImmutableMap<Long, RoaPrefixesAndRouterCertificates> byTrustAnchor;
+        /**
+         * The ROA prefixes of all trust anchors in the orders of the API.
+         */
+        ValidatedRoaPrefixIndex roaPrefixIndex;
+
+        public ValidatedObjects<ValidatedRoaPrefix> findRoaPrefixes() {
+            return findRoaPrefixes(null, null, null);
+        }
+
+        public ValidatedObjects<ValidatedRoaPrefix> findRoaPrefixes(SearchTerm searchTerm, Sorting sorting, Paging paging) {
+            if (paging == null) {
+                paging = Paging.of(0L, Long.MAX_VALUE);
+            }
+            if (sorting == null) {
+                sorting = Sorting.of(Sorting.By.TA, Sorting.Direction.ASC);
+            }
+            return ValidatedObjects.of(
+                roaPrefixIndex.count(searchTerm),
+                roaPrefixIndex.find(searchTerm, sorting, paging)
+            );
+        }
+
+        static Snapshot of(long version, Map<Long, RoaPrefixesAndRouterCertificates> byTrustAnchor) {
+            return new Snapshot(version, ImmutableMap.copyOf(byTrustAnchor), ValidatedRoaPrefixIndex.of(
+                    byTrustAnchor.values().stream()
+                            .map(RoaPrefixesAndRouterCertificates::getRoaPrefixes)
+                            .collect(Collectors.toList())));
+        }
+    }
+
     @Value(staticConstructor = "of")
     public static class RoaPrefixesAndRouterCertificates {
-        ImmutableSet<ValidatedRoaPrefix> roaPrefixes;
+        ValidatedRoaPrefixTable roaPrefixes;
         ImmutableSet<RouterCertificate> routerCertificates;
     }
 
@@ -221,41 +287,40 @@ public class ValidatedRpkiObjects {
         String subjectPublicKeyInfo;
     }
 
-    private ImmutableList<RoaPrefixesAndRouterCertificates> validatedObjects() {
-        return Locks.locked(dataLock.readLock(), () ->
-            ImmutableList.copyOf(validatedObjectsByTrustAnchor.values()));
-    }
-
-    private int countRouterCertificates() {
-        return validatedObjects().stream().mapToInt(x -> x.getRouterCertificates().size()).sum();
-    }
-
-    private Stream<RouterCertificate> findRouterCertificates() {
-        return validatedObjects()
-            .stream()
-            .flatMap(x -> x.getRouterCertificates().stream());
+    private void notifyListeners() {
+        if (notificationPending.compareAndSet(false, true)) {
+            listenerExecutor.execute(() -> {
+                // Changes published from now on schedule another notification
+                notificationPending.set(false);
+                final Snapshot current = snapshot.get();
+                if (current.getVersion() > notifiedVersion) {
+                    notifiedVersion = current.getVersion();
+                    listeners.forEach(listener -> listener.notifyOf(current));
+                }
+            });
+        }
     }
 
-    private long countRoaPrefixes(SearchTerm searchTerm) {
-        return validatedObjects().stream()
-            .flatMap(x -> x.getRoaPrefixes().stream())
-            .filter(prefix -> searchTerm == null || searchTerm.test(prefix))
-            .count();
-    }
+    private static class Listener {
+        private final Consumer<Collection<RoaPrefixesAndRouterCertificates>> consumer;
+        // Guarded by this
+        private long notifiedVersion = Long.MIN_VALUE;
 
-    private Stream<ValidatedRoaPrefix> findRoaPrefixes(SearchTerm searchTerm, Sorting sorting, Paging paging) {
-        return validatedObjects()
-            .parallelStream()
-            .flatMap(x -> x.getRoaPrefixes().stream())
-            .filter(prefix -> searchTerm == null || searchTerm.test(prefix))
-            .sorted(sorting.comparator())
-            .skip(Math.max(0, paging.getStartFrom()))
-            .limit(Math.max(1, paging.getPageSize()));
-    }
+        Listener(Consumer<Collection<RoaPrefixesAndRouterCertificates>> consumer) {
+            this.consumer = consumer;
+        }
 
-    private void notifyListeners() {
-        Locks.locked(dataLock.readLock(), () ->
-            listeners.forEach(listener -> listener.accept(validatedObjectsByTrustAnchor.values())));
+        synchronized void notifyOf(Snapshot snapshot) {
+            if (snapshot.getVersion() <= notifiedVersion) {
+                return;
+            }
+            notifiedVersion = snapshot.getVersion();
+            try {
+                consumer.accept(snapshot.getByTrustAnchor().values());
+            } catch (Exception e) {
+                log.error("Listener of the validated objects failed for version {}", snapshot.getVersion(), e);
+            }
+        }
     }
 
     public static class Accumulator {
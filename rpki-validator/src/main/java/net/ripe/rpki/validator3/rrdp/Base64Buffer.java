@@ -0,0 +1,146 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.rrdp;
+
+import java.util.Arrays;
+
+/**
+ * Decodes base64 text that arrives in chunks, such as the character events of an XML
+ * parser, without building an intermediate string. Whitespace is skipped. The buffer
+ * is meant to be reset and reused for the next object.
+ *
+ * Accepts the same input as {@link java.util.Base64#getDecoder()} apart from whitespace,
+ * so padding is optional and ends the encoded data, but when present it must complete the
+ * last unit of four characters.
+ */
+class Base64Buffer {
+
+    private static final int INVALID = -1;
+    private static final int WHITESPACE = -2;
+    private static final int PADDING = -3;
+
+    private static final byte[] DECODING = new byte[128];
+
+    static {
+        Arrays.fill(DECODING, (byte) INVALID);
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODING[alphabet.charAt(i)] = (byte) i;
+        }
+        DECODING[' '] = WHITESPACE;
+        DECODING['\t'] = WHITESPACE;
+        DECODING['\r'] = WHITESPACE;
+        DECODING['\n'] = WHITESPACE;
+        DECODING['='] = PADDING;
+    }
+
+    private byte[] bytes;
+    private int size;
+
+    private int quantum;
+    private int sextets;
+    private int padding;
+
+    Base64Buffer() {
+        this(64 * 1024);
+    }
+
+    Base64Buffer(int initialCapacity) {
+        this.bytes = new byte[Math.max(initialCapacity, 3)];
+    }
+
+    void append(char[] chars, int start, int length) {
+        final int end = start + length;
+        for (int i = start; i < end; i++) {
+            final char c = chars[i];
+            final int value = c < DECODING.length ? DECODING[c] : INVALID;
+            if (value >= 0) {
+                if (padding > 0) {
+                    throw new IllegalArgumentException("Input byte array has incorrect ending byte");
+                }
+                quantum = (quantum << 6) | value;
+                if (++sextets == 4) {
+                    ensureCapacity(3);
+                    bytes[size++] = (byte) (quantum >> 16);
+                    bytes[size++] = (byte) (quantum >> 8);
+                    bytes[size++] = (byte) quantum;
+                    quantum = 0;
+                    sextets = 0;
+                }
+            } else if (value == PADDING) {
+                if (sextets < 2 || sextets + padding == 4) {
+                    throw new IllegalArgumentException("Input byte array has wrong 4-byte ending unit");
+                }
+                padding++;
+            } else if (value != WHITESPACE) {
+                throw new IllegalArgumentException("Illegal base64 character " + Integer.toString(c, 16));
+            }
+        }
+    }
+
+    /**
+     * @return the decoded bytes of everything appended since the last reset.
+     */
+    byte[] toByteArray() {
+        if (padding > 0 && sextets + padding != 4) {
+            throw new IllegalArgumentException("Input byte array has wrong 4-byte ending unit");
+        }
+        switch (sextets) {
+            case 0:
+                return Arrays.copyOf(bytes, size);
+            case 2: {
+                final byte[] result = Arrays.copyOf(bytes, size + 1);
+                result[size] = (byte) (quantum >> 4);
+                return result;
+            }
+            case 3: {
+                final byte[] result = Arrays.copyOf(bytes, size + 2);
+                result[size] = (byte) (quantum >> 10);
+                result[size + 1] = (byte) (quantum >> 2);
+                return result;
+            }
+            default:
+                throw new IllegalArgumentException("Last unit does not have enough valid bits");
+        }
+    }
+
+    void reset() {
+        size = 0;
+        quantum = 0;
+        sextets = 0;
+        padding = 0;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+}
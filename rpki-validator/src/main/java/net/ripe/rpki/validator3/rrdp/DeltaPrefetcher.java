@@ -0,0 +1,118 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.rrdp;
+
+import com.google.common.hash.Hashing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Downloads the deltas of a repository ahead of time, while the calling thread applies them in serial order.
+ *
+ * At most <code>parallelism</code> deltas are downloaded or waiting to be applied at the same time. No new downloads
+ * are started while the downloaded but not yet applied files take up more than <code>maxBytes</code>, except for the
+ * delta that is needed next. The size of the files is counted in <code>bytesOnDisk</code>, which is shared by the
+ * prefetchers of all repositories, so that <code>maxBytes</code> limits the files of all of them together.
+ */
+class DeltaPrefetcher {
+
+    private final RrdpClient rrdpClient;
+    private final Executor executor;
+    private final int parallelism;
+    private final long maxBytes;
+
+    private final AtomicLong bytesOnDisk;
+
+    DeltaPrefetcher(RrdpClient rrdpClient, Executor executor, int parallelism, long maxBytes, AtomicLong bytesOnDisk) {
+        this.rrdpClient = rrdpClient;
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        this.maxBytes = maxBytes;
+        this.bytesOnDisk = bytesOnDisk;
+    }
+
+    /**
+     * Download all deltas and pass them to <code>apply</code> in the order of the list. Stops at the first failing
+     * download or application, files of deltas that were downloaded but not applied are deleted.
+     */
+    void forEachInOrder(List<DeltaInfo> deltas, BiConsumer<DeltaInfo, DownloadedFile> apply) {
+        final List<CompletableFuture<DownloadedFile>> downloads = new ArrayList<>(deltas.size());
+        int applied = 0;
+        try {
+            for (; applied < deltas.size(); applied++) {
+                while (downloads.size() < deltas.size() &&
+                        downloads.size() - applied < parallelism &&
+                        (downloads.size() == applied || bytesOnDisk.get() < maxBytes)) {
+                    downloads.add(download(deltas.get(downloads.size())));
+                }
+
+                try (DownloadedFile file = join(downloads.get(applied))) {
+                    try {
+                        apply.accept(deltas.get(applied), file);
+                    } finally {
+                        bytesOnDisk.addAndGet(-file.getSize());
+                    }
+                }
+            }
+        } finally {
+            for (int i = applied + 1; i < downloads.size(); i++) {
+                downloads.get(i).thenAccept(file -> {
+                    bytesOnDisk.addAndGet(-file.getSize());
+                    file.close();
+                });
+            }
+        }
+    }
+
+    private CompletableFuture<DownloadedFile> download(DeltaInfo delta) {
+        return CompletableFuture.supplyAsync(() -> {
+            final DownloadedFile file = rrdpClient.downloadToTemporaryFile(delta.getUri(), Hashing.sha256());
+            bytesOnDisk.addAndGet(file.getSize());
+            return file;
+        }, executor);
+    }
+
+    private static DownloadedFile join(CompletableFuture<DownloadedFile> download) {
+        try {
+            return download.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
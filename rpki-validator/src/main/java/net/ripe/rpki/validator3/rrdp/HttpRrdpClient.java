@@ -122,6 +122,13 @@ public class HttpRrdpClient implements RrdpClient {
 
     @Override
     public <T> T processUsingTemporaryFile(String uri, HashFunction hashFunction, BiFunction<Path, HashCode, T> process) {
+        try (DownloadedFile file = downloadToTemporaryFile(uri, hashFunction)) {
+            return process.apply(file.getPath(), file.getHash());
+        }
+    }
+
+    @Override
+    public DownloadedFile downloadToTemporaryFile(String uri, HashFunction hashFunction) {
         try {
             // Creates a file with default permissions (only readable/writable by owner)
             final Path tempFile = Files.createTempFile("rrdp-", ".tmp");
@@ -136,15 +143,17 @@ public class HttpRrdpClient implements RrdpClient {
                             throw new RrdpException("Error downloading '" + uri + "', cause: " + fullMessage(e), e);
                         }
                     });
-                    log.info("file {} of {} bytes downloaded in {}ms", uri, tempFile.toFile().length(), timedDownload);
+                    final long size = tempFile.toFile().length();
+                    log.info("file {} of {} bytes downloaded in {}ms", uri, size, timedDownload);
 
-                    return process.apply(tempFile, hashingStream.hash());
+                    return new DownloadedFile(tempFile, hashingStream.hash(), size);
                 });
-            } finally {
+            } catch (RuntimeException e) {
                 try {
                     Files.deleteIfExists(tempFile);
                 } catch (IOException ignored) {
                 }
+                throw e;
             }
         } catch (IOException e) {
             throw new RrdpException("Error downloading '" + uri + "', cause: " + fullMessage(e), e);
@@ -43,4 +43,9 @@ public interface RrdpClient {
     byte[] getBody(String uri);
 
     <T> T processUsingTemporaryFile(String uri, HashFunction hashFunction, BiFunction<Path, HashCode, T> process);
+
+    /**
+     * Download to a temporary file, the caller must close the result to delete the file.
+     */
+    DownloadedFile downloadToTemporaryFile(String uri, HashFunction hashFunction);
 }
@@ -33,20 +33,13 @@ import lombok.Value;
 import net.ripe.rpki.validator3.domain.ErrorCodes;
 import net.ripe.rpki.validator3.util.Hex;
 
-import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.Attribute;
-import javax.xml.stream.events.Characters;
-import javax.xml.stream.events.EndElement;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.XMLStreamReader;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.Base64;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.function.Consumer;
@@ -72,36 +65,31 @@ public class RrdpParser {
     public void parseSnapshot(InputStream inputStream, Consumer<SnapshotHeader> processSnapshotHeader, Consumer<SnapshotObject> processSnapshotObject) {
         try {
             final XMLInputFactory factory = XMLInputFactory.newInstance();
-            final XMLEventReader eventReader = factory.createXMLEventReader(inputStream);
+            final XMLStreamReader reader = factory.createXMLStreamReader(inputStream);
 
             String sessionId = null;
             BigInteger serial = null;
             String uri = null;
-            StringBuilder base64 = new StringBuilder();
+            final Base64Buffer base64 = new Base64Buffer();
             boolean inPublishElement = false;
             boolean snapshotHeaderProcessed = false;
 
-            final Base64.Decoder decoder = Base64.getDecoder();
-
-            while (eventReader.hasNext()) {
-                final XMLEvent event = eventReader.nextEvent();
-
-                switch (event.getEventType()) {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
                     case XMLStreamConstants.START_ELEMENT:
-                        final StartElement startElement = event.asStartElement();
-                        final String qName = startElement.getName().getLocalPart().toLowerCase(Locale.ROOT);
+                        final String qName = reader.getLocalName().toLowerCase(Locale.ROOT);
 
                         switch (qName) {
                             case "publish":
                                 if (!snapshotHeaderProcessed) {
                                     throw new RrdpException(ErrorCodes.RRDP_PARSE_ERROR, "snapshot header not present before published objects");
                                 }
-                                uri = getAttr(startElement, "uri", "Uri is not present in 'publish' element");
+                                uri = getAttr(reader, "uri", "Uri is not present in 'publish' element");
                                 inPublishElement = true;
                                 break;
                             case "snapshot":
-                                serial = new BigInteger(getAttr(startElement, "serial", "Notification serial is not present"));
-                                sessionId = getAttr(startElement, "session_id", "Session id is not present");
+                                serial = new BigInteger(getAttr(reader, "serial", "Notification serial is not present"));
+                                sessionId = getAttr(reader, "session_id", "Session id is not present");
                                 processSnapshotHeader.accept(new SnapshotHeader(sessionId, serial));
                                 snapshotHeaderProcessed = true;
                                 break;
@@ -109,21 +97,18 @@ public class RrdpParser {
                         break;
 
                     case XMLStreamConstants.CHARACTERS:
-                        final Characters characters = event.asCharacters();
                         if (inPublishElement) {
-                            final String thisBase64 = characters.getData();
-                            base64.append(thisBase64.replaceAll("\\s", ""));
+                            base64.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
                         }
                         break;
 
                     case XMLStreamConstants.END_ELEMENT:
-                        final EndElement endElement = event.asEndElement();
-                        final String qqName = endElement.getName().getLocalPart().toLowerCase(Locale.ROOT);
+                        final String qqName = reader.getLocalName().toLowerCase(Locale.ROOT);
                         if ("publish".equals(qqName)) {
-                            final byte[] decoded = decoder.decode(base64.toString());
+                            final byte[] decoded = base64.toByteArray();
+                            base64.reset();
                             processSnapshotObject.accept(new SnapshotObject(decoded, uri));
                             inPublishElement = false;
-                            base64 = new StringBuilder();
                         }
                         break;
                 }
@@ -136,45 +121,40 @@ public class RrdpParser {
     public void parseDelta(InputStream inputStream, Consumer<DeltaHeader> processDeltaHeader, Consumer<DeltaElement> processDeltaElement) {
         try {
             final XMLInputFactory factory = XMLInputFactory.newInstance();
-            final XMLEventReader eventReader = factory.createXMLEventReader(inputStream);
+            final XMLStreamReader reader = factory.createXMLStreamReader(inputStream);
 
             String sessionId = null;
             BigInteger serial = null;
             String uri = null;
             String hash = null;
-            StringBuilder base64 = new StringBuilder();
+            final Base64Buffer base64 = new Base64Buffer();
             boolean inPublishElement = false;
             boolean deltaHeaderProcessed = false;
 
-            final Base64.Decoder decoder = Base64.getDecoder();
-
-            while (eventReader.hasNext()) {
-                final XMLEvent event = eventReader.nextEvent();
-
-                switch (event.getEventType()) {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
                     case XMLStreamConstants.START_ELEMENT:
-                        final StartElement startElement = event.asStartElement();
-                        final String qName = startElement.getName().getLocalPart();
+                        final String qName = reader.getLocalName();
 
                         switch (qName) {
                             case "publish":
                                 if (!deltaHeaderProcessed) {
                                     throw new RrdpException(ErrorCodes.RRDP_PARSE_ERROR, "delta header not present before elements");
                                 }
-                                uri = getAttr(startElement, "uri", "Uri is not present in 'publish' element");
-                                hash = getAttr(startElement, "hash");
+                                uri = getAttr(reader, "uri", "Uri is not present in 'publish' element");
+                                hash = getAttr(reader, "hash");
                                 inPublishElement = true;
                                 break;
                             case "withdraw":
                                 if (!deltaHeaderProcessed) {
                                     throw new RrdpException(ErrorCodes.RRDP_PARSE_ERROR, "delta header not present before elements");
                                 }
-                                uri = getAttr(startElement, "uri", "Uri is not present in 'publish' element");
-                                hash = getAttr(startElement, "hash", "Hash is not present in 'withdraw' element");
+                                uri = getAttr(reader, "uri", "Uri is not present in 'publish' element");
+                                hash = getAttr(reader, "hash", "Hash is not present in 'withdraw' element");
                                 break;
                             case "delta":
-                                serial = new BigInteger(getAttr(startElement, "serial", "Notification serial is not present"));
-                                sessionId = getAttr(startElement, "session_id", "Session id is not present");
+                                serial = new BigInteger(getAttr(reader, "serial", "Notification serial is not present"));
+                                sessionId = getAttr(reader, "session_id", "Session id is not present");
                                 processDeltaHeader.accept(new DeltaHeader(sessionId, serial));
                                 deltaHeaderProcessed = true;
                                 break;
@@ -182,21 +162,19 @@ public class RrdpParser {
                         break;
 
                     case XMLStreamConstants.CHARACTERS:
-                        final Characters characters = event.asCharacters();
                         if (inPublishElement) {
-                            final String thisBase64 = characters.getData();
-                            base64.append(thisBase64.replaceAll("\\s", ""));
+                            base64.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
                         }
                         break;
 
                     case XMLStreamConstants.END_ELEMENT:
-                        final EndElement endElement = event.asEndElement();
-                        final String qqName = endElement.getName().getLocalPart();
+                        final String qqName = reader.getLocalName();
 
                         switch (qqName) {
                             case "publish":
-                                final byte[] decoded = decoder.decode(base64.toString());
-                                base64 = new StringBuilder();
+                                final byte[] decoded = base64.toByteArray();
+                                base64.reset();
+                                inPublishElement = false;
                                 processDeltaElement.accept(new DeltaPublish(decoded, uri, Hex.parse(hash)));
                                 break;
                             case "withdraw":
@@ -215,7 +193,7 @@ public class RrdpParser {
     public Notification notification(final InputStream inputStream) {
         try {
             final XMLInputFactory factory = XMLInputFactory.newInstance();
-            final XMLEventReader eventReader = factory.createXMLEventReader(inputStream);
+            final XMLStreamReader reader = factory.createXMLStreamReader(inputStream);
 
             String sessionId = null;
             BigInteger serial = null;
@@ -223,26 +201,23 @@ public class RrdpParser {
             String snapshotHash = null;
             final List<DeltaInfo> deltas = new ArrayList<>();
 
-            while (eventReader.hasNext()) {
-                final XMLEvent event = eventReader.nextEvent();
-
-                if (event.getEventType() == XMLStreamConstants.START_ELEMENT) {
-                    final StartElement startElement = event.asStartElement();
-                    final String qName = startElement.getName().getLocalPart();
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    final String qName = reader.getLocalName();
 
                     switch (qName) {
                         case "notification":
-                            serial = new BigInteger(getAttr(startElement, "serial", "Notification serial is not present"));
-                            sessionId = getAttr(startElement, "session_id", "Session id is not present");
+                            serial = new BigInteger(getAttr(reader, "serial", "Notification serial is not present"));
+                            sessionId = getAttr(reader, "session_id", "Session id is not present");
                             break;
                         case "snapshot":
-                            snapshotUri = getAttr(startElement, "uri", "Snapshot URI is not present");
-                            snapshotHash = getAttr(startElement, "hash", "Snapshot hash is not present");
+                            snapshotUri = getAttr(reader, "uri", "Snapshot URI is not present");
+                            snapshotHash = getAttr(reader, "hash", "Snapshot hash is not present");
                             break;
                         case "delta":
-                            final String deltaUri = getAttr(startElement, "uri", "Delta URI is not present");
-                            final String deltaHash = getAttr(startElement, "hash", "Delta hash is not present");
-                            final String deltaSerial = getAttr(startElement, "serial", "Delta serial is not present");
+                            final String deltaUri = getAttr(reader, "uri", "Delta URI is not present");
+                            final String deltaHash = getAttr(reader, "hash", "Delta hash is not present");
+                            final String deltaSerial = getAttr(reader, "serial", "Delta serial is not present");
                             deltas.add(new DeltaInfo(deltaUri, deltaHash, new BigInteger(deltaSerial)));
                             break;
                     }
@@ -254,20 +229,17 @@ public class RrdpParser {
         }
     }
 
-    private String getAttr(final StartElement startElement, final String attrName, final String noAttrMessage) {
-        final String attr = getAttr(startElement, attrName);
+    private String getAttr(final XMLStreamReader reader, final String attrName, final String noAttrMessage) {
+        final String attr = getAttr(reader, attrName);
         if (attr == null)
             throw new RrdpException(ErrorCodes.RRDP_PARSE_ERROR, noAttrMessage);
         return attr;
     }
 
-    private String getAttr(final StartElement startElement, final String attrName) {
-        final Iterator<?> attributes = startElement.getAttributes();
-        while (attributes.hasNext()) {
-            final Attribute next = (Attribute) attributes.next();
-            final String name = next.getName().getLocalPart();
-            if (attrName.equals(name)) {
-                return next.getValue();
+    private String getAttr(final XMLStreamReader reader, final String attrName) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            if (attrName.equals(reader.getAttributeLocalName(i))) {
+                return reader.getAttributeValue(i);
             }
         }
         return null;
@@ -29,6 +29,7 @@
  */
 package net.ripe.rpki.validator3.rrdp;
 
+import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
 import fj.data.Either;
 import lombok.extern.slf4j.Slf4j;
@@ -50,9 +51,11 @@ import net.ripe.rpki.validator3.util.Sha256;
 import net.ripe.rpki.validator3.util.Time;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -63,9 +66,11 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Predicate;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static net.ripe.rpki.validator3.domain.ErrorCodes.RRDP_SNAPSHOT_FETCH_LOCAL_AHEAD;
@@ -79,11 +84,16 @@ public class RrdpServiceImpl implements RrdpService {
 
     private static final int PENDING_OBJECT_COMMIT_BATCH_SIZE_BYTES = 1_000_000;
 
-    private static final Predicate<RepositoryObjectType> NO_MANIFESTS_PREDICATE = (type) -> type != RepositoryObjectType.Manifest;
-    private static final Predicate<RepositoryObjectType> ONLY_MANIFESTS_PREDICATE = (type) -> type == RepositoryObjectType.Manifest;
+    /**
+     * Manifests are stored after all other objects of a snapshot or delta, they are kept in memory up to this
+     * size and spilled to a temporary file beyond it.
+     */
+    private static final long MANIFEST_SPILL_THRESHOLD_BYTES = 32_000_000;
 
     private final RrdpParser rrdpParser = new RrdpParser();
 
+    final RrdpSyncCostModel syncCostModel = new RrdpSyncCostModel();
+
     private final RrdpClient rrdpClient;
 
     private final RpkiObjects rpkiObjects;
@@ -94,19 +104,47 @@ public class RrdpServiceImpl implements RrdpService {
 
     private final RrdpMetricsService rrdpMetrics;
 
+    private final SnapshotIngestPipeline snapshotIngestPipeline;
+
+    private final ExecutorService deltaFetchExecutor;
+
+    private final int deltaFetchParallelism;
+
+    private final long deltaFetchMaxBytes;
+
+    // Size of the downloaded delta files of all repositories that are not applied yet
+    private final AtomicLong deltaBytesOnDisk = new AtomicLong();
+
     @Autowired
     public RrdpServiceImpl(
             final RrdpClient rrdpClient,
             final RpkiObjects rpkiObjects,
             final RpkiRepositories rpkiRepositories,
             final Storage storage,
-            final RrdpMetricsService rrdpMetrics
+            final RrdpMetricsService rrdpMetrics,
+            final SnapshotIngestPipeline snapshotIngestPipeline,
+            @Value("${rpki.validator.rrdp.delta-fetch-parallelism:4}") final int deltaFetchParallelism,
+            @Value("${rpki.validator.rrdp.delta-fetch-max-bytes:268435456}") final long deltaFetchMaxBytes
     ) {
         this.rrdpClient = rrdpClient;
         this.rpkiObjects = rpkiObjects;
         this.rpkiRepositories = rpkiRepositories;
         this.storage = storage;
         this.rrdpMetrics = rrdpMetrics;
+        this.snapshotIngestPipeline = snapshotIngestPipeline;
+        this.deltaFetchParallelism = Math.max(1, deltaFetchParallelism);
+        this.deltaFetchMaxBytes = deltaFetchMaxBytes;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.deltaFetchExecutor = Executors.newFixedThreadPool(this.deltaFetchParallelism, r -> {
+            final Thread thread = new Thread(r, "rrdp-delta-fetch-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        deltaFetchExecutor.shutdownNow();
     }
 
     @Override
@@ -138,19 +176,31 @@ public class RrdpServiceImpl implements RrdpService {
             // The RRDP session is still the same
             if (rpkiRepository.getRrdpSerial().compareTo(notification.serial) <= 0) {
                 // The notification contains updates that we do not have locally
+                final List<DeltaInfo> orderedDeltas;
                 try {
-                    List<DeltaInfo> orderedDeltas = verifyAndOrderDeltaSerials(notification, rpkiRepository);
-                    for (DeltaInfo deltaInfo : orderedDeltas) {
-                        processDelta(rpkiRepository, validationRun, notification, deltaInfo, changedObjects);
+                    orderedDeltas = verifyAndOrderDeltaSerials(notification, rpkiRepository);
+                } catch (RrdpException e) {
+                    processSnapshotAfterDeltasFailed(rpkiRepository, validationRun, notification, changedObjects, e);
+                    return changedObjects.get();
+                }
+                if (!orderedDeltas.isEmpty()) {
+                    // Decided outside of the delta processing, so that failures of the snapshot are not taken for
+                    // failures of the deltas
+                    final RrdpSyncCostModel.Decision decision = syncCostModel.decide(rpkiRepository.getRrdpNotifyUri(), orderedDeltas.size());
+                    if (decision.getPath() == RrdpSyncCostModel.SyncPath.SNAPSHOT) {
+                        log.info("Repository {}: fetching the snapshot instead of the deltas, {}", rpkiRepository.getRrdpNotifyUri(), decision.getReason());
+                        rrdpMetrics.update(rpkiRepository.getRrdpNotifyUri(), ErrorCodes.RRDP_SNAPSHOT_FETCH_CHEAPER);
+                        processSnapshot(rpkiRepository, validationRun, notification, changedObjects);
+                        return changedObjects.get();
                     }
+                    log.info("Repository {}: fetching {} deltas, {}", rpkiRepository.getRrdpNotifyUri(), orderedDeltas.size(), decision.getReason());
+                    rrdpMetrics.update(rpkiRepository.getRrdpNotifyUri(), ErrorCodes.RRDP_DELTAS_FETCH_CHEAPER);
+                }
+                try {
+                    new DeltaPrefetcher(rrdpClient, deltaFetchExecutor, deltaFetchParallelism, deltaFetchMaxBytes, deltaBytesOnDisk).forEachInOrder(orderedDeltas,
+                            (deltaInfo, deltaFile) -> processDelta(rpkiRepository, validationRun, notification, deltaInfo, deltaFile, changedObjects));
                 } catch (RrdpException e) {
-                    log.info("Processing deltas failed {}, falling back to snapshot processing.", e.getMessage());
-                    rrdpMetrics.update(rpkiRepository.getRrdpNotifyUri(), ErrorCodes.RRDP_FETCH_DELTAS);
-                    final String errorCode = e.getErrorCode() != null ? e.getErrorCode() : ErrorCodes.RRDP_FETCH_DELTAS;
-                    ValidationCheck validationCheck = new ValidationCheck(rpkiRepository.getRrdpNotifyUri(),
-                            ValidationCheck.Status.WARNING, errorCode, e.getMessage());
-                    validationRun.addCheck(validationCheck);
-                    processSnapshot(rpkiRepository, validationRun, notification, changedObjects);
+                    processSnapshotAfterDeltasFailed(rpkiRepository, validationRun, notification, changedObjects, e);
                 }
             } else {
                 // The local repository is *ahead* the snapshot (for the same session): This should not happen, fall back to snapshot.
@@ -169,6 +219,16 @@ public class RrdpServiceImpl implements RrdpService {
         return changedObjects.get();
     }
 
+    private void processSnapshotAfterDeltasFailed(RpkiRepository rpkiRepository, RpkiRepositoryValidationRun validationRun, Notification notification, AtomicBoolean changedObjects, RrdpException e) {
+        log.info("Processing deltas failed {}, falling back to snapshot processing.", e.getMessage());
+        rrdpMetrics.update(rpkiRepository.getRrdpNotifyUri(), ErrorCodes.RRDP_FETCH_DELTAS);
+        final String errorCode = e.getErrorCode() != null ? e.getErrorCode() : ErrorCodes.RRDP_FETCH_DELTAS;
+        ValidationCheck validationCheck = new ValidationCheck(rpkiRepository.getRrdpNotifyUri(),
+                ValidationCheck.Status.WARNING, errorCode, e.getMessage());
+        validationRun.addCheck(validationCheck);
+        processSnapshot(rpkiRepository, validationRun, notification, changedObjects);
+    }
+
     private void processSnapshot(RpkiRepository rpkiRepository, RpkiRepositoryValidationRun validationRun, Notification notification, AtomicBoolean changedObjects) {
         rrdpClient.processUsingTemporaryFile(notification.snapshotUri, Hashing.sha256(), (snapshotPath, snapshotHash) -> {
             if (!Arrays.equals(Hex.parse(notification.snapshotHash), snapshotHash.asBytes())) {
@@ -176,14 +236,11 @@ public class RrdpServiceImpl implements RrdpService {
                         notification.snapshotUri + " is " + Hex.format(snapshotHash.asBytes()) + ", but notification file says " + notification.snapshotHash);
             }
 
-            Long timedStoreSnapshot = Time.timed(() -> {
-                int counter = 0;
-
-                log.debug("Processing RRDP repository {} snapshot, except for manifests", rpkiRepository.getRrdpNotifyUri());
-                counter += processDownloadedSnapshot(rpkiRepository, validationRun, notification, snapshotPath, NO_MANIFESTS_PREDICATE);
+            syncCostModel.recordSnapshotSize(rpkiRepository.getRrdpNotifyUri(), snapshotPath.toFile().length());
 
-                log.debug("Processing RRDP repository {} snapshot, manifests only", rpkiRepository.getRrdpNotifyUri());
-                counter += processDownloadedSnapshot(rpkiRepository, validationRun, notification, snapshotPath, ONLY_MANIFESTS_PREDICATE);
+            Long timedStoreSnapshot = Time.timed(() -> {
+                log.debug("Processing RRDP repository {} snapshot", rpkiRepository.getRrdpNotifyUri());
+                int counter = processDownloadedSnapshot(rpkiRepository, validationRun, notification, snapshotPath);
 
                 storage.writeTx0(tx -> rpkiRepositories.update(tx, rpkiRepository));
 
@@ -197,14 +254,16 @@ public class RrdpServiceImpl implements RrdpService {
         });
     }
 
-    private int processDownloadedSnapshot(RpkiRepository rpkiRepository, RpkiRepositoryValidationRun validationRun, Notification notification, Path snapshotPath, Predicate<RepositoryObjectType> typePredicate) {
-        try (InputStream in = new FileInputStream(snapshotPath.toFile())) {
-            AtomicInteger counter = new AtomicInteger(0);
+    private int processDownloadedSnapshot(RpkiRepository rpkiRepository, RpkiRepositoryValidationRun validationRun, Notification notification, Path snapshotPath) {
+        try (InputStream in = new FileInputStream(snapshotPath.toFile());
+             SpillBuffer<SnapshotObject> manifests = SpillBuffer.snapshotObjects(MANIFEST_SPILL_THRESHOLD_BYTES);
+             SnapshotIngestPipeline.Ingest<SnapshotObject, Either<ValidationResult, Pair<String, RpkiObject>>> ingest = snapshotIngestPipeline.start(
+                     value -> RpkiObjectUtils.createRpkiObject(value.getUri(), value.getContent()),
+                     converted -> storeConvertedSnapshotObjects(converted, validationRun))) {
             AtomicInteger pendingObjectsBytes = new AtomicInteger(0);
             List<SnapshotObject> pendingObjects = new ArrayList<>(1000);
             Runnable commitPendingObjects = () -> {
-                int count = storeSnapshotObjects(pendingObjects, validationRun);
-                counter.addAndGet(count);
+                ingest.submit(pendingObjects);
                 pendingObjects.clear();
                 pendingObjectsBytes.set(0);
             };
@@ -226,7 +285,8 @@ public class RrdpServiceImpl implements RrdpService {
                         rpkiRepository.setRrdpSerial(snapshotInfo.getSerial());
                     },
                     (snapshotObject) -> {
-                        if (!typePredicate.test(RepositoryObjectType.parse(snapshotObject.getUri()))) {
+                        if (RepositoryObjectType.parse(snapshotObject.getUri()) == RepositoryObjectType.Manifest) {
+                            manifests.add(snapshotObject);
                             return;
                         }
 
@@ -240,44 +300,52 @@ public class RrdpServiceImpl implements RrdpService {
 
             commitPendingObjects.run();
 
-            return counter.get();
+            log.debug("Processing {} manifests of RRDP repository {} snapshot{}", manifests.size(), rpkiRepository.getRrdpNotifyUri(),
+                    manifests.isSpilled() ? " from spill file" : "");
+            manifests.forEach(manifest -> {
+                pendingObjects.add(manifest);
+                int bytes = pendingObjectsBytes.addAndGet(manifest.estimatedSize());
+                if (bytes > PENDING_OBJECT_COMMIT_BATCH_SIZE_BYTES) {
+                    commitPendingObjects.run();
+                }
+            });
+
+            commitPendingObjects.run();
+
+            return ingest.finish();
         } catch (IOException e) {
             rrdpMetrics.update(notification.snapshotUri, ErrorCodes.RRDP_CORRUPTED_SNAPSHOT);
             throw new RrdpException("Couldn't read snapshot: ", e);
         }
     }
 
-    private void processDelta(RpkiRepository rpkiRepository, RpkiRepositoryValidationRun validationRun, Notification notification, DeltaInfo di, AtomicBoolean changedObjects) {
-        rrdpClient.processUsingTemporaryFile(di.getUri(), Hashing.sha256(), (deltaPath, deltaHash) -> {
-            if (!Arrays.equals(Hex.parse(di.getHash()), deltaHash.asBytes())) {
-                rrdpMetrics.update(notification.snapshotUri, ErrorCodes.RRDP_WRONG_DELTA_HASH);
-                throw new RrdpException(ErrorCodes.RRDP_WRONG_DELTA_HASH, "Hash of the delta file " + di + " is " + Hex.format(deltaHash.asBytes()) +
-                        ", but notification file says " + di.getHash());
-            }
-
-            Long timedStoreDelta = Time.timed(() -> {
-                int counter = 0;
+    private void processDelta(RpkiRepository rpkiRepository, RpkiRepositoryValidationRun validationRun, Notification notification, DeltaInfo di, DownloadedFile deltaFile, AtomicBoolean changedObjects) {
+        final Path deltaPath = deltaFile.getPath();
+        final HashCode deltaHash = deltaFile.getHash();
+        if (!Arrays.equals(Hex.parse(di.getHash()), deltaHash.asBytes())) {
+            rrdpMetrics.update(notification.snapshotUri, ErrorCodes.RRDP_WRONG_DELTA_HASH);
+            throw new RrdpException(ErrorCodes.RRDP_WRONG_DELTA_HASH, "Hash of the delta file " + di + " is " + Hex.format(deltaHash.asBytes()) +
+                    ", but notification file says " + di.getHash());
+        }
 
-                log.debug("Processing RRDP repository {} delta {}, except for manifests", rpkiRepository.getRrdpNotifyUri(), di.getSerial());
-                counter += processDownloadedDelta(rpkiRepository, validationRun, notification, di, deltaPath, NO_MANIFESTS_PREDICATE);
+        syncCostModel.recordDeltaSize(rpkiRepository.getRrdpNotifyUri(), deltaFile.getSize());
 
-                log.debug("Processing RRDP repository {} delta {}, manifests only", rpkiRepository.getRrdpNotifyUri(), di.getSerial());
-                counter += processDownloadedDelta(rpkiRepository, validationRun, notification, di, deltaPath, ONLY_MANIFESTS_PREDICATE);
+        Long timedStoreDelta = Time.timed(() -> {
+            log.debug("Processing RRDP repository {} delta {}", rpkiRepository.getRrdpNotifyUri(), di.getSerial());
+            int counter = processDownloadedDelta(rpkiRepository, validationRun, notification, di, deltaPath);
 
-                storage.writeTx0(tx -> rpkiRepositories.update(tx, rpkiRepository));
-
-                changedObjects.set(counter > 0);
+            storage.writeTx0(tx -> rpkiRepositories.update(tx, rpkiRepository));
 
-                log.info("Added, withdrew, or updated locations for {} new objects", counter);
-            });
-            log.info("Storing delta {} time {}ms", rpkiRepository.getRrdpNotifyUri(), timedStoreDelta);
+            changedObjects.set(counter > 0);
 
-            return null;
+            log.info("Added, withdrew, or updated locations for {} new objects", counter);
         });
+        log.info("Storing delta {} time {}ms", rpkiRepository.getRrdpNotifyUri(), timedStoreDelta);
     }
 
-    private int processDownloadedDelta(RpkiRepository rpkiRepository, RpkiRepositoryValidationRun validationRun, Notification notification, DeltaInfo di, Path deltaPath, Predicate<RepositoryObjectType> typePredicate) {
-        try (InputStream in = new FileInputStream(deltaPath.toFile())) {
+    private int processDownloadedDelta(RpkiRepository rpkiRepository, RpkiRepositoryValidationRun validationRun, Notification notification, DeltaInfo di, Path deltaPath) {
+        try (InputStream in = new FileInputStream(deltaPath.toFile());
+             SpillBuffer<DeltaElement> manifests = SpillBuffer.deltaElements(MANIFEST_SPILL_THRESHOLD_BYTES)) {
             AtomicInteger counter = new AtomicInteger(0);
             AtomicInteger pendingObjectsBytes = new AtomicInteger(0);
             List<DeltaElement> pendingObjects = new ArrayList<>(1000);
@@ -305,7 +373,8 @@ public class RrdpServiceImpl implements RrdpService {
                         rpkiRepository.setRrdpSerial(deltaHeader.getSerial());
                     },
                     (deltaElement) -> {
-                        if (!typePredicate.test(RepositoryObjectType.parse(deltaElement.getUri()))) {
+                        if (RepositoryObjectType.parse(deltaElement.getUri()) == RepositoryObjectType.Manifest) {
+                            manifests.add(deltaElement);
                             return;
                         }
 
@@ -317,6 +386,16 @@ public class RrdpServiceImpl implements RrdpService {
                     }
             );
 
+            commitPendingObjects.run();
+
+            manifests.forEach(manifest -> {
+                pendingObjects.add(manifest);
+                int bytes = pendingObjectsBytes.addAndGet(manifest.estimatedSize());
+                if (bytes > PENDING_OBJECT_COMMIT_BATCH_SIZE_BYTES) {
+                    commitPendingObjects.run();
+                }
+            });
+
             commitPendingObjects.run();
             return counter.get();
         } catch (IOException e) {
@@ -358,19 +437,12 @@ public class RrdpServiceImpl implements RrdpService {
         return orderedDeltas;
     }
 
-    int storeSnapshotObjects(List<SnapshotObject> snapshotObjects,
-                             final RpkiRepositoryValidationRun validationRun) {
+    int storeConvertedSnapshotObjects(List<Either<ValidationResult, Pair<String, RpkiObject>>> converted,
+                                      final RpkiRepositoryValidationRun validationRun) {
         final AtomicInteger counter = new AtomicInteger();
-
-        // Parsing RPKI objects is CPU bound, so do this with any available threads
-        List<Either<ValidationResult, Pair<String, RpkiObject>>> converted = snapshotObjects.parallelStream().map((value) ->
-                RpkiObjectUtils.createRpkiObject(value.getUri(), value.getContent())
-        ).collect(Collectors.toList());
-
         storage.writeTx0(tx -> converted.forEach((maybeRpkiObject) ->
                 storeSnapshotObject(tx, validationRun, maybeRpkiObject, counter)
         ));
-
         return counter.get();
     }
 
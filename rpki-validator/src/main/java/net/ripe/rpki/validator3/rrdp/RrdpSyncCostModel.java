@@ -0,0 +1,107 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.rrdp;
+
+import lombok.Value;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimates whether catching up with a repository is cheaper through its deltas or through its snapshot.
+ *
+ * RRDP notification files do not contain file sizes, so the estimate is based on the sizes of the snapshot and
+ * deltas downloaded from the same repository before, as an exponential moving average. Every download also has a
+ * fixed cost for the HTTP round trip, expressed in bytes. Without history the deltas are used.
+ */
+class RrdpSyncCostModel {
+
+    /**
+     * Cost of a single HTTP request, in bytes that could have been downloaded in the same time.
+     */
+    static final long REQUEST_OVERHEAD_BYTES = 64 * 1024;
+
+    private static final double SMOOTHING = 0.2;
+
+    private final Map<String, Sizes> sizesByRepository = new ConcurrentHashMap<>();
+
+    enum SyncPath {
+        DELTAS, SNAPSHOT
+    }
+
+    @Value
+    static class Decision {
+        SyncPath path;
+        String reason;
+        long estimatedDeltasBytes;
+        long estimatedSnapshotBytes;
+    }
+
+    void recordSnapshotSize(String notifyUri, long bytes) {
+        sizesByRepository.computeIfAbsent(notifyUri, uri -> new Sizes()).snapshot.update(bytes);
+    }
+
+    void recordDeltaSize(String notifyUri, long bytes) {
+        sizesByRepository.computeIfAbsent(notifyUri, uri -> new Sizes()).delta.update(bytes);
+    }
+
+    Decision decide(String notifyUri, int deltaCount) {
+        final Sizes sizes = sizesByRepository.get(notifyUri);
+        if (sizes == null || !sizes.snapshot.isKnown() || !sizes.delta.isKnown()) {
+            return new Decision(SyncPath.DELTAS, "no size history for this repository", -1, -1);
+        }
+
+        final long deltasCost = deltaCount * (sizes.delta.get() + REQUEST_OVERHEAD_BYTES);
+        final long snapshotCost = sizes.snapshot.get() + REQUEST_OVERHEAD_BYTES;
+        final String reason = String.format("%d deltas are estimated at %d bytes, the snapshot at %d bytes", deltaCount, deltasCost, snapshotCost);
+        return new Decision(snapshotCost < deltasCost ? SyncPath.SNAPSHOT : SyncPath.DELTAS, reason, deltasCost, snapshotCost);
+    }
+
+    private static class Sizes {
+        final MovingAverage snapshot = new MovingAverage();
+        final MovingAverage delta = new MovingAverage();
+    }
+
+    private static class MovingAverage {
+        private double value = -1;
+
+        synchronized void update(long sample) {
+            value = value < 0 ? sample : SMOOTHING * sample + (1 - SMOOTHING) * value;
+        }
+
+        synchronized boolean isKnown() {
+            return value >= 0;
+        }
+
+        synchronized long get() {
+            return (long) value;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.rrdp;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Pipeline for storing the objects of an RRDP snapshot: the thread parsing the snapshot hands batches of objects
+ * to a pool of decoding threads, and a single writer thread per snapshot stores the decoded batches in the order
+ * they were submitted. The stages overlap, so parsing, decoding and writing run at the speed of the slowest stage
+ * instead of the sum of all of them.
+ *
+ * The number of batches that are submitted but not yet written is bounded. When the decoding or writing falls
+ * behind, the parser blocks until a batch is written.
+ */
+@Component
+@Slf4j
+public class SnapshotIngestPipeline {
+
+    private final ExecutorService decodeExecutor;
+
+    private final int maxPendingBatches;
+
+    private final AtomicInteger pendingBatches = new AtomicInteger();
+
+    private final Timer backpressureTimer;
+    private final Timer decodeTimer;
+    private final Timer writeTimer;
+
+    @Autowired
+    public SnapshotIngestPipeline(@Value("${rpki.validator.rrdp.decode-parallelism:0}") int decodeParallelism,
+                                  @Value("${rpki.validator.rrdp.max-pending-batches:0}") int maxPendingBatches,
+                                  MeterRegistry registry) {
+        final int parallelism = decodeParallelism > 0 ? decodeParallelism : Runtime.getRuntime().availableProcessors();
+        this.maxPendingBatches = maxPendingBatches > 0 ? maxPendingBatches : 2 * parallelism;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.decodeExecutor = Executors.newFixedThreadPool(parallelism, r -> {
+            final Thread thread = new Thread(r, "rrdp-decode-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("RRDP snapshot objects are decoded by {} threads, with at most {} pending batches per snapshot", parallelism, this.maxPendingBatches);
+
+        this.backpressureTimer = stageTimer(registry, "backpressure", "Time the snapshot parser waited for pending batches to be written");
+        this.decodeTimer = stageTimer(registry, "decode", "Time spent decoding a batch of snapshot objects");
+        this.writeTimer = stageTimer(registry, "write", "Time spent storing a batch of decoded snapshot objects");
+        Gauge.builder("rpkivalidator.rrdp.snapshot.pipeline.pending.batches", pendingBatches, AtomicInteger::get)
+                .description("Number of snapshot batches that are submitted but not yet written")
+                .register(registry);
+    }
+
+    private static Timer stageTimer(MeterRegistry registry, String stage, String description) {
+        return Timer.builder("rpkivalidator.rrdp.snapshot.pipeline.stage")
+                .description(description)
+                .tag("stage", stage)
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        decodeExecutor.shutdownNow();
+    }
+
+    /**
+     * Start storing a snapshot.
+     *
+     * @param decode decodes a single object, called on the decoding threads
+     * @param write  stores a batch of decoded objects and returns the number of objects stored, called on the
+     *               writer thread of this snapshot only
+     */
+    public <T, R> Ingest<T, R> start(Function<T, R> decode, ToIntFunction<List<R>> write) {
+        return new Ingest<>(decode, write);
+    }
+
+    public class Ingest<T, R> implements AutoCloseable {
+        private final Function<T, R> decode;
+        private final ToIntFunction<List<R>> write;
+        private final Semaphore pending = new Semaphore(maxPendingBatches);
+        private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "rrdp-write");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        private CompletableFuture<Integer> written = CompletableFuture.completedFuture(0);
+
+        private Ingest(Function<T, R> decode, ToIntFunction<List<R>> write) {
+            this.decode = decode;
+            this.write = write;
+        }
+
+        /**
+         * Submit the next batch of objects, blocking while too many batches are pending.
+         */
+        public void submit(List<T> batch) {
+            if (written.isCompletedExceptionally()) {
+                finish();
+            }
+
+            final long waitStart = System.nanoTime();
+            pending.acquireUninterruptibly();
+            backpressureTimer.record(System.nanoTime() - waitStart, TimeUnit.NANOSECONDS);
+            pendingBatches.incrementAndGet();
+
+            final List<T> objects = new ArrayList<>(batch);
+            final CompletableFuture<List<R>> decoded = CompletableFuture.supplyAsync(() -> decodeTimer.record(() -> {
+                final List<R> result = new ArrayList<>(objects.size());
+                for (T object : objects) {
+                    result.add(decode.apply(object));
+                }
+                return result;
+            }), decodeExecutor);
+
+            written = written.thenCombineAsync(decoded, (count, decodedObjects) -> count + writeTimer.record(() -> {
+                return write.applyAsInt(decodedObjects);
+            }), writer);
+            written.whenComplete((count, e) -> {
+                pendingBatches.decrementAndGet();
+                pending.release();
+            });
+        }
+
+        /**
+         * Wait until all submitted batches are written.
+         *
+         * @return the number of objects stored
+         */
+        public int finish() {
+            try {
+                return written.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Waits for pending batches and stops the writer thread, also when the snapshot could not be parsed
+         * completely.
+         */
+        @Override
+        public void close() {
+            try {
+                written.handle((count, e) -> count).join();
+            } finally {
+                writer.shutdown();
+            }
+        }
+    }
+}
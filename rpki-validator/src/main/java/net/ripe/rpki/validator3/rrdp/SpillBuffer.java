@@ -0,0 +1,233 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.rrdp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Keeps elements of an RRDP file aside to process them after the rest of the file, in the order they were added.
+ * Elements are kept in memory up to a limit, after that they are spilled to a temporary file.
+ *
+ * Used to store manifests after all other objects of a snapshot or delta without parsing the file twice.
+ */
+class SpillBuffer<T> implements AutoCloseable {
+
+    interface Codec<T> {
+        void write(DataOutput out, T element) throws IOException;
+
+        T read(DataInput in) throws IOException;
+
+        int estimatedSize(T element);
+    }
+
+    private final long memoryLimitBytes;
+    private final Codec<T> codec;
+
+    private final List<T> inMemory = new ArrayList<>();
+    private long inMemoryBytes;
+
+    private Path spillFile;
+    private DataOutputStream spillOut;
+    private int spilledCount;
+
+    SpillBuffer(long memoryLimitBytes, Codec<T> codec) {
+        this.memoryLimitBytes = memoryLimitBytes;
+        this.codec = codec;
+    }
+
+    static SpillBuffer<SnapshotObject> snapshotObjects(long memoryLimitBytes) {
+        return new SpillBuffer<>(memoryLimitBytes, SNAPSHOT_OBJECT_CODEC);
+    }
+
+    static SpillBuffer<DeltaElement> deltaElements(long memoryLimitBytes) {
+        return new SpillBuffer<>(memoryLimitBytes, DELTA_ELEMENT_CODEC);
+    }
+
+    void add(T element) {
+        try {
+            final int size = codec.estimatedSize(element);
+            if (spillOut == null && inMemoryBytes + size <= memoryLimitBytes) {
+                inMemory.add(element);
+                inMemoryBytes += size;
+                return;
+            }
+            if (spillOut == null) {
+                spillFile = Files.createTempFile("rrdp-spill-", ".tmp");
+                spillOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile.toFile())));
+            }
+            codec.write(spillOut, element);
+            spilledCount++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    int size() {
+        return inMemory.size() + spilledCount;
+    }
+
+    /**
+     * Pass all elements to the consumer in the order they were added.
+     */
+    void forEach(Consumer<T> consumer) {
+        inMemory.forEach(consumer);
+        if (spillOut == null) {
+            return;
+        }
+        try {
+            spillOut.flush();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile.toFile())))) {
+                for (int i = 0; i < spilledCount; i++) {
+                    consumer.accept(codec.read(in));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (spillOut != null) {
+                spillOut.close();
+            }
+            if (spillFile != null) {
+                Files.deleteIfExists(spillFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            throw new EOFException("negative length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static final Codec<SnapshotObject> SNAPSHOT_OBJECT_CODEC = new Codec<SnapshotObject>() {
+        @Override
+        public void write(DataOutput out, SnapshotObject element) throws IOException {
+            out.writeUTF(element.getUri());
+            writeBytes(out, element.getContent());
+        }
+
+        @Override
+        public SnapshotObject read(DataInput in) throws IOException {
+            final String uri = in.readUTF();
+            return new SnapshotObject(readBytes(in), uri);
+        }
+
+        @Override
+        public int estimatedSize(SnapshotObject element) {
+            return element.estimatedSize();
+        }
+    };
+
+    private static final byte PUBLISH = 1;
+    private static final byte PUBLISH_WITH_HASH = 2;
+    private static final byte WITHDRAW = 3;
+
+    private static final Codec<DeltaElement> DELTA_ELEMENT_CODEC = new Codec<DeltaElement>() {
+        @Override
+        public void write(DataOutput out, DeltaElement element) throws IOException {
+            if (element instanceof DeltaPublish) {
+                final DeltaPublish publish = (DeltaPublish) element;
+                if (publish.getHash().isPresent()) {
+                    out.writeByte(PUBLISH_WITH_HASH);
+                    out.writeUTF(publish.getUri());
+                    writeBytes(out, publish.getHash().get());
+                } else {
+                    out.writeByte(PUBLISH);
+                    out.writeUTF(publish.getUri());
+                }
+                writeBytes(out, publish.getContent());
+            } else if (element instanceof DeltaWithdraw) {
+                final DeltaWithdraw withdraw = (DeltaWithdraw) element;
+                out.writeByte(WITHDRAW);
+                out.writeUTF(withdraw.getUri());
+                writeBytes(out, withdraw.getHash());
+            } else {
+                throw new IllegalArgumentException("unsupported delta element " + element);
+            }
+        }
+
+        @Override
+        public DeltaElement read(DataInput in) throws IOException {
+            final byte type = in.readByte();
+            final String uri = in.readUTF();
+            switch (type) {
+                case PUBLISH:
+                    return new DeltaPublish(readBytes(in), uri, null);
+                case PUBLISH_WITH_HASH:
+                    final byte[] hash = readBytes(in);
+                    return new DeltaPublish(readBytes(in), uri, hash);
+                case WITHDRAW:
+                    return new DeltaWithdraw(uri, readBytes(in));
+                default:
+                    throw new IOException("unknown delta element type " + type);
+            }
+        }
+
+        @Override
+        public int estimatedSize(DeltaElement element) {
+            return element.estimatedSize();
+        }
+    };
+}
@@ -33,12 +33,14 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import net.ripe.rpki.validator3.storage.Tx;
 import net.ripe.rpki.validator3.storage.data.Key;
+import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 public interface IxBase<T extends Serializable> {
 
@@ -52,6 +54,17 @@ public interface IxBase<T extends Serializable> {
 
     Map<Key, T> all(Tx.Read tx);
 
+    /**
+     * Lazy variants of {@link #keys(Tx.Read)}, {@link #values(Tx.Read)} and {@link #all(Tx.Read)} that read
+     * the map with a cursor in key order and decode values only when they are consumed. The streams must be
+     * consumed or closed before the transaction ends.
+     */
+    Stream<Key> streamKeys(Tx.Read tx);
+
+    Stream<T> streamValues(Tx.Read tx);
+
+    Stream<Pair<Key, T>> streamAll(Tx.Read tx);
+
     void clear(Tx.Write tx);
 
     T toValue(byte[] bb);
@@ -30,8 +30,10 @@
 package net.ripe.rpki.validator3.storage;
 
 import net.ripe.rpki.validator3.storage.data.Key;
+import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -39,6 +41,7 @@ import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * Indexes Map of type T.
@@ -54,23 +57,48 @@ public interface IxMap<T extends Serializable> extends IxBase<T> {
 
     List<T> get(Tx.Read txn, Set<Key> primaryKeys);
 
+    /**
+     * Values of the primary keys that exist, in the order of the keys in the storage. The keys are looked up
+     * with a single cursor, which is much cheaper than separate lookups for thousands of keys.
+     */
+    Map<Key, T> getAll(Tx.Read tx, Collection<Key> primaryKeys);
+
+    /**
+     * Same as {@link #getAll(Tx.Read, Collection)}, but passes the stored bytes so that the caller only
+     * decodes (with {@link #toValue(byte[])}) the values it needs.
+     */
+    void getAllRaw(Tx.Read tx, Collection<Key> primaryKeys, BiConsumer<Key, byte[]> c);
+
+    /**
+     * Same as {@link #streamAll(Tx.Read)}, but starts after the given key, which does not have to exist.
+     */
+    Stream<Pair<Key, T>> streamAllAfter(Tx.Read tx, Key after);
+
     Map<Key, T> getByIndex(String indexName, Tx.Read tx, Key indexKey);
 
     Set<Key> getPkByIndex(String indexName, Tx.Read tx, Key indexKey);
 
+    /**
+     * Lazy variant of {@link #getPkByIndex(String, Tx.Read, Key)}, the keys are read with a cursor in key
+     * order. The stream must be consumed or closed before the transaction ends.
+     */
+    Stream<Key> streamPkByIndex(String indexName, Tx.Read tx, Key indexKey);
+
     Map<Key, T> getByIndexLessThan(String indexName, Tx.Read tx, Key indexKey);
 
     Map<Key, T> getByIndexNotLessThan(String indexName, Tx.Read tx, Key indexKey);
 
     Set<Key> getPkByIndexLessThan(String indexName, Tx.Read tx, Key indexKey);
 
+    Stream<Key> streamPkByIndexLessThan(String indexName, Tx.Read tx, Key indexKey);
+
     Set<Key> getPkByIndexGreaterThan(String indexName, Tx.Read tx, Key indexKey);
 
     Map<Key, T> getByIdxDescendingWhere(String indexName, Tx.Read tx, Predicate<T> p);
 
     Map<Key, T> getByIdxAscendingWhere(String indexName, Tx.Read tx, Predicate<T> p);
 
-    Optional<T> put(Tx.Write tx, Key primaryKey, T value);
+    void put(Tx.Write tx, Key primaryKey, T value);
 
     boolean modify(Tx.Write tx, Key primaryKey, Consumer<T> modifyValue);
 
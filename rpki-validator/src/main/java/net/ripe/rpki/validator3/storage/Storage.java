@@ -48,6 +48,8 @@ public interface Storage {
 
     void readTx0(Consumer<Tx.Read> c);
 
+    Tx.Snapshot readSnapshot();
+
     String status();
 
     <T extends Serializable> IxMap<T> createIxMap(String name,
@@ -62,6 +64,18 @@ public interface Storage {
 
     void gc();
 
+    /**
+     * Runs long running maintenance of the stored data, such as rebuilding indexes, one task after the other on a
+     * background thread.
+     */
+    void runInBackground(Runnable r);
+
+    /**
+     * Verifies the checksums of all stored values, regardless of the verification on read. Returns the number of
+     * corrupted values.
+     */
+    long verifyChecksums();
+
     @NotNull
     Map<String, String> getDbStats();
 }
@@ -42,5 +42,20 @@ public class Tx {
         void afterCommit(Runnable r);
     }
 
+    /**
+     * Read-only view of the database as it was when the snapshot was created. Every
+     * thread reading from the snapshot gets its own read transaction on the same
+     * database state, so the snapshot can be shared by concurrent tasks.
+     */
+    public interface Snapshot extends AutoCloseable {
+        /**
+         * @return read transaction of the current thread, opened on first use.
+         */
+        Read tx();
+
+        @Override
+        void close();
+    }
+
 }
 
@@ -0,0 +1,94 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.data;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.Value;
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+
+import java.util.Optional;
+
+/**
+ * Cache of decoded repository objects, keyed by the SHA-256 of their encoding.
+ *
+ * Repository objects are immutable and content-addressed, so a decoded object can be
+ * shared between validation runs and API requests instead of parsing the ASN.1 again.
+ * Eviction is based on the size of the encoded objects.
+ */
+public final class ParsedObjectCache {
+
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 128L * 1024 * 1024;
+
+    private static volatile Cache<Key, Parsed> cache = build(DEFAULT_MAXIMUM_WEIGHT, false);
+
+    private ParsedObjectCache() {
+    }
+
+    /**
+     * Replaces the cache with an empty one using the given limits.
+     *
+     * @param maximumWeight total size in bytes of the encoded objects to keep, 0 disables caching
+     * @param softValues    allow the garbage collector to evict decoded objects under memory pressure
+     */
+    public static synchronized Cache<Key, ?> configure(long maximumWeight, boolean softValues) {
+        cache = build(maximumWeight, softValues);
+        return cache;
+    }
+
+    public static Cache<Key, ?> cache() {
+        return cache;
+    }
+
+    static Optional<CertificateRepositoryObject> get(Key key) {
+        return Optional.ofNullable(cache.getIfPresent(key)).map(Parsed::getObject);
+    }
+
+    static void put(Key key, int encodedSize, CertificateRepositoryObject object) {
+        cache.put(key, Parsed.of(object, encodedSize));
+    }
+
+    private static Cache<Key, Parsed> build(long maximumWeight, boolean softValues) {
+        final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
+        if (softValues) {
+            builder.softValues();
+        }
+        return builder
+                .maximumWeight(maximumWeight)
+                .weigher((Key key, Parsed parsed) -> parsed.getEncodedSize())
+                .build();
+    }
+
+    @Value(staticConstructor = "of")
+    private static class Parsed {
+        CertificateRepositoryObject object;
+        int encodedSize;
+    }
+}
@@ -139,11 +139,7 @@ public class RpkiObject extends Base<RpkiObject> {
     public <T extends CertificateRepositoryObject> Optional<T> get(Class<T> clazz, ValidationResult validationResult) {
         ValidationResult temporary = newValidationResult(validationResult.getCurrentLocation());
         try {
-            CertificateRepositoryObject candidate = Bench.mark("createCertificateRepositoryObject", () ->
-                    CertificateRepositoryObjectFactory.createCertificateRepositoryObject(
-                            encoded,
-                            temporary
-                    ));
+            CertificateRepositoryObject candidate = decode(temporary);
 
             temporary.rejectIfNull(candidate, "rpki.object.parsable");
             if (temporary.hasFailureForCurrentLocation()) {
@@ -164,6 +160,26 @@ public class RpkiObject extends Base<RpkiObject> {
         }
     }
 
+    private CertificateRepositoryObject decode(ValidationResult validationResult) {
+        final Key key = key();
+        final Optional<CertificateRepositoryObject> cached = ParsedObjectCache.get(key);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
+        CertificateRepositoryObject candidate = Bench.mark("createCertificateRepositoryObject", () ->
+                CertificateRepositoryObjectFactory.createCertificateRepositoryObject(
+                        encoded,
+                        validationResult
+                ));
+
+        // Only cache objects that decode cleanly, so that a cache hit does not hide parser warnings.
+        if (candidate != null && validationResult.hasNoFailuresOrWarnings()) {
+            ParsedObjectCache.put(key, encoded.length, candidate);
+        }
+        return candidate;
+    }
+
     public <T extends CertificateRepositoryObject> Optional<T> get(final Class<T> clazz, final String location) {
         ValidationResult temporary = newValidationResult(location);
         return get(clazz, temporary);
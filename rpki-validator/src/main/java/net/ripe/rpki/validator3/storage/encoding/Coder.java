@@ -29,8 +29,18 @@
  */
 package net.ripe.rpki.validator3.storage.encoding;
 
+import java.util.Arrays;
+
 public interface Coder<T> {
     byte[] toBytes(T t);
 
     T fromBytes(byte[] bb);
+
+    /**
+     * Decodes a part of the array. The array may be reused by the caller afterwards, so the decoded value
+     * must not refer to it.
+     */
+    default T fromBytes(byte[] bb, int offset, int length) {
+        return fromBytes(Arrays.copyOfRange(bb, offset, offset + length));
+    }
 }
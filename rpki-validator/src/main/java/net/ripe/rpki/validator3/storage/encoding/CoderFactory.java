@@ -74,6 +74,11 @@ public class CoderFactory {
             public T fromBytes(byte[] bb) {
                 return cc.fromBytes(bb);
             }
+
+            @Override
+            public T fromBytes(byte[] bb, int offset, int length) {
+                return cc.fromBytes(bb, offset, length);
+            }
         };
     }
 
@@ -121,6 +126,26 @@ public class CoderFactory {
             public Long fromBytes(byte[] bb) {
                 return Longs.fromByteArray(bb);
             }
+
+            @Override
+            public Long fromBytes(byte[] bb, int offset, int length) {
+                return Longs.fromBytes(bb[offset], bb[offset + 1], bb[offset + 2], bb[offset + 3],
+                        bb[offset + 4], bb[offset + 5], bb[offset + 6], bb[offset + 7]);
+            }
+        };
+    }
+
+    public static Coder<byte[]> bytesCoder() {
+        return new Coder<byte[]>() {
+            @Override
+            public byte[] toBytes(byte[] bb) {
+                return bb;
+            }
+
+            @Override
+            public byte[] fromBytes(byte[] bb) {
+                return bb;
+            }
         };
     }
 
@@ -135,6 +160,11 @@ public class CoderFactory {
             public String fromBytes(byte[] bb) {
                 return new String(bb, UTF_8);
             }
+
+            @Override
+            public String fromBytes(byte[] bb, int offset, int length) {
+                return new String(bb, offset, length, UTF_8);
+            }
         };
     }
 
@@ -41,4 +41,9 @@ public class StringCoder implements Coder<String> {
     public String fromBytes(byte[] bb) {
         return new String(bb, UTF_8);
     }
+
+    @Override
+    public String fromBytes(byte[] bb, int offset, int length) {
+        return new String(bb, offset, length, UTF_8);
+    }
 }
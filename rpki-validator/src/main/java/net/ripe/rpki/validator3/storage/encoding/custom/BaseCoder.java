@@ -32,7 +32,6 @@ package net.ripe.rpki.validator3.storage.encoding.custom;
 import net.ripe.rpki.validator3.storage.data.Base;
 import net.ripe.rpki.validator3.storage.data.Key;
 
-import java.util.Map;
 
 public class BaseCoder {
 
@@ -45,8 +44,8 @@ public class BaseCoder {
         toBytesNoId(base, encoded);
     }
 
-    public static void fromBytes(Map<Short, byte[]> content, Base base) {
-        Encoded.field(content, ID_TAG).ifPresent(b -> base.setId(Key.of(b)));
+    public static void fromBytes(EncodedView content, Base base) {
+        content.field(ID_TAG).ifPresent(b -> base.setId(Key.of(b)));
         fromBytesNoId(content, base);
     }
 
@@ -55,8 +54,8 @@ public class BaseCoder {
         encoded.appendNotNull(UPDATED_AT, base.getUpdatedAt(), Coders::toBytes);
     }
 
-    public static void fromBytesNoId(Map<Short, byte[]> content, Base base) {
-        Encoded.field(content, CREATED_AT).ifPresent(b -> base.setCreatedAt(Coders.toInstant(b)));
-        Encoded.field(content, UPDATED_AT).ifPresent(b -> base.setUpdatedAt(Coders.toInstant(b)));
+    public static void fromBytesNoId(EncodedView content, Base base) {
+        content.field(CREATED_AT, EncodedView::toInstant).ifPresent(base::setCreatedAt);
+        content.field(UPDATED_AT, EncodedView::toInstant).ifPresent(base::setUpdatedAt);
     }
 }
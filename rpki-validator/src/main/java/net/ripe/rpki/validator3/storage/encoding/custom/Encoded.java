@@ -29,93 +29,70 @@
  */
 package net.ripe.rpki.validator3.storage.encoding.custom;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
-import lombok.EqualsAndHashCode;
-
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
+import java.util.Arrays;
 import java.util.function.Function;
 
-@Data
-@AllArgsConstructor
-@EqualsAndHashCode
+/**
+ * Builds the binary form of an object: an entry count, a table of (tag, offset) pairs and the field bytes.
+ * Fields are kept in arrays and written into a buffer of exactly the right size. Use {@link EncodedView}
+ * to read the fields back without copying them.
+ */
 public class Encoded {
 
-    private final Map<Short, byte[]> content = new HashMap<>();
+    private short[] tags = new short[8];
+    private byte[][] values = new byte[8][];
+    private int count;
+    private int valuesSize;
 
     public void append(short fieldTag, byte[] bytes) {
         if (bytes != null) {
-            content.put(fieldTag, bytes);
+            put(fieldTag, bytes);
         }
     }
 
     public <T> void appendNotNull(short fieldTag, T value, Function<T, byte[]> f) {
         if (value != null) {
-            content.put(fieldTag, f.apply(value));
+            put(fieldTag, f.apply(value));
         }
     }
 
     public void appendNotNull(short fieldTag, byte[] bytes) {
         if (bytes != null) {
-            content.put(fieldTag, bytes);
+            put(fieldTag, bytes);
         }
     }
 
-    public byte[] toByteArray() {
-        int totalSize = Integer.BYTES +
-                content.values().stream()
-                .map(b -> Short.BYTES + Integer.BYTES + b.length)
-                .reduce(0, Integer::sum);
-
-        byte[] array = new byte[totalSize];
-        ByteBuffer bb = ByteBuffer.wrap(array);
-        final int entryCount = content.size();
-        bb.putInt(entryCount);
-
-        int currentOffset = Integer.BYTES + entryCount * (Short.BYTES + Integer.BYTES);
-        byte[][] bbytes = new byte[entryCount][];
-        int i = 0;
-        for (Map.Entry<Short, byte[]> e : content.entrySet()) {
-            byte[] bytes = e.getValue();
-            bb.putShort(e.getKey());
-            bb.putInt(currentOffset);
-            currentOffset += bytes.length;
-            bbytes[i++] = bytes;
+    private void put(short fieldTag, byte[] bytes) {
+        for (int i = 0; i < count; i++) {
+            if (tags[i] == fieldTag) {
+                valuesSize += bytes.length - values[i].length;
+                values[i] = bytes;
+                return;
+            }
         }
-        for (int k = 0; k < entryCount; k++) {
-            bb.put(bbytes[k]);
+        if (count == tags.length) {
+            tags = Arrays.copyOf(tags, count * 2);
+            values = Arrays.copyOf(values, count * 2);
         }
-        return array;
+        tags[count] = fieldTag;
+        values[count] = bytes;
+        count++;
+        valuesSize += bytes.length;
     }
 
-    public static Encoded fromByteArray(byte[] array) {
+    public byte[] toByteArray() {
+        final int headerSize = Integer.BYTES + count * (Short.BYTES + Integer.BYTES);
+        final byte[] array = new byte[headerSize + valuesSize];
         final ByteBuffer bb = ByteBuffer.wrap(array);
-        final int entryCount = bb.getInt();
-        final Encoded encoded = new Encoded();
-        if (entryCount != 0) {
-            short[] tags = new short[entryCount];
-            int[] offsets = new int[entryCount];
-            for (int i = 0; i < entryCount; i++) {
-                tags[i] = bb.getShort();
-                offsets[i] = bb.getInt();
-            }
-            for (int i = 0; i < entryCount - 1; i++) {
-                byte[] bytes = new byte[offsets[i + 1] - offsets[i]];
-                bb.get(bytes);
-                encoded.append(tags[i], bytes);
-            }
-            byte[] bytes = new byte[bb.remaining()];
-            bb.get(bytes);
-            encoded.append(tags[entryCount - 1], bytes);
+        bb.putInt(count);
+        int currentOffset = headerSize;
+        for (int i = 0; i < count; i++) {
+            bb.putShort(tags[i]);
+            bb.putInt(currentOffset);
+            System.arraycopy(values[i], 0, array, currentOffset, values[i].length);
+            currentOffset += values[i].length;
         }
-        return encoded;
-    }
-
-    public static Optional<byte[]> field(Map<Short, byte[]> c, short tag) {
-        return Optional.ofNullable(c.get(tag));
+        return array;
     }
-
 }
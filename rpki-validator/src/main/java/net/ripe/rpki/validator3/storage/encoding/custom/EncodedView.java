@@ -0,0 +1,155 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.encoding.custom;
+
+import net.ripe.rpki.validator3.api.util.InstantWithoutNanos;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Read-only view of the fields written by {@link Encoded}. Only the table of tags and offsets is parsed, the
+ * fields are read from the original array when they are asked for and only copied by {@link #get(short)}.
+ */
+public final class EncodedView {
+
+    /**
+     * Reads a value from a part of an array without copying it.
+     */
+    @FunctionalInterface
+    public interface Reader<R> {
+        R read(byte[] array, int offset, int length);
+    }
+
+    private final byte[] array;
+    private final short[] tags;
+    private final int[] starts;
+    private final int[] ends;
+
+    private EncodedView(byte[] array, int offset, int length) {
+        this.array = array;
+        final ByteBuffer bb = ByteBuffer.wrap(array, offset, length);
+        final int entryCount = bb.getInt();
+        this.tags = new short[entryCount];
+        this.starts = new int[entryCount];
+        this.ends = new int[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            tags[i] = bb.getShort();
+            // offsets are relative to the start of the encoded object
+            starts[i] = offset + bb.getInt();
+        }
+        for (int i = 0; i < entryCount; i++) {
+            ends[i] = i + 1 < entryCount ? starts[i + 1] : offset + length;
+        }
+    }
+
+    public static EncodedView of(byte[] array) {
+        return new EncodedView(array, 0, array.length);
+    }
+
+    public static EncodedView of(byte[] array, int offset, int length) {
+        return new EncodedView(array, offset, length);
+    }
+
+    private int find(short tag) {
+        for (int i = 0; i < tags.length; i++) {
+            if (tags[i] == tag) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean has(short tag) {
+        return find(tag) >= 0;
+    }
+
+    /**
+     * @return a copy of the field, or null when the field is not present
+     */
+    public byte[] get(short tag) {
+        final int i = find(tag);
+        return i < 0 ? null : Arrays.copyOfRange(array, starts[i], ends[i]);
+    }
+
+    public Optional<byte[]> field(short tag) {
+        return Optional.ofNullable(get(tag));
+    }
+
+    /**
+     * @return the value read from the field without copying it, or empty when the field is not present
+     */
+    public <R> Optional<R> field(short tag, Reader<R> reader) {
+        final int i = find(tag);
+        return i < 0 ? Optional.empty() : Optional.ofNullable(reader.read(array, starts[i], ends[i] - starts[i]));
+    }
+
+    public String getString(short tag) {
+        return field(tag, EncodedView::toString).orElse(null);
+    }
+
+    public InstantWithoutNanos getInstant(short tag) {
+        return field(tag, EncodedView::toInstant).orElse(null);
+    }
+
+    /**
+     * Reads a field written with {@link Coders#toBytes(java.util.Collection, java.util.function.Function)},
+     * the elements are read from the original array.
+     */
+    public <R> Optional<List<R>> list(short tag, Reader<R> reader) {
+        return field(tag, (a, offset, length) -> {
+            final ByteBuffer bb = ByteBuffer.wrap(a, offset, length);
+            final int size = bb.getInt();
+            final List<R> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                final int elementLength = bb.getInt();
+                if (elementLength >= 0) {
+                    list.add(reader.read(a, bb.position(), elementLength));
+                    bb.position(bb.position() + elementLength);
+                } else {
+                    list.add(null);
+                }
+            }
+            return list;
+        });
+    }
+
+    public static String toString(byte[] array, int offset, int length) {
+        return new String(array, offset, length, StandardCharsets.UTF_8);
+    }
+
+    public static InstantWithoutNanos toInstant(byte[] array, int offset, int length) {
+        return InstantWithoutNanos.ofEpochMilli(ByteBuffer.wrap(array, offset, length).getLong());
+    }
+}
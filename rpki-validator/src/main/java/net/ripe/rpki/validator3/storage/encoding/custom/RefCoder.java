@@ -34,7 +34,6 @@ import net.ripe.rpki.validator3.storage.data.Ref;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
 
 import java.io.Serializable;
-import java.util.Map;
 
 public class RefCoder<T extends Serializable> implements Coder<Ref<T>> {
 
@@ -49,7 +48,12 @@ public class RefCoder<T extends Serializable> implements Coder<Ref<T>> {
     }
 
     public Ref<T> fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+        return fromBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public Ref<T> fromBytes(byte[] bytes, int offset, int length) {
+        final EncodedView content = EncodedView.of(bytes, offset, length);
         return Ref.unsafe(
                 Coders.toString(content.get(TABLE_NAME_TAG)),
                 Key.of(content.get(KEY_TAG)));
@@ -32,7 +32,6 @@ package net.ripe.rpki.validator3.storage.encoding.custom;
 import net.ripe.rpki.validator3.storage.data.RpkiObject;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
 
-import java.util.Map;
 
 public class RpkiObjectCoder implements Coder<RpkiObject> {
 
@@ -46,6 +45,28 @@ public class RpkiObjectCoder implements Coder<RpkiObject> {
     private final static short LOCATIONS_TAG = Tags.unique(38);
     private final static short ROA_PREFIXES = Tags.unique(39);
 
+    private final boolean withEncoded;
+
+    public RpkiObjectCoder() {
+        this(true);
+    }
+
+    private RpkiObjectCoder(boolean withEncoded) {
+        this.withEncoded = withEncoded;
+    }
+
+    /**
+     * Coder for the metadata of an object only, the encoded object is stored separately. Values written before
+     * the encoded objects were stored separately still contain it and it is decoded as well.
+     */
+    public static RpkiObjectCoder metadataOnly() {
+        return new RpkiObjectCoder(false);
+    }
+
+    public static boolean hasEncoded(byte[] bytes) {
+        return EncodedView.of(bytes).has(ENCODED_TAG);
+    }
+
     @Override
     public byte[] toBytes(RpkiObject rpkiObject) {
         final Encoded encoded = new Encoded();
@@ -56,7 +77,9 @@ public class RpkiObjectCoder implements Coder<RpkiObject> {
         encoded.append(SHA256_TAG, rpkiObject.getSha256());
         encoded.append(AKI_TAG, rpkiObject.getAuthorityKeyIdentifier());
         encoded.appendNotNull(SERIAL_TAG, rpkiObject.getSerialNumber(), Coders::toBytes);
-        encoded.appendNotNull(ENCODED_TAG, rpkiObject.getEncoded());
+        if (withEncoded) {
+            encoded.appendNotNull(ENCODED_TAG, rpkiObject.getEncoded());
+        }
         encoded.appendNotNull(SIGNING_TIME_TAG, rpkiObject.getSigningTime(), Coders::toBytes);
 
         return encoded.toByteArray();
@@ -64,17 +87,22 @@ public class RpkiObjectCoder implements Coder<RpkiObject> {
 
     @Override
     public RpkiObject fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+        return fromBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public RpkiObject fromBytes(byte[] bytes, int offset, int length) {
+        final EncodedView content = EncodedView.of(bytes, offset, length);
 
         final RpkiObject rpkiObject = new RpkiObject();
         BaseCoder.fromBytesNoId(content, rpkiObject);
 
-        rpkiObject.setType(RpkiObject.Type.valueOf(Coders.toString(content.get(TYPE_TAG))));
+        rpkiObject.setType(RpkiObject.Type.valueOf(content.getString(TYPE_TAG)));
         rpkiObject.setSha256(content.get(SHA256_TAG));
         rpkiObject.setEncoded(content.get(ENCODED_TAG));
         rpkiObject.setAuthorityKeyIdentifier(content.get(AKI_TAG));
-        Encoded.field(content, SIGNING_TIME_TAG).ifPresent(b -> rpkiObject.setSigningTime(Coders.toInstant(b)));
-        Encoded.field(content, SERIAL_TAG).ifPresent(b -> rpkiObject.setSerialNumber(Coders.toBigInteger(b)));
+        rpkiObject.setSigningTime(content.getInstant(SIGNING_TIME_TAG));
+        content.field(SERIAL_TAG).ifPresent(b -> rpkiObject.setSerialNumber(Coders.toBigInteger(b)));
 
         return rpkiObject;
     }
@@ -94,22 +94,27 @@ public class RpkiRepositoryCoder implements Coder<RpkiRepository> {
 
     @Override
     public RpkiRepository fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+        return fromBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public RpkiRepository fromBytes(byte[] bytes, int offset, int length) {
+        final EncodedView content = EncodedView.of(bytes, offset, length);
 
         final RpkiRepository rpkiRepository = new RpkiRepository();
         BaseCoder.fromBytes(content, rpkiRepository);
 
         rpkiRepository.setType(RpkiRepository.Type.valueOf(Coders.toString(content.get(TYPE_TAG))));
         rpkiRepository.setStatus(Coders.toString(content.get(STATUS_TAG)));
-        Encoded.field(content, RRDP_NOTIFY_URL_TAG).ifPresent(b -> rpkiRepository.setRrdpNotifyUri(Coders.toString(b)));
-        Encoded.field(content, RSYNC_URL_TAG).ifPresent(b -> rpkiRepository.setRsyncRepositoryUri(Coders.toString(b)));
-        Encoded.field(content, RRDP_SESSION).ifPresent(b -> rpkiRepository.setRrdpSessionId(Coders.toString(b)));
-        Encoded.field(content, RRDP_SERIAL).ifPresent(b -> rpkiRepository.setRrdpSerial(Coders.toBigInteger(b)));
-        Encoded.field(content, LAST_DOWNLOADED).ifPresent(b -> rpkiRepository.setLastDownloadedAt(Coders.toInstant(b)));
+        content.field(RRDP_NOTIFY_URL_TAG).ifPresent(b -> rpkiRepository.setRrdpNotifyUri(Coders.toString(b)));
+        content.field(RSYNC_URL_TAG).ifPresent(b -> rpkiRepository.setRsyncRepositoryUri(Coders.toString(b)));
+        content.field(RRDP_SESSION).ifPresent(b -> rpkiRepository.setRrdpSessionId(Coders.toString(b)));
+        content.field(RRDP_SERIAL).ifPresent(b -> rpkiRepository.setRrdpSerial(Coders.toBigInteger(b)));
+        content.field(LAST_DOWNLOADED).ifPresent(b -> rpkiRepository.setLastDownloadedAt(Coders.toInstant(b)));
 
-        Encoded.field(content, TRUST_ANCHORS_KEYS).ifPresent(b -> {
+        content.field(TRUST_ANCHORS_KEYS).ifPresent(b -> {
             final List<Ref<TrustAnchor>> objects = Coders.fromBytes(b, taRefCoder::fromBytes);
-            List<InstantWithoutNanos> lastReferencedAt = Encoded.field(content, TRUST_ANCHORS_VALUES).map(bs -> Coders.fromBytes(bs, Coders::toInstant)).orElse(Collections.emptyList());
+            List<InstantWithoutNanos> lastReferencedAt = content.field(TRUST_ANCHORS_VALUES).map(bs -> Coders.fromBytes(bs, Coders::toInstant)).orElse(Collections.emptyList());
             Map<Ref<TrustAnchor>, InstantWithoutNanos> trustAnchors = new HashMap<>();
             if (objects.size() == lastReferencedAt.size()) {
                 for (int i = 0; i < objects.size(); ++i) {
@@ -32,9 +32,7 @@ package net.ripe.rpki.validator3.storage.encoding.custom;
 import net.ripe.rpki.validator3.storage.data.TrustAnchor;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
 
-import java.util.Map;
 
-import static net.ripe.rpki.validator3.storage.encoding.custom.Encoded.field;
 
 public class TrustAnchorCoder implements Coder<TrustAnchor> {
 
@@ -69,20 +67,25 @@ public class TrustAnchorCoder implements Coder<TrustAnchor> {
 
     @Override
     public TrustAnchor fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+        return fromBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public TrustAnchor fromBytes(byte[] bytes, int offset, int length) {
+        final EncodedView content = EncodedView.of(bytes, offset, length);
 
         final TrustAnchor trustAnchor = new TrustAnchor();
         BaseCoder.fromBytes(content, trustAnchor);
 
         trustAnchor.setName(Coders.toString(content.get(NAME_TAG)));
-        field(content, ENCODED_CERT_TAG).ifPresent(trustAnchor::setEncodedCertificate);
-        field(content, SPKI_SERIAL).ifPresent(b -> trustAnchor.setSubjectPublicKeyInfo(Coders.toString(b)));
-        field(content, RSYNC_PREFETCH_TAG).ifPresent(b -> trustAnchor.setRsyncPrefetchUri(Coders.toString(b)));
-        field(content, PRECONFIGURED_TAG).ifPresent(b -> trustAnchor.setPreconfigured(Coders.toBoolean(b)));
-        field(content, INITIAL_VALIDATION_DONE_TAG).ifPresent(b ->
+        content.field(ENCODED_CERT_TAG).ifPresent(trustAnchor::setEncodedCertificate);
+        content.field(SPKI_SERIAL).ifPresent(b -> trustAnchor.setSubjectPublicKeyInfo(Coders.toString(b)));
+        content.field(RSYNC_PREFETCH_TAG).ifPresent(b -> trustAnchor.setRsyncPrefetchUri(Coders.toString(b)));
+        content.field(PRECONFIGURED_TAG).ifPresent(b -> trustAnchor.setPreconfigured(Coders.toBoolean(b)));
+        content.field(INITIAL_VALIDATION_DONE_TAG).ifPresent(b ->
                 trustAnchor.setInitialCertificateTreeValidationRunCompleted(Coders.toBoolean(b)));
 
-        field(content, LOCATIONS_TAG).ifPresent(b ->
+        content.field(LOCATIONS_TAG).ifPresent(b ->
                 trustAnchor.setLocations(Coders.fromBytes(b, Coders::toString)));
 
         return trustAnchor;
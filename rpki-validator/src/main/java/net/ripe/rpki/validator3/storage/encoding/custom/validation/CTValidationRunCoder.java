@@ -34,10 +34,10 @@ import net.ripe.rpki.validator3.storage.data.TrustAnchor;
 import net.ripe.rpki.validator3.storage.data.validation.CertificateTreeValidationRun;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
 import net.ripe.rpki.validator3.storage.encoding.custom.Encoded;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedView;
 import net.ripe.rpki.validator3.storage.encoding.custom.RefCoder;
 import net.ripe.rpki.validator3.storage.encoding.custom.Tags;
 
-import java.util.Map;
 
 public class CTValidationRunCoder implements Coder<CertificateTreeValidationRun> {
 
@@ -55,7 +55,12 @@ public class CTValidationRunCoder implements Coder<CertificateTreeValidationRun>
 
     @Override
     public CertificateTreeValidationRun fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+        return fromBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public CertificateTreeValidationRun fromBytes(byte[] bytes, int offset, int length) {
+        final EncodedView content = EncodedView.of(bytes, offset, length);
         final Ref<TrustAnchor> trustAnchorRef = taRefCoder.fromBytes(content.get(TA_TAG));
         final CertificateTreeValidationRun validationRun = new CertificateTreeValidationRun(trustAnchorRef);
         ValidationRunCoder.fromBytes(content, validationRun);
@@ -34,10 +34,10 @@ import net.ripe.rpki.validator3.storage.data.RpkiRepository;
 import net.ripe.rpki.validator3.storage.data.validation.RrdpRepositoryValidationRun;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
 import net.ripe.rpki.validator3.storage.encoding.custom.Encoded;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedView;
 import net.ripe.rpki.validator3.storage.encoding.custom.RefCoder;
 import net.ripe.rpki.validator3.storage.encoding.custom.Tags;
 
-import java.util.Map;
 
 public class RRValidationRunCoder implements Coder<RrdpRepositoryValidationRun> {
 
@@ -55,7 +55,12 @@ public class RRValidationRunCoder implements Coder<RrdpRepositoryValidationRun>
 
     @Override
     public RrdpRepositoryValidationRun fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+        return fromBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public RrdpRepositoryValidationRun fromBytes(byte[] bytes, int offset, int length) {
+        final EncodedView content = EncodedView.of(bytes, offset, length);
         final Ref<RpkiRepository> repoRef = repoRefCoder.fromBytes(content.get(REPO_TAG));
         final RrdpRepositoryValidationRun validationRun = new RrdpRepositoryValidationRun(repoRef);
         ValidationRunCoder.fromBytes(content, validationRun);
@@ -32,8 +32,8 @@ package net.ripe.rpki.validator3.storage.encoding.custom.validation;
 import net.ripe.rpki.validator3.storage.data.validation.RsyncRepositoryValidationRun;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
 import net.ripe.rpki.validator3.storage.encoding.custom.Encoded;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedView;
 
-import java.util.Map;
 
 public class RSValidationRunCoder implements Coder<RsyncRepositoryValidationRun> {
 
@@ -46,7 +46,12 @@ public class RSValidationRunCoder implements Coder<RsyncRepositoryValidationRun>
 
     @Override
     public RsyncRepositoryValidationRun fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+        return fromBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public RsyncRepositoryValidationRun fromBytes(byte[] bytes, int offset, int length) {
+        final EncodedView content = EncodedView.of(bytes, offset, length);
         final RsyncRepositoryValidationRun validationRun = new RsyncRepositoryValidationRun();
         ValidationRunCoder.fromBytes(content, validationRun);
         return validationRun;
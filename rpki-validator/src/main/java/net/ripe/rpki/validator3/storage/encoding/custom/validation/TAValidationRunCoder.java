@@ -35,10 +35,10 @@ import net.ripe.rpki.validator3.storage.data.validation.TrustAnchorValidationRun
 import net.ripe.rpki.validator3.storage.encoding.Coder;
 import net.ripe.rpki.validator3.storage.encoding.custom.Coders;
 import net.ripe.rpki.validator3.storage.encoding.custom.Encoded;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedView;
 import net.ripe.rpki.validator3.storage.encoding.custom.RefCoder;
 import net.ripe.rpki.validator3.storage.encoding.custom.Tags;
 
-import java.util.Map;
 
 public class TAValidationRunCoder implements Coder<TrustAnchorValidationRun> {
 
@@ -58,7 +58,12 @@ public class TAValidationRunCoder implements Coder<TrustAnchorValidationRun> {
 
     @Override
     public TrustAnchorValidationRun fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+        return fromBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public TrustAnchorValidationRun fromBytes(byte[] bytes, int offset, int length) {
+        final EncodedView content = EncodedView.of(bytes, offset, length);
         final Ref<TrustAnchor> trustAnchorRef = taRefCoder.fromBytes(content.get(TA_TAG));
         final String uri = Coders.toString(content.get(URI_TAG));
         final TrustAnchorValidationRun validationRun = new TrustAnchorValidationRun(trustAnchorRef, uri);
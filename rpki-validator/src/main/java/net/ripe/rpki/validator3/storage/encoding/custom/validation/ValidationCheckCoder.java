@@ -34,11 +34,11 @@ import net.ripe.rpki.validator3.storage.encoding.Coder;
 import net.ripe.rpki.validator3.storage.encoding.custom.BaseCoder;
 import net.ripe.rpki.validator3.storage.encoding.custom.Coders;
 import net.ripe.rpki.validator3.storage.encoding.custom.Encoded;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedView;
 import net.ripe.rpki.validator3.storage.encoding.custom.Tags;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 public class ValidationCheckCoder implements Coder<ValidationCheck> {
 
@@ -64,19 +64,21 @@ public class ValidationCheckCoder implements Coder<ValidationCheck> {
 
     @Override
     public ValidationCheck fromBytes(byte[] bytes) {
-        Map<Short, byte[]> content = Encoded.fromByteArray(bytes).getContent();
+        return fromView(EncodedView.of(bytes));
+    }
 
-        byte[] location = content.get(LOCATION_TAG);
-        byte[] key = content.get(KEY_TAG);
-        byte[] status = content.get(STATUS_TAG);
+    @Override
+    public ValidationCheck fromBytes(byte[] bytes, int offset, int length) {
+        return fromView(EncodedView.of(bytes, offset, length));
+    }
 
-        final List<String> strings = Encoded.field(content, PARAMETERS_TAG).map(b ->
-                Coders.fromBytes(b, Coders::toString)).orElse(Collections.emptyList());
+    ValidationCheck fromView(EncodedView content) {
+        final List<String> strings = content.list(PARAMETERS_TAG, EncodedView::toString).orElse(Collections.emptyList());
 
         final ValidationCheck validationCheck = new ValidationCheck(
-                location == null ? null : Coders.toString(location),
-                ValidationCheck.Status.valueOf(Coders.toString(status)),
-                key == null ? null : Coders.toString(key),
+                content.getString(LOCATION_TAG),
+                ValidationCheck.Status.valueOf(content.getString(STATUS_TAG)),
+                content.getString(KEY_TAG),
                 strings.toArray(new String[0])
         );
         BaseCoder.fromBytes(content, validationCheck);
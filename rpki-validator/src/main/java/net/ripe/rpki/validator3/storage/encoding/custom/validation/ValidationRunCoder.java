@@ -33,9 +33,9 @@ import net.ripe.rpki.validator3.storage.data.validation.ValidationRun;
 import net.ripe.rpki.validator3.storage.encoding.custom.BaseCoder;
 import net.ripe.rpki.validator3.storage.encoding.custom.Coders;
 import net.ripe.rpki.validator3.storage.encoding.custom.Encoded;
+import net.ripe.rpki.validator3.storage.encoding.custom.EncodedView;
 import net.ripe.rpki.validator3.storage.encoding.custom.Tags;
 
-import java.util.Map;
 
 public class ValidationRunCoder {
 
@@ -55,13 +55,13 @@ public class ValidationRunCoder {
         }
     }
 
-    public static void fromBytes(Map<Short, byte[]> content, ValidationRun validationRun) {
+    public static void fromBytes(EncodedView content, ValidationRun validationRun) {
         BaseCoder.fromBytes(content, validationRun);
 
-        Encoded.field(content, STATUS_TAG).ifPresent(b -> validationRun.setStatus(Coders.toString(b)));
-        Encoded.field(content, COMPLETED_AT_TAG).ifPresent(b -> validationRun.setCompletedAt(Coders.toInstant(b)));
-        Encoded.field(content, VALIDATION_CHECKS_TAG).ifPresent(b ->
-                validationRun.setValidationChecks(Coders.fromBytes(b, vcCoder::fromBytes)));
+        content.field(STATUS_TAG, EncodedView::toString).ifPresent(validationRun::setStatus);
+        content.field(COMPLETED_AT_TAG, EncodedView::toInstant).ifPresent(validationRun::setCompletedAt);
+        content.list(VALIDATION_CHECKS_TAG, (array, offset, length) -> vcCoder.fromView(EncodedView.of(array, offset, length)))
+                .ifPresent(validationRun::setValidationChecks);
     }
 
 }
@@ -36,11 +36,17 @@ import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.data.RpkiObject;
 
 import java.util.*;
+import java.util.function.LongConsumer;
 import java.util.stream.Stream;
 
 public interface RpkiObjects extends GenericStore<RpkiObject> {
     Optional<RpkiObject> get(Tx.Read tx, Key key);
 
+    /**
+     * The objects with the given keys that exist, looked up in storage order.
+     */
+    List<RpkiObject> getAll(Tx.Read tx, Collection<Key> keys);
+
     void put(Tx.Write tx, RpkiObject rpkiObject);
 
     void put(Tx.Write tx, RpkiObject rpkiObject, String location);
@@ -59,10 +65,17 @@ public interface RpkiObjects extends GenericStore<RpkiObject> {
 
     Optional<RpkiObject> findLatestMftByAKI(Tx.Read tx, byte[] authorityKeyIdentifier);
 
-    long deleteUnreachableObjects(InstantWithoutNanos unreachableSince);
+    /**
+     * Deletes the objects that have not been reachable since the given time, in chunks. The number of objects
+     * that remain to be deleted is passed to progress before the first and after every chunk.
+     */
+    long deleteUnreachableObjects(InstantWithoutNanos unreachableSince, LongConsumer progress);
 
     Map<String, RpkiObject> findObjectsInManifest(Tx.Read tx, ManifestCms manifestCms);
 
+    /**
+     * Encoded objects of the type, read lazily. The stream must be consumed before the transaction ends.
+     */
     Stream<byte[]> streamObjects(Tx.Read tx, RpkiObject.Type type);
 
     Set<Key> getPkByType(Tx.Read tx, RpkiObject.Type type);
@@ -30,8 +30,15 @@
 package net.ripe.rpki.validator3.storage.stores;
 
 import net.ripe.rpki.validator3.storage.Tx;
+import net.ripe.rpki.validator3.storage.data.Key;
+
+import java.util.Optional;
 
 public interface Settings extends GenericStore<String> {
     void markInitialValidationRunCompleted(Tx.Write tx);
     boolean isInitialValidationRunCompleted(Tx.Read tx);
+    void markEncodedObjectsMoved(Tx.Write tx);
+    boolean areEncodedObjectsMoved(Tx.Read tx);
+    void setEncodedObjectsMovedUpTo(Tx.Write tx, Key upTo);
+    Optional<Key> getEncodedObjectsMovedUpTo(Tx.Read tx);
 }
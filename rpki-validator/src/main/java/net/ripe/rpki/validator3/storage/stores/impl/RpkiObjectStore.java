@@ -42,15 +42,23 @@ import net.ripe.rpki.validator3.storage.Tx;
 import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.data.RpkiObject;
 import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
+import net.ripe.rpki.validator3.storage.encoding.custom.RpkiObjectCoder;
 import net.ripe.rpki.validator3.storage.stores.GenericStoreImpl;
 import net.ripe.rpki.validator3.storage.stores.RpkiObjects;
+import net.ripe.rpki.validator3.storage.stores.Settings;
 import net.ripe.rpki.validator3.util.Bench;
+import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -59,6 +67,8 @@ import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -67,15 +77,42 @@ import java.util.stream.Stream;
 public class RpkiObjectStore extends GenericStoreImpl<RpkiObject> implements RpkiObjects {
 
     private static final String RPKI_OBJECTS = "rpki-objects";
+    private static final String ENCODED_MAP = "rpki-objects-encoded";
     private static final String REACHABLE_MAP = "rpki-objects-reachable";
     private static final String LOCATION_MAP = "rpki-objects-location";
     private static final String BY_AKI_MFT_INDEX = "by-aki-mft";
     private static final String BY_TYPE_INDEX = "by-type";
+    private static final String BY_REACHABLE_AT_INDEX = "by-reachable-at";
 
+    private static final int WRITE_CHUNK_SIZE = 1000;
+
+    /**
+     * Every validation run marks all objects it reaches, but the reachable time of an object is only rewritten
+     * once it is older than its refresh interval, so most runs only read the reachable times. Every rewrite
+     * costs a put in the reachable map, a delete and an insert in its reachable time index and an update of the
+     * index keys of the entry.
+     *
+     * The refresh interval is a seventh of the cleanup grace period (a day by default), so an object that is
+     * reached in every run is never close to being cleaned up. Every object gets a fixed interval between half
+     * and all of it, derived from its key. Objects that were all marked in the same run therefore come up for
+     * a rewrite in different runs, instead of all of them at once.
+     */
+    private static final int REACHABLE_REFRESH_PER_GRACE_PERIOD = 7;
+
+    /**
+     * Only the metadata of the objects is stored in ixMap, the encoded objects (up to {@link RpkiObject#MAX_SIZE})
+     * are stored in encodedMap. The primary key is the SHA-256 of the encoded object, so the encoded objects are
+     * content-addressed and lookups by index or reindexing never read them.
+     */
     private final IxMap<RpkiObject> ixMap;
+    private final IxMap<byte[]> encodedMap;
     private final IxMap<Long> reachableMap;
     private final MultIxMap<String> locationMap;
     private final Storage storage;
+    private final long reachableRefreshMillis;
+
+    private final CompletableFuture<Void> encodedMoved = new CompletableFuture<>();
+    private final Settings settings;
 
     private Set<Key> akiMftKey(RpkiObject rpkiObject) {
         byte[] authorityKeyIdentifier = rpkiObject.getAuthorityKeyIdentifier();
@@ -89,30 +126,134 @@ public class RpkiObjectStore extends GenericStoreImpl<RpkiObject> implements Rpk
     }
 
     @Autowired
-    public RpkiObjectStore(Storage storage) {
+    public RpkiObjectStore(Storage storage,
+                           Settings settings,
+                           @Value("${rpki.validator.rpki.object.cleanup.grace.duration}") String cleanupGraceDuration) {
         this.storage = storage;
+        this.reachableRefreshMillis = Math.max(2, Duration.parse(cleanupGraceDuration).toMillis() / REACHABLE_REFRESH_PER_GRACE_PERIOD);
+        this.settings = settings;
         this.ixMap = storage.createIxMap(
                 RPKI_OBJECTS,
                 ImmutableMap.of(
                         BY_AKI_MFT_INDEX, this::akiMftKey,
                         BY_TYPE_INDEX, this::typeKey),
-                CoderFactory.makeCoder(RpkiObject.class));
+                RpkiObjectCoder.metadataOnly());
+        this.encodedMap = storage.createIxMap(ENCODED_MAP, ImmutableMap.of(), CoderFactory.bytesCoder());
 
-        this.reachableMap = storage.createIxMap(REACHABLE_MAP, ImmutableMap.of(), CoderFactory.longCoder());
+        // Epoch milliseconds are positive, so the big-endian index keys are ordered by time
+        this.reachableMap = storage.createIxMap(
+                REACHABLE_MAP,
+                ImmutableMap.of(BY_REACHABLE_AT_INDEX, reachableAt -> Key.keys(Key.of(reachableAt))),
+                CoderFactory.longCoder());
         this.locationMap = storage.createMultIxMap(LOCATION_MAP, CoderFactory.stringCoder());
 
         ixMap.onDelete((tx, k) -> {
+            encodedMap.delete(tx, k);
             reachableMap.delete(tx, k);
             locationMap.delete(tx, k);
         });
+
+        if (!storage.readTx(settings::areEncodedObjectsMoved)) {
+            storage.runInBackground(this::moveEncodedToSeparateMap);
+        } else {
+            encodedMoved.complete(null);
+        }
+    }
+
+    /**
+     * Objects stored before the encoded objects were stored separately contain them in the metadata. They are moved
+     * to the encoded map in chunks on the background thread of the storage, with the progress kept in the settings,
+     * so a restart continues after the last chunk. Until then the metadata coder decodes the encoded objects still
+     * stored in the metadata, which are used when reading the objects.
+     */
+    private void moveEncodedToSeparateMap() {
+        try {
+            Optional<Key> movedUpTo = storage.readTx(settings::getEncodedObjectsMovedUpTo);
+            long moved = 0;
+            while (true) {
+                final Optional<Key> from = movedUpTo;
+                final Pair<Optional<Key>, Integer> chunk = storage.writeTx(tx -> moveEncodedChunk(tx, from));
+                moved += chunk.getRight();
+                if (!chunk.getLeft().isPresent()) {
+                    break;
+                }
+                movedUpTo = chunk.getLeft();
+            }
+            log.info("Moved {} encoded objects out of the object metadata", moved);
+            encodedMoved.complete(null);
+        } catch (Exception e) {
+            log.error("Moving the encoded objects out of the object metadata failed, it is continued on the next start", e);
+            encodedMoved.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Moves the encoded objects of the next chunk of objects after the given primary key and saves the progress,
+     * returns the last primary key that is done, or empty when all of them are, and the number of objects moved.
+     */
+    private Pair<Optional<Key>, Integer> moveEncodedChunk(Tx.Write tx, Optional<Key> from) {
+        final List<Pair<Key, RpkiObject>> objects;
+        try (Stream<Pair<Key, RpkiObject>> all = from.isPresent() ? ixMap.streamAllAfter(tx, from.get()) : ixMap.streamAll(tx)) {
+            objects = all.limit(WRITE_CHUNK_SIZE).collect(Collectors.toList());
+        }
+        int moved = 0;
+        for (Pair<Key, RpkiObject> p : objects) {
+            final RpkiObject o = p.getRight();
+            if (o.getEncoded() != null) {
+                if (!encodedMap.exists(tx, p.getLeft())) {
+                    encodedMap.put(tx, p.getLeft(), o.getEncoded());
+                }
+                // the metadata coder leaves out the encoded object
+                ixMap.put(tx, p.getLeft(), o);
+                moved++;
+            }
+        }
+        if (objects.size() < WRITE_CHUNK_SIZE) {
+            settings.markEncodedObjectsMoved(tx);
+            return Pair.of(Optional.empty(), moved);
+        }
+        final Key upTo = objects.get(objects.size() - 1).getLeft();
+        settings.setEncodedObjectsMovedUpTo(tx, upTo);
+        return Pair.of(Optional.of(upTo), moved);
+    }
+
+    /**
+     * Completes when the encoded objects of all objects are stored in the encoded map.
+     */
+    CompletableFuture<Void> encodedMoved() {
+        return encodedMoved;
+    }
+
+    /**
+     * Sets the encoded objects of the metadata read from ixMap.
+     */
+    private void withEncoded(Tx.Read tx, Map<Key, RpkiObject> objects) {
+        final List<Key> keys = objects.entrySet().stream()
+                .filter(e -> e.getValue().getEncoded() == null)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+        encodedMap.getAll(tx, keys).forEach((pk, encoded) -> objects.get(pk).setEncoded(encoded));
+    }
+
+    private Optional<RpkiObject> withEncoded(Tx.Read tx, Optional<RpkiObject> object) {
+        object.filter(o -> o.getEncoded() == null)
+                .ifPresent(o -> encodedMap.get(tx, o.key()).ifPresent(o::setEncoded));
+        return object;
     }
 
     @Override
     public void put(Tx.Write tx, RpkiObject o) {
         ixMap.put(tx, o.key(), o);
+        if (!encodedMap.exists(tx, o.key())) {
+            encodedMap.put(tx, o.key(), o.getEncoded());
+        }
         // mark every object as reachable at the moment of inserting, otherwise
         // we will keep the objects that have never been reached forever
-        markReachable(tx, o.key(), o.getCreatedAt());
+        final long createdAt = o.getCreatedAt().toEpochMilli();
+        final Optional<Long> reachableAt = reachableMap.get(tx, o.key());
+        if (!reachableAt.isPresent() || reachableAt.get() <= createdAt - reachableRefreshMillis(o.key())) {
+            reachableMap.put(tx, o.key(), createdAt);
+        }
     }
 
     @Override
@@ -150,7 +291,30 @@ public class RpkiObjectStore extends GenericStoreImpl<RpkiObject> implements Rpk
 
     @Override
     public Optional<RpkiObject> get(Tx.Read tx, Key key) {
-        return ixMap.get(tx, key);
+        return withEncoded(tx, ixMap.get(tx, key));
+    }
+
+    @Override
+    public List<RpkiObject> getAll(Tx.Read tx, Collection<Key> keys) {
+        final Map<Key, RpkiObject> objects = ixMap.getAll(tx, keys);
+        withEncoded(tx, objects);
+        return new ArrayList<>(objects.values());
+    }
+
+    @Override
+    public List<RpkiObject> values(Tx.Read tx) {
+        final Map<Key, RpkiObject> objects = new LinkedHashMap<>();
+        try (Stream<Pair<Key, RpkiObject>> all = ixMap.streamAll(tx)) {
+            all.forEach(p -> objects.put(p.getLeft(), p.getRight()));
+        }
+        withEncoded(tx, objects);
+        return new ArrayList<>(objects.values());
+    }
+
+    @Override
+    public void clear(Tx.Write tx) {
+        ixMap.clear(tx);
+        encodedMap.clear(tx);
     }
 
     @Override
@@ -160,40 +324,40 @@ public class RpkiObjectStore extends GenericStoreImpl<RpkiObject> implements Rpk
 
     @Override
     public Optional<RpkiObject> findLatestMftByAKI(Tx.Read tx, byte[] authorityKeyIdentifier) {
-        return ixMap.getByIndex(BY_AKI_MFT_INDEX, tx, Key.of(authorityKeyIdentifier))
+        // Only the metadata of the candidates is read, the encoded object of the latest one only
+        return withEncoded(tx, ixMap.getByIndex(BY_AKI_MFT_INDEX, tx, Key.of(authorityKeyIdentifier))
             .values()
             .stream()
             .max(Comparator.comparing(RpkiObject::getSigningTime)
-                .thenComparing(RpkiObject::getSerialNumber));
+                .thenComparing(RpkiObject::getSerialNumber)));
     }
 
     @Override
-    public long deleteUnreachableObjects(InstantWithoutNanos unreachableSince) {
-        final List<Key> toDelete = new ArrayList<>();
-        storage.readTx0(tx ->
-                reachableMap.forEach(tx, (k, bytes) -> {
-                    if (reachableMap.toValue(bytes) < unreachableSince.toEpochMilli()) {
-                        // do not do ixMap.delete(tx, k) right here -- it will cause onDelete
-                        // trigger and deletion of pair at the current cursor position, which is
-                        // potentially a problem
-                        toDelete.add(k);
-                    }
-                }));
+    public long deleteUnreachableObjects(InstantWithoutNanos unreachableSince, LongConsumer progress) {
+        // Only the expired part of the reachable time index is read. Do not delete while
+        // reading, deleting triggers onDelete, which deletes from the index under the cursor.
+        final List<Key> toDelete = storage.readTx(tx -> {
+            try (Stream<Key> expired = reachableMap.streamPkByIndexLessThan(BY_REACHABLE_AT_INDEX, tx, Key.of(unreachableSince.toEpochMilli()))) {
+                return expired.collect(Collectors.toList());
+            }
+        });
+        progress.accept(toDelete.size());
         // Divide the list to smaller chunks to avoid very long writing transaction
-        Lists.partition(toDelete, 1000).forEach(chunk ->
-            storage.writeTx0(tx ->
-                chunk.forEach(pk -> ixMap.delete(tx, pk))));
-        return (long) toDelete.size();
+        long deleted = 0;
+        for (List<Key> chunk : Lists.partition(toDelete, WRITE_CHUNK_SIZE)) {
+            storage.writeTx0(tx -> chunk.forEach(pk -> ixMap.delete(tx, pk)));
+            deleted += chunk.size();
+            progress.accept(toDelete.size() - deleted);
+        }
+        return deleted;
     }
 
     @Override
     public Map<String, RpkiObject> findObjectsInManifest(Tx.Read tx, ManifestCms manifestCms) {
         final SortedMap<byte[], String> hashes = new TreeMap<>(UnsignedBytes.lexicographicalComparator());
         manifestCms.getFiles().forEach((name, hash) -> hashes.put(hash, name));
-        return hashes.keySet().stream()
-                .map(sha256 -> findBySha256(tx, sha256))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
+        final List<Key> keys = hashes.keySet().stream().map(Key::of).collect(Collectors.toList());
+        return Bench.mark("findObjectsInManifest", () -> getAll(tx, keys)).stream()
                 .collect(Collectors.toMap(
                         x -> hashes.get(x.getSha256()),
                         x -> x
@@ -202,11 +366,15 @@ public class RpkiObjectStore extends GenericStoreImpl<RpkiObject> implements Rpk
 
     @Override
     public Stream<byte[]> streamObjects(Tx.Read tx, RpkiObject.Type type) {
-        final List<byte[]> objectBytes = new ArrayList<>();
-        getPkByType(tx, type).forEach(pk ->
-                ixMap.get(tx, pk).ifPresent(ro ->
-                        objectBytes.add(ro.getEncoded())));
-        return objectBytes.stream();
+        // The primary keys of an index entry are sorted, so the objects are read in storage order
+        return ixMap.streamPkByIndex(BY_TYPE_INDEX, tx, Key.of(type.toString()))
+                .map(pk -> {
+                    final Optional<byte[]> encoded = encodedMap.get(tx, pk);
+                    // objects that are not moved yet still contain the encoded object
+                    return encoded.isPresent() ? encoded : ixMap.get(tx, pk).map(RpkiObject::getEncoded);
+                })
+                .filter(Optional::isPresent)
+                .map(Optional::get);
     }
 
     @Override
@@ -216,8 +384,21 @@ public class RpkiObjectStore extends GenericStoreImpl<RpkiObject> implements Rpk
 
     @Override
     public void markReachable(Tx.Write tx, List<Key> rpkiObjectsKeys) {
-        final InstantWithoutNanos now = InstantWithoutNanos.now();
-        rpkiObjectsKeys.forEach(pk -> markReachable(tx, pk, now));
+        final long now = InstantWithoutNanos.now().toEpochMilli();
+        final Set<Key> recentlyReachable = new HashSet<>();
+        reachableMap.getAllRaw(tx, rpkiObjectsKeys, (pk, bytes) -> {
+            if (reachableMap.toValue(bytes) > now - reachableRefreshMillis(pk)) {
+                recentlyReachable.add(pk);
+            }
+        });
+        rpkiObjectsKeys.stream()
+                .filter(pk -> !recentlyReachable.contains(pk))
+                .forEach(pk -> reachableMap.put(tx, pk, now));
+    }
+
+    long reachableRefreshMillis(Key pk) {
+        final long half = reachableRefreshMillis / 2;
+        return reachableRefreshMillis - Math.floorMod((long) pk.hashCode(), half);
     }
 
     @Override
@@ -37,13 +37,18 @@ import net.ripe.rpki.validator3.storage.encoding.StringCoder;
 import net.ripe.rpki.validator3.storage.Storage;
 import net.ripe.rpki.validator3.storage.stores.GenericStoreImpl;
 import net.ripe.rpki.validator3.storage.stores.Settings;
+import net.ripe.rpki.validator3.util.Hex;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Optional;
+
 @Component
 public class SettingsStore extends GenericStoreImpl<String> implements Settings {
 
     private static final String INITIAL_VALIDATION_RUN_COMPLETED = "internal.initial.validation.run.completed";
+    private static final String ENCODED_OBJECTS_MOVED = "internal.rpki.objects.encoded.moved";
+    private static final String ENCODED_OBJECTS_MOVED_UP_TO = "internal.rpki.objects.encoded.moved.up.to";
     private static final String SETTINGS = "settings";
 
     private final IxMap<String> ixMap;
@@ -60,15 +65,35 @@ public class SettingsStore extends GenericStoreImpl<String> implements Settings
 
     @Override
     public boolean isInitialValidationRunCompleted(Tx.Read tx) {
-        return isTrue(tx);
+        return isTrue(tx, INITIAL_VALIDATION_RUN_COMPLETED);
+    }
+
+    @Override
+    public void markEncodedObjectsMoved(Tx.Write tx) {
+        setTrue(tx, ENCODED_OBJECTS_MOVED);
+    }
+
+    @Override
+    public boolean areEncodedObjectsMoved(Tx.Read tx) {
+        return isTrue(tx, ENCODED_OBJECTS_MOVED);
+    }
+
+    @Override
+    public void setEncodedObjectsMovedUpTo(Tx.Write tx, Key upTo) {
+        ixMap.put(tx, Key.of(ENCODED_OBJECTS_MOVED_UP_TO), Hex.format(upTo.getBytes()));
+    }
+
+    @Override
+    public Optional<Key> getEncodedObjectsMovedUpTo(Tx.Read tx) {
+        return ixMap.get(tx, Key.of(ENCODED_OBJECTS_MOVED_UP_TO)).map(hex -> Key.of(Hex.parse(hex)));
     }
 
     public void setTrue(Tx.Write tx, String preconfiguredTalSettingsKey) {
         ixMap.put(tx, Key.of(preconfiguredTalSettingsKey), "true");
     }
 
-    private boolean isTrue(Tx.Read tx) {
-        return ixMap.get(tx, Key.of(SettingsStore.INITIAL_VALIDATION_RUN_COMPLETED)).filter("true"::equals).isPresent();
+    private boolean isTrue(Tx.Read tx, String key) {
+        return ixMap.get(tx, Key.of(key)).filter("true"::equals).isPresent();
     }
 
     @Override
@@ -0,0 +1,80 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.xodus;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * When the checksums of stored values are verified on read. The scrubber job verifies all values regardless.
+ */
+public abstract class ChecksumVerification {
+
+    public static final ChecksumVerification ALWAYS = new ChecksumVerification() {
+        @Override
+        boolean onRead() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "always";
+        }
+    };
+
+    public static ChecksumVerification sampled(int oneIn) {
+        if (oneIn < 1) {
+            throw new IllegalArgumentException("Sample rate must be at least 1, got " + oneIn);
+        }
+        return new ChecksumVerification() {
+            @Override
+            boolean onRead() {
+                return ThreadLocalRandom.current().nextInt(oneIn) == 0;
+            }
+
+            @Override
+            public String toString() {
+                return "sampled (1 in " + oneIn + ")";
+            }
+        };
+    }
+
+    public static ChecksumVerification of(String mode, int sampleOneIn) {
+        switch (mode) {
+            case "always":
+                return ALWAYS;
+            case "sampled":
+                return sampled(sampleOneIn);
+            default:
+                throw new IllegalArgumentException("Unknown checksum verification '" + mode + "', expected 'always' or 'sampled'");
+        }
+    }
+
+    abstract boolean onRead();
+}
@@ -0,0 +1,126 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.xodus;
+
+import io.micrometer.core.instrument.Timer;
+import jetbrains.exodus.env.Cursor;
+import jetbrains.exodus.env.Store;
+import jetbrains.exodus.env.Transaction;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterates over a store with a cursor that is only opened when the first element is requested and closed when
+ * the last one has been read (or when the stream is closed). Elements are read from the cursor one at a time,
+ * so the iteration must be finished before the transaction ends.
+ */
+class CursorIterator<R> implements Iterator<R>, AutoCloseable {
+    private final Store store;
+    private final Transaction txn;
+    private final Predicate<Cursor> first;
+    private final Predicate<Cursor> next;
+    private final Function<Cursor, R> read;
+    private final Timer timer;
+
+    private Cursor cursor;
+    private boolean positioned;
+    private boolean advanced;
+    private boolean closed;
+    private long openedAt;
+
+    /**
+     * @param first positions the cursor on the first element, returns false when there is none
+     * @param next  moves the cursor to the next element, returns false when there are no more elements
+     * @param read  reads the element the cursor is positioned on
+     * @param timer records the time from opening to closing the cursor
+     */
+    CursorIterator(Store store, Transaction txn, Predicate<Cursor> first, Predicate<Cursor> next, Function<Cursor, R> read, Timer timer) {
+        this.store = store;
+        this.txn = txn;
+        this.first = first;
+        this.next = next;
+        this.read = read;
+        this.timer = timer;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (!advanced) {
+            if (cursor == null) {
+                openedAt = System.nanoTime();
+                cursor = store.openCursor(txn);
+                positioned = first.test(cursor);
+            } else {
+                positioned = next.test(cursor);
+            }
+            advanced = true;
+            if (!positioned) {
+                close();
+            }
+        }
+        return positioned;
+    }
+
+    @Override
+    public R next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        advanced = false;
+        return read.apply(cursor);
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            if (cursor != null) {
+                cursor.close();
+                timer.record(System.nanoTime() - openedAt, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    Stream<R> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+}
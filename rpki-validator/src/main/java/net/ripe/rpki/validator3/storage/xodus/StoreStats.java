@@ -0,0 +1,127 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.xodus;
+
+import jetbrains.exodus.ByteIterable;
+import jetbrains.exodus.env.Cursor;
+import jetbrains.exodus.env.Environment;
+import jetbrains.exodus.env.Store;
+import jetbrains.exodus.env.Transaction;
+import net.ripe.rpki.validator3.storage.IxBase;
+import net.ripe.rpki.validator3.storage.Tx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Number of entries and bytes of keys and values of a store, without walking the store every time.
+ *
+ * The changes of a write transaction are collected by the transaction and added while it still holds the write
+ * lock. The size of the store when the sizes are first asked for is counted with a cursor on a snapshot taken
+ * while holding the write lock, so it is known which of the changes it already contains.
+ */
+final class StoreStats {
+    private final Environment env;
+    private final Store store;
+
+    private final AtomicLong countChange = new AtomicLong();
+    private final AtomicLong bytesChange = new AtomicLong();
+    private volatile Baseline baseline;
+
+    StoreStats(Environment env, Store store) {
+        this.env = env;
+        this.store = store;
+    }
+
+    String getName() {
+        return store.getName();
+    }
+
+    static void record(Tx.Write tx, StoreStats stats, long count, long bytes) {
+        ((XodusTx.Write) tx).recordChange(stats, count, bytes);
+    }
+
+    static long entryBytes(ByteIterable key, ByteIterable value) {
+        return key.getLength() + value.getLength();
+    }
+
+    void apply(long count, long bytes) {
+        countChange.addAndGet(count);
+        bytesChange.addAndGet(bytes);
+    }
+
+    IxBase.Sizes sizes() {
+        Baseline b = baseline;
+        if (b == null) {
+            synchronized (this) {
+                if (baseline == null) {
+                    baseline = count();
+                }
+                b = baseline;
+            }
+        }
+        return new IxBase.Sizes(
+                (int) (b.count + countChange.get() - b.countChange),
+                b.bytes + bytesChange.get() - b.bytesChange);
+    }
+
+    private Baseline count() {
+        final Transaction snapshot;
+        final long countChangeAtSnapshot;
+        final long bytesChangeAtSnapshot;
+        // Beginning an exclusive transaction waits for the running write transaction to finish
+        final Transaction exclusive = env.beginExclusiveTransaction();
+        try {
+            snapshot = exclusive.getReadonlySnapshot();
+            countChangeAtSnapshot = countChange.get();
+            bytesChangeAtSnapshot = bytesChange.get();
+        } finally {
+            exclusive.abort();
+        }
+        long count = 0;
+        long bytes = 0;
+        try (Cursor c = store.openCursor(snapshot)) {
+            while (c.getNext()) {
+                count++;
+                bytes += entryBytes(c.getKey(), c.getValue());
+            }
+        } finally {
+            snapshot.abort();
+        }
+        return new Baseline(count, bytes, countChangeAtSnapshot, bytesChangeAtSnapshot);
+    }
+
+    @lombok.Value
+    private static class Baseline {
+        long count;
+        long bytes;
+        long countChange;
+        long bytesChange;
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.xodus;
+
+import com.google.common.hash.Hashing;
+
+import java.lang.reflect.Constructor;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Checksums stored in front of every value.
+ *
+ * Values are stored as a format version byte, the CRC32C of the value as an int and the value. Values written
+ * by earlier versions are stored as the CRC32 of the value as a long and the value. The CRC32 is less
+ * than 2^32, so the first byte of these is always 0.
+ */
+final class ValueChecksums {
+
+    private static final byte LEGACY_CRC32_VERSION = 0;
+    private static final byte CRC32C_VERSION = 1;
+
+    private static final int LEGACY_HEADER_SIZE = Long.BYTES;
+    private static final int HEADER_SIZE = 1 + Integer.BYTES;
+
+    private static final Crc32c CRC32C = jdkCrc32c();
+
+    @FunctionalInterface
+    private interface Crc32c {
+        int compute(byte[] bytes, int offset, int length);
+    }
+
+    private ValueChecksums() {
+    }
+
+    static byte[] withChecksum(byte[] value) {
+        final byte[] stored = new byte[HEADER_SIZE + value.length];
+        stored[0] = CRC32C_VERSION;
+        putInt(stored, 1, CRC32C.compute(value, 0, value.length));
+        System.arraycopy(value, 0, stored, HEADER_SIZE, value.length);
+        return stored;
+    }
+
+    /**
+     * The format used before the CRC32C, only needed to find values written by earlier versions.
+     */
+    static byte[] withLegacyChecksum(byte[] value) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(value);
+        final byte[] stored = new byte[LEGACY_HEADER_SIZE + value.length];
+        putInt(stored, 4, (int) crc32.getValue());
+        System.arraycopy(value, 0, stored, LEGACY_HEADER_SIZE, value.length);
+        return stored;
+    }
+
+    static int valueOffset(byte[] stored) {
+        return stored[0] == CRC32C_VERSION ? HEADER_SIZE : LEGACY_HEADER_SIZE;
+    }
+
+    static boolean verify(byte[] stored, int length) {
+        switch (stored[0]) {
+            case CRC32C_VERSION:
+                return length >= HEADER_SIZE &&
+                        getInt(stored, 1) == CRC32C.compute(stored, HEADER_SIZE, length - HEADER_SIZE);
+            case LEGACY_CRC32_VERSION:
+                if (length < LEGACY_HEADER_SIZE || getInt(stored, 0) != 0) {
+                    return false;
+                }
+                final CRC32 crc32 = new CRC32();
+                crc32.update(stored, LEGACY_HEADER_SIZE, length - LEGACY_HEADER_SIZE);
+                return getInt(stored, 4) == (int) crc32.getValue();
+            default:
+                return false;
+        }
+    }
+
+    static int crc32c(byte[] bytes, int offset, int length) {
+        return CRC32C.compute(bytes, offset, length);
+    }
+
+    /**
+     * java.util.zip.CRC32C is an intrinsic since Java 9, but the validator still runs on Java 8, where the
+     * (much slower) Guava implementation is used. Both compute the same checksum.
+     */
+    private static Crc32c jdkCrc32c() {
+        final Constructor<? extends Checksum> constructor;
+        try {
+            constructor = Class.forName("java.util.zip.CRC32C").asSubclass(Checksum.class).getConstructor();
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return (bytes, offset, length) -> Hashing.crc32c().hashBytes(bytes, offset, length).asInt();
+        }
+        final ThreadLocal<Checksum> checksums = ThreadLocal.withInitial(() -> {
+            try {
+                return constructor.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        return (bytes, offset, length) -> {
+            final Checksum checksum = checksums.get();
+            checksum.reset();
+            checksum.update(bytes, offset, length);
+            return (int) checksum.getValue();
+        };
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int getInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 |
+                (bytes[offset + 1] & 0xff) << 16 |
+                (bytes[offset + 2] & 0xff) << 8 |
+                (bytes[offset + 3] & 0xff);
+    }
+}
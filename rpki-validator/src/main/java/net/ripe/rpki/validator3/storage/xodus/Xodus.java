@@ -30,13 +30,18 @@
 package net.ripe.rpki.validator3.storage.xodus;
 
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import jetbrains.exodus.ArrayByteIterable;
 import jetbrains.exodus.ByteIterable;
 import jetbrains.exodus.env.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.storage.*;
 import net.ripe.rpki.validator3.storage.data.Key;
@@ -44,13 +49,15 @@ import net.ripe.rpki.validator3.storage.encoding.Coder;
 import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
 import net.ripe.rpki.validator3.storage.Storage;
 import net.ripe.rpki.validator3.util.ForkJoin;
-import org.apache.commons.lang3.tuple.Pair;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.Serializable;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -76,21 +83,58 @@ public abstract class Xodus implements Storage {
 
     protected abstract Environment getEnv();
 
+    /**
+     * Applies to the maps created after it is set.
+     */
+    @Getter
+    private MeterRegistry meterRegistry = Metrics.globalRegistry;
+    private Timer readTxTimer = transactionTimer(meterRegistry, "read");
+    private Timer writeTxTimer = transactionTimer(meterRegistry, "write");
+
+    protected void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.readTxTimer = transactionTimer(meterRegistry, "read");
+        this.writeTxTimer = transactionTimer(meterRegistry, "write");
+    }
+
+    private static Timer transactionTimer(MeterRegistry registry, String type) {
+        return Timer.builder("rpkivalidator.storage.transaction.duration")
+                .description("Duration of storage transactions")
+                .tag("type", type)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+    }
+
     public <T> T writeTx(Function<Tx.Write, T> f) {
         AtomicReference<List<Runnable>> afterCommitHooks = new AtomicReference<>(Collections.emptyList());
+        AtomicReference<XodusTx.Write> committing = new AtomicReference<>();
 
         Environment env = getEnv();
-        T result = ForkJoin.blocking(() -> env.computeInExclusiveTransaction(txn -> {
-            XodusTx.Write tx = XodusTx.fromRWNative(env, txn);
-            txs.put(tx.getId(), new TxInfo(tx));
-            try {
-                T innerResult = f.apply(tx);
-                afterCommitHooks.set(tx.getAfterCommitHooks());
-                return innerResult;
-            } finally {
-                txs.remove(tx.getId());
+        final long start = System.nanoTime();
+        final T result;
+        try {
+            result = ForkJoin.blocking(() -> env.computeInExclusiveTransaction(txn -> {
+                XodusTx.Write tx = XodusTx.fromRWNative(env, txn);
+                txs.put(tx.getId(), new TxInfo(tx));
+                try {
+                    T innerResult = f.apply(tx);
+                    afterCommitHooks.set(tx.getAfterCommitHooks());
+                    // Applied while the transaction still holds the write lock, see StoreStats
+                    tx.applyStatsChanges();
+                    committing.set(tx);
+                    return innerResult;
+                } finally {
+                    txs.remove(tx.getId());
+                }
+            }));
+        } catch (RuntimeException e) {
+            if (committing.get() != null) {
+                committing.get().revertStatsChanges();
             }
-        }));
+            throw e;
+        } finally {
+            writeTxTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
 
         for (Runnable r: afterCommitHooks.get()) {
             try {
@@ -113,15 +157,20 @@ public abstract class Xodus implements Storage {
 
     public <T> T readTx(Function<Tx.Read, T> f) {
         Environment env = getEnv();
-        return env.computeInReadonlyTransaction(txn -> {
-            XodusTx.Read tx = XodusTx.fromRONative(env, txn);
-            txs.put(tx.getId(), new TxInfo(tx));
-            try {
-                return f.apply(tx);
-            } finally {
-                txs.remove(tx.getId());
-            }
-        });
+        final long start = System.nanoTime();
+        try {
+            return env.computeInReadonlyTransaction(txn -> {
+                XodusTx.Read tx = XodusTx.fromRONative(env, txn);
+                txs.put(tx.getId(), new TxInfo(tx));
+                try {
+                    return f.apply(tx);
+                } finally {
+                    txs.remove(tx.getId());
+                }
+            });
+        } finally {
+            readTxTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
     }
 
     public void readTx0(Consumer<Tx.Read> c) {
@@ -131,6 +180,22 @@ public abstract class Xodus implements Storage {
         });
     }
 
+    @Override
+    public Tx.Snapshot readSnapshot() {
+        Environment env = getEnv();
+        final long start = System.nanoTime();
+        // The snapshot transaction keeps its version of the database alive, until the snapshot is closed
+        final XodusTx.Read snapshotTx = XodusTx.fromRONative(env, env.beginReadonlyTransaction());
+        txs.put(snapshotTx.getId(), new TxInfo(snapshotTx));
+        return new XodusTx.Snapshot(env, snapshotTx.txn,
+                tx -> txs.put(tx.getId(), new TxInfo(tx)),
+                tx -> txs.remove(tx.getId()),
+                () -> {
+                    txs.remove(snapshotTx.getId());
+                    readTxTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                });
+    }
+
     static void checkEnv(Environment env) {
         if (!env.isOpen()) {
             throw new XodusClosedException();
@@ -150,11 +215,38 @@ public abstract class Xodus implements Storage {
         getEnv().gc();
     }
 
+    @Override
+    public long verifyChecksums() {
+        long corrupted = 0;
+        for (String name : new TreeSet<>(ixMaps.keySet())) {
+            final XodusIxBase<?> ixMap = (XodusIxBase<?>) ixMaps.get(name);
+            // A transaction per map, to not keep a single read transaction open for too long
+            final long[] corruptedInMap = new long[1];
+            final long verified = readTx(tx -> ixMap.verifyChecksums(tx, key -> {
+                log.error("Value for the key {} in {} is corrupted", key, name);
+                corruptedInMap[0]++;
+            }));
+            log.debug("Verified {} values in {}, {} corrupted", verified, name, corruptedInMap[0]);
+            corrupted += corruptedInMap[0];
+        }
+        return corrupted;
+    }
+
     @Getter
     private final Map<Long, TxInfo> txs = new ConcurrentHashMap<>();
 
     private final Map<String, IxBase<?>> ixMaps = new ConcurrentHashMap<>();
 
+    private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("xodus-background-%d").setDaemon(true).build());
+
+    /**
+     * Applies to the maps created after it is set.
+     */
+    @Getter
+    @Setter
+    private ChecksumVerification checksumVerification = ChecksumVerification.ALWAYS;
+
     public <T extends Serializable> IxMap<T> createIxMap(String name,
                                                          Map<String, Function<T, Set<Key>>> indexFunctions,
                                                          Class<T> c) {
@@ -184,72 +276,151 @@ public abstract class Xodus implements Storage {
         // don't go into infinite recursion when creating IxMap for meta and do it manually
         final IxMapInfo mapInfo = new IxMapInfo();
         mapInfo.setName(dbName);
-        saveDbMeta(mapInfo);
+        getEnv().executeInTransaction(txn -> saveDbMeta(txn, mapInfo));
         return store;
     }
 
-    private void saveDbMeta(IxMapInfo mapInfo) {
-        final Key key = dbMetaKey(mapInfo.getName());
-        final ByteIterable foo = new ArrayByteIterable(gson.toJson(mapInfo).getBytes(UTF_8));
-        getEnv().executeInTransaction(tx -> meta().put(tx, key.toByteIterable(), foo));
-    }
-
     private Key dbMetaKey(String dbName) {
         return Key.of(dbName + "-key");
     }
 
-    <T extends Serializable> Pair<Map<String, Store>, Boolean> createIndexes(
-            String name,
-            Map<String, Function<T, Set<Key>>> indexFunctions,
-            StoreConfig storeConfigs) {
+    /**
+     * Opens the index stores of a map and the store that keeps the index keys of every value, so that indexes can
+     * be updated without decoding the previous value.
+     *
+     * When the index definitions changed the indexes have to be rebuilt. The stores are emptied and the map is
+     * marked as reindexing in the meta store, with the progress of the rebuild. When only the index keys store does
+     * not exist yet, the indexes are kept and only the index keys are stored, again with the progress in the meta
+     * store. A rebuild or backfill that was interrupted is continued.
+     */
+    Indexes createIndexes(String name,
+                          Set<String> indexNames,
+                          StoreConfig indexConfig,
+                          StoreConfig indexKeysConfig) {
+        return getEnv().computeInTransaction(txn -> {
+            IxMapInfo mapInfo = readDbMeta(txn, name);
+            final String indexKeysDbName = indexKeysDbName(name);
+            final boolean reindex;
+            final boolean resume;
+            final boolean backfill;
+            if (mapInfo == null) {
+                mapInfo = new IxMapInfo();
+                mapInfo.setName(name);
+                mapInfo.setIndexes(indexNames);
+                reindex = false;
+                resume = false;
+                backfill = false;
+            } else if (mapInfo.getIndexes() == null) {
+                mapInfo.setIndexes(indexNames);
+                reindex = false;
+                resume = false;
+                backfill = false;
+            } else if (mapInfo.getIndexes().equals(indexNames)) {
+                resume = mapInfo.getReindexedUpTo() != null;
+                reindex = resume;
+                // Maps created before the index keys were stored next to the values keep their indexes, only the
+                // index keys are added
+                backfill = !reindex && !indexNames.isEmpty() &&
+                        (mapInfo.getIndexKeysBackfilledUpTo() != null || !getEnv().storeExists(indexKeysDbName, txn));
+            } else {
+                reindex = !indexNames.isEmpty();
+                resume = false;
+                backfill = false;
+            }
 
-        final Store meta = meta();
-        Xodus.IxMapInfo existingIxMapInfo = getEnv().computeInReadonlyTransaction(txn -> {
-            ByteIterable byteIterable = meta.get(txn, dbMetaKey(name).toByteIterable());
-            if (byteIterable == null) {
-                return null;
+            if (reindex && !resume) {
+                log.info("Rebuilding the indexes {} of {}", indexNames, name);
             }
-            String json = new String(Bytes.toBytes(byteIterable), UTF_8);
-            return gson.fromJson(json, Xodus.IxMapInfo.class);
+            if (backfill && mapInfo.getIndexKeysBackfilledUpTo() == null) {
+                log.info("Storing the index keys of {}", name);
+                mapInfo.setIndexKeysBackfilledUpTo("");
+            } else if (!backfill) {
+                mapInfo.setIndexKeysBackfilledUpTo(null);
+            }
+            if (!resume) {
+                final Set<String> toEmpty = reindex ? mapInfo.getIndexes() : Sets.difference(mapInfo.getIndexes(), indexNames);
+                for (String idx : toEmpty) {
+                    emptyStore(txn, idxStoreName(name, idx), indexNames.contains(idx));
+                }
+                if (reindex || indexNames.isEmpty()) {
+                    emptyStore(txn, indexKeysDbName, reindex);
+                }
+                mapInfo.setIndexes(indexNames);
+                mapInfo.setReindexedUpTo(reindex ? "" : null);
+            }
+            saveDbMeta(txn, mapInfo);
+
+            final Map<String, Store> indexes = new HashMap<>();
+            for (String idx : indexNames) {
+                indexes.put(idx, getEnv().openStore(idxStoreName(name, idx), indexConfig, txn));
+            }
+            final Store indexKeysDb = indexNames.isEmpty() ? null : getEnv().openStore(indexKeysDbName, indexKeysConfig, txn);
+            final ByteIterable reindexedUpTo = reindex ?
+                    new ArrayByteIterable(Base64.getDecoder().decode(mapInfo.getReindexedUpTo())) :
+                    null;
+            final ByteIterable indexKeysBackfilledUpTo = backfill ?
+                    new ArrayByteIterable(Base64.getDecoder().decode(mapInfo.getIndexKeysBackfilledUpTo())) :
+                    null;
+            return new Indexes(indexes, indexKeysDb, reindexedUpTo, indexKeysBackfilledUpTo);
         });
+    }
 
-        final Map<String, Store> indexes = new HashMap<>();
-        boolean reindex = false;
-        if (existingIxMapInfo != null) {
-            final Set<String> existingIndexes = existingIxMapInfo.getIndexes();
-            if (existingIndexes != null) {
-                if (!existingIndexes.equals(indexFunctions.keySet())) {
-                    Sets.difference(existingIndexes, indexFunctions.keySet()).forEach(idx -> {
-                        getEnv().executeInTransaction(txn -> {
-                                    String idxStoreName = idxStoreName(name, idx);
-                                    if (getEnv().storeExists(idxStoreName, txn)) {
-                                        getEnv().removeStore(idxStoreName, txn);
-                                    }
-                                }
-                        );
-                    });
-                    existingIxMapInfo.setIndexes(indexFunctions.keySet());
-                    saveDbMeta(existingIxMapInfo);
-                    reindex = true;
-                }
+    /**
+     * Whether the indexes of the map are being rebuilt, as seen by the transaction.
+     */
+    boolean isReindexing(Transaction txn, String name) {
+        final IxMapInfo mapInfo = readDbMeta(txn, name);
+        return mapInfo != null && mapInfo.getReindexedUpTo() != null;
+    }
+
+    /**
+     * Saves the last primary key that is indexed, null when all of them are.
+     */
+    void saveReindexProgress(Transaction txn, String name, ByteIterable reindexedUpTo) {
+        final IxMapInfo mapInfo = readDbMeta(txn, name);
+        mapInfo.setReindexedUpTo(reindexedUpTo == null ? null : Base64.getEncoder().encodeToString(Bytes.toBytes(reindexedUpTo)));
+        saveDbMeta(txn, mapInfo);
+    }
+
+    /**
+     * Saves the last primary key of which the index keys are stored, null when they are for all of them.
+     */
+    void saveIndexKeysBackfillProgress(Transaction txn, String name, ByteIterable backfilledUpTo) {
+        final IxMapInfo mapInfo = readDbMeta(txn, name);
+        mapInfo.setIndexKeysBackfilledUpTo(backfilledUpTo == null ? null : Base64.getEncoder().encodeToString(Bytes.toBytes(backfilledUpTo)));
+        saveDbMeta(txn, mapInfo);
+    }
+
+    @Override
+    public void runInBackground(Runnable r) {
+        backgroundExecutor.execute(r);
+    }
+
+    private IxMapInfo readDbMeta(Transaction txn, String name) {
+        final ByteIterable byteIterable = meta().get(txn, dbMetaKey(name).toByteIterable());
+        if (byteIterable == null) {
+            return null;
+        }
+        return gson.fromJson(new String(Bytes.toBytes(byteIterable), UTF_8), IxMapInfo.class);
+    }
+
+    private void saveDbMeta(Transaction txn, IxMapInfo mapInfo) {
+        meta().put(txn, dbMetaKey(mapInfo.getName()).toByteIterable(),
+                new ArrayByteIterable(gson.toJson(mapInfo).getBytes(UTF_8)));
+    }
+
+    private void emptyStore(Transaction txn, String storeName, boolean keep) {
+        if (getEnv().storeExists(storeName, txn)) {
+            if (keep) {
+                getEnv().truncateStore(storeName, txn);
             } else {
-                existingIxMapInfo.setIndexes(indexFunctions.keySet());
-                saveDbMeta(existingIxMapInfo);
+                getEnv().removeStore(storeName, txn);
             }
-        } else {
-            Xodus.IxMapInfo mapInfo = new Xodus.IxMapInfo();
-            mapInfo.setName(name);
-            mapInfo.setIndexes(indexFunctions.keySet());
-            saveDbMeta(mapInfo);
         }
-        getEnv().executeInTransaction(txn -> {
-            indexFunctions.forEach((n, idxFun) -> {
-                Store store = getEnv().openStore(idxStoreName(name, n), storeConfigs, txn);
-                indexes.put(n, store);
-            });
-        });
+    }
 
-        return Pair.of(indexes, reindex);
+    private String indexKeysDbName(String name) {
+        return name + "-index-keys";
     }
 
     private String idxStoreName(String name, String idx) {
@@ -262,15 +433,21 @@ public abstract class Xodus implements Storage {
     private class IxMapStat {
         private String name;
         private IxBase.Sizes sizes;
+        private Map<String, XodusIxBase.Latency> latencies;
     }
 
     public Stat getStat() {
         return readTx(tx -> {
             final List<IxMapStat> ixMapStats = ixMaps.entrySet().stream()
                     .sorted(Comparator.comparing(Map.Entry::getKey))
-                    .map(e -> new IxMapStat(e.getKey(), e.getValue().sizeInfo(tx)))
+                    .map(e -> {
+                        final XodusIxBase<?> ixMap = (XodusIxBase<?>) e.getValue();
+                        return new IxMapStat(e.getKey(), ixMap.sizeInfo(tx), ixMap.getLatencies());
+                    })
                     .collect(Collectors.toList());
-            return new Stat(getDbStats(), ixMapStats);
+            return new Stat(getDbStats(), ixMapStats,
+                    XodusIxBase.Latency.of(readTxTimer),
+                    XodusIxBase.Latency.of(writeTxTimer));
         });
     }
 
@@ -289,6 +466,32 @@ public abstract class Xodus implements Storage {
     private static class IxMapInfo {
         private String name;
         private Set<String> indexes;
+        /**
+         * Set while the indexes are rebuilt, the Base64 of the last primary key that is indexed.
+         */
+        private String reindexedUpTo;
+        /**
+         * Set while the index keys of existing values are stored, the Base64 of the last primary key done.
+         */
+        private String indexKeysBackfilledUpTo;
+    }
+
+    @lombok.Value
+    static class Indexes {
+        Map<String, Store> stores;
+        /**
+         * Null when the map has no indexes.
+         */
+        Store indexKeysDb;
+        /**
+         * Null when the indexes are complete, otherwise the last primary key that is indexed (empty when none).
+         */
+        ByteIterable reindexedUpTo;
+        /**
+         * Null when the index keys of all values are stored, otherwise the last primary key of which they are
+         * (empty when none).
+         */
+        ByteIterable indexKeysBackfilledUpTo;
     }
 
     @Data
@@ -311,5 +514,7 @@ public abstract class Xodus implements Storage {
     public class Stat {
         Map<String, String> dbStats;
         List<IxMapStat> statistics;
+        XodusIxBase.Latency readTransactions;
+        XodusIxBase.Latency writeTransactions;
     }
 }
@@ -29,6 +29,7 @@
  */
 package net.ripe.rpki.validator3.storage.xodus;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import jetbrains.exodus.env.Environment;
 import jetbrains.exodus.env.EnvironmentConfig;
 import jetbrains.exodus.env.Environments;
@@ -53,8 +54,13 @@ public class XodusImpl extends Xodus {
 
     private Environment env;
 
-    public XodusImpl(@Value("${rpki.validator.data.path}") String path) {
+    public XodusImpl(@Value("${rpki.validator.data.path}") String path,
+                     @Value("${rpki.validator.storage.checksum-verification:always}") String checksumVerification,
+                     @Value("${rpki.validator.storage.checksum-verification-sample:100}") int checksumVerificationSample,
+                     MeterRegistry meterRegistry) {
         this.path = path;
+        setChecksumVerification(ChecksumVerification.of(checksumVerification, checksumVerificationSample));
+        setMeterRegistry(meterRegistry);
     }
 
     @PostConstruct
@@ -29,6 +29,9 @@
  */
 package net.ripe.rpki.validator3.storage.xodus;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jetbrains.exodus.ArrayByteIterable;
 import jetbrains.exodus.ByteIterable;
 import jetbrains.exodus.env.Cursor;
@@ -43,19 +46,22 @@ import net.ripe.rpki.validator3.storage.IxBase;
 import net.ripe.rpki.validator3.storage.Tx;
 import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.encoding.Coder;
+import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.Serializable;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
-import java.util.zip.CRC32;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public abstract class XodusIxBase<T extends Serializable> implements IxBase<T> {
 
@@ -65,16 +71,19 @@ public abstract class XodusIxBase<T extends Serializable> implements IxBase<T> {
 
     private final Store mainDb;
     final Coder<T> coder;
+    private final ChecksumVerification checksumVerification;
+
+    final MeterRegistry meterRegistry;
+    final StoreStats mainStats;
+    final Timer getTimer;
+    final Timer putTimer;
+    final Timer deleteTimer;
+    final Timer scanTimer;
 
     XodusIxBase(final Xodus xodus,
                 final String name,
                 final Coder<T> coder) {
-        this.env = xodus.getEnv();
-        this.name = name;
-        this.coder = coder;
-        synchronized (xodus) {
-            this.mainDb = xodus.createMainMapDb(name, getStoreConfig());
-        }
+        this(xodus, name, coder, null);
     }
 
     XodusIxBase(final Xodus xodus,
@@ -84,11 +93,64 @@ public abstract class XodusIxBase<T extends Serializable> implements IxBase<T> {
         this.env = xodus.getEnv();
         this.name = name;
         this.coder = coder;
+        this.checksumVerification = xodus.getChecksumVerification();
         synchronized (xodus) {
-            this.mainDb = xodus.createMainMapDb(name, storeConfig);
+            this.mainDb = xodus.createMainMapDb(name, storeConfig != null ? storeConfig : getStoreConfig());
+        }
+        this.meterRegistry = xodus.getMeterRegistry();
+        this.mainStats = new StoreStats(env, mainDb);
+        registerStoreGauges("main", mainStats);
+        this.getTimer = operationTimer("get");
+        this.putTimer = operationTimer("put");
+        this.deleteTimer = operationTimer("delete");
+        this.scanTimer = operationTimer("scan");
+    }
+
+    private Timer operationTimer(String operation) {
+        return Timer.builder("rpkivalidator.storage.operation.duration")
+                .description("Duration of storage operations, scans are timed from opening to closing the cursor")
+                .tag("map", name)
+                .tag("operation", operation)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    void registerStoreGauges(String store, StoreStats stats) {
+        Gauge.builder("rpkivalidator.storage.entries", stats, s -> gaugeValue(s, IxBase.Sizes::getCount))
+                .description("Number of entries in a store of a map")
+                .tag("map", name)
+                .tag("store", store)
+                .register(meterRegistry);
+        Gauge.builder("rpkivalidator.storage.bytes", stats, s -> gaugeValue(s, IxBase.Sizes::getKeysAndValuesBytes))
+                .description("Size of the keys and values in a store of a map")
+                .tag("map", name)
+                .tag("store", store)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    private static double gaugeValue(StoreStats stats, ToDoubleFunction<IxBase.Sizes> f) {
+        try {
+            return f.applyAsDouble(stats.sizes());
+        } catch (Exception e) {
+            // e.g. the environment is closed
+            return Double.NaN;
         }
     }
 
+    Map<String, Latency> getLatencies() {
+        final Map<String, Latency> latencies = new TreeMap<>();
+        latencies.put("get", Latency.of(getTimer));
+        latencies.put("put", Latency.of(putTimer));
+        latencies.put("delete", Latency.of(deleteTimer));
+        latencies.put("scan", Latency.of(scanTimer));
+        return latencies;
+    }
+
+    static void recordSince(Timer timer, long startNanos) {
+        timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
     protected abstract StoreConfig getStoreConfig();
 
     static void checkNotNull(Object v, String s) {
@@ -115,7 +177,12 @@ public abstract class XodusIxBase<T extends Serializable> implements IxBase<T> {
     }
 
     public boolean exists(Tx.Read tx, Key key) {
-        return getMainDb().get(castTxn(tx), key.toByteIterable()) != null;
+        final long start = System.nanoTime();
+        try {
+            return getMainDb().get(castTxn(tx), key.toByteIterable()) != null;
+        } finally {
+            recordSince(getTimer, start);
+        }
     }
 
     Store getMainDb() {
@@ -128,64 +195,110 @@ public abstract class XodusIxBase<T extends Serializable> implements IxBase<T> {
     }
 
     protected ByteIterable valueWithChecksum(T value) {
-        final byte[] valueBytes = coder.toBytes(value);
-        CRC32 checksum = new CRC32();
-        checksum.update(valueBytes);
-        byte[] stored = new byte[Long.BYTES + valueBytes.length];
-        ByteBuffer byteBuffer = ByteBuffer.wrap(stored);
-        byteBuffer.putLong(checksum.getValue());
-        byteBuffer.put(valueBytes);
-        byteBuffer.flip();
-        return new ArrayByteIterable(stored);
+        return new ArrayByteIterable(ValueChecksums.withChecksum(coder.toBytes(value)));
     }
 
     protected T getValue(Key k, byte[] b) {
-        ByteBuffer bb = ByteBuffer.wrap(b);
-        long crc32 = bb.getLong();
-        final byte[] valueBytes = Bytes.toBytes(bb);
-        CRC32 checksum = new CRC32();
-        checksum.update(valueBytes);
-        if (checksum.getValue() != crc32) {
+        return getValue(k, b, b.length);
+    }
+
+    /**
+     * Decodes the value straight from the buffer of the stored value, which is only valid until the cursor
+     * moves or the transaction ends.
+     */
+    protected T getValue(Key k, ByteIterable bi) {
+        return getValue(k, bi.getBytesUnsafe(), bi.getLength());
+    }
+
+    private T getValue(Key k, byte[] b, int length) {
+        if (checksumVerification.onRead() && !ValueChecksums.verify(b, length)) {
             throw new RuntimeException("Data for the key " + k + " is corrupted");
         }
-        return coder.fromBytes(valueBytes);
+        final int offset = ValueChecksums.valueOffset(b);
+        return coder.fromBytes(b, offset, length - offset);
+    }
+
+    /**
+     * Verifies the checksums of all values, passing the keys of the values that are corrupted.
+     */
+    public long verifyChecksums(Tx.Read tx, Consumer<Key> corrupted) {
+        long verified = 0;
+        try (Cursor c = getMainDb().openCursor(castTxn(tx))) {
+            while (c.getNext()) {
+                final ByteIterable value = c.getValue();
+                if (!ValueChecksums.verify(value.getBytesUnsafe(), value.getLength())) {
+                    corrupted.accept(new Key(c.getKey()));
+                }
+                verified++;
+            }
+        }
+        return verified;
     }
 
     public Set<Key> keys(Tx.Read tx) {
-        final Set<Key> result = new HashSet<>();
-        forEach(tx, (k, v) -> result.add(k));
-        return result;
+        try (Stream<Key> keys = streamKeys(tx)) {
+            return keys.collect(Collectors.toSet());
+        }
     }
 
     public List<T> values(Tx.Read tx) {
-        final List<T> result = new ArrayList<>();
-        forEach(tx, (k, v) -> result.add(getValue(k, v)));
-        return result;
+        try (Stream<T> values = streamValues(tx)) {
+            return values.collect(Collectors.toList());
+        }
     }
 
     public Map<Key, T> all(Tx.Read tx) {
         final Map<Key, T> result = new HashMap<>();
-        forEach(tx, (k, v) -> result.put(k, getValue(k, v)));
+        try (Stream<Pair<Key, T>> all = streamAll(tx)) {
+            all.forEach(p -> result.put(p.getLeft(), p.getRight()));
+        }
         return result;
     }
 
+    @Override
+    public Stream<Key> streamKeys(Tx.Read tx) {
+        return streamMainDb(tx, c -> new Key(c.getKey()));
+    }
+
+    @Override
+    public Stream<T> streamValues(Tx.Read tx) {
+        return streamMainDb(tx, c -> getValue(null, c.getValue()));
+    }
+
+    @Override
+    public Stream<Pair<Key, T>> streamAll(Tx.Read tx) {
+        return streamMainDb(tx, c -> {
+            final Key k = new Key(c.getKey());
+            return Pair.of(k, getValue(k, c.getValue()));
+        });
+    }
+
+    <R> Stream<R> streamMainDb(Tx.Read tx, Function<Cursor, R> read) {
+        return new CursorIterator<>(getMainDb(), castTxn(tx), Cursor::getNext, Cursor::getNext, read, scanTimer).stream();
+    }
+
     @Override
     public void clear(Tx.Write tx) {
         // TODO Probably reimplement it using something like
         // getMainDb().getEnvironment().truncateStore(getName(), castTxn(tx));
-        truncate(tx, getMainDb());
+        truncate(tx, getMainDb(), mainStats);
     }
 
-    protected static void truncate(Tx.Write tx, Store mainDb) {
-        try (Cursor c = mainDb.openCursor(castTxn(tx))) {
+    protected static void truncate(Tx.Write tx, Store store, StoreStats stats) {
+        long count = 0;
+        long bytes = 0;
+        try (Cursor c = store.openCursor(castTxn(tx))) {
             while (c.getNext()) {
+                count++;
+                bytes += StoreStats.entryBytes(c.getKey(), c.getValue());
                 c.deleteCurrent();
             }
         }
+        StoreStats.record(tx, stats, -count, -bytes);
     }
 
     public T toValue(ByteIterable bi) {
-        return getValue(null, Bytes.toBytes(bi));
+        return getValue(null, bi);
     }
 
     @Override
@@ -207,15 +320,23 @@ public abstract class XodusIxBase<T extends Serializable> implements IxBase<T> {
         return (Transaction) tx.txn();
     }
 
+    /**
+     * Sizes of the stores as of the last committed write transaction, the transaction is not used.
+     */
     @Override
     public Sizes sizeInfo(Tx.Read tx) {
-        AtomicInteger count = new AtomicInteger();
-        AtomicInteger size = new AtomicInteger();
-        forEach(tx, (k, v) -> {
-            count.getAndIncrement();
-            size.addAndGet(k.size() + v.length);
-        });
-        return new Sizes(count.get(), size.get());
+        return mainStats.sizes();
+    }
+
+    @lombok.Value
+    public static class Latency {
+        long count;
+        double meanMicros;
+        double maxMicros;
+
+        static Latency of(Timer timer) {
+            return new Latency(timer.count(), timer.mean(TimeUnit.MICROSECONDS), timer.max(TimeUnit.MICROSECONDS));
+        }
     }
 
 }
@@ -29,12 +29,15 @@
  */
 package net.ripe.rpki.validator3.storage.xodus;
 
+import com.google.common.primitives.UnsignedBytes;
+import jetbrains.exodus.ArrayByteIterable;
 import jetbrains.exodus.ByteIterable;
 import jetbrains.exodus.env.Cursor;
 import jetbrains.exodus.env.Store;
 import jetbrains.exodus.env.StoreConfig;
 import jetbrains.exodus.env.Transaction;
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.storage.Bytes;
 import net.ripe.rpki.validator3.storage.IxMap;
 import net.ripe.rpki.validator3.storage.Tx;
@@ -44,52 +47,316 @@ import net.ripe.rpki.validator3.storage.OnDeleteRestrictException;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  *
  * @param <T>
  */
+@Slf4j
 public class XodusIxMap<T extends Serializable> extends XodusIxBase<T> implements IxMap<T> {
 
+    private static final int REINDEX_CHUNK_SIZE = 1000;
+
+    private static final String INDEX_KEYS = "index-keys";
+
+    private static final Comparator<Key> KEY_ORDER = Comparator.comparing(Key::getBytes, UnsignedBytes.lexicographicalComparator());
+
     private final Map<String, Store> indexes;
     private final Map<String, Function<T, Set<Key>>> indexFunctions;
+    /**
+     * Index names in the order their keys are stored in the index keys store.
+     */
+    private final List<String> indexNames;
+    /**
+     * Maps every primary key to the index keys of its value, null when the map has no indexes.
+     */
+    private final Store indexKeysDb;
+    private final Map<String, StoreStats> indexStats = new HashMap<>();
+    private final StoreStats indexKeysStats;
     private final List<BiConsumer<Tx.Write, Key>> onDeleteTriggers = new ArrayList<>();
+    private final Xodus xodus;
+    /**
+     * Whether the indexes were rebuilt (or are being rebuilt) by this instance.
+     */
+    private final boolean rebuiltIndexes;
+    /**
+     * Log address from which transactions see the complete rebuilt indexes.
+     */
+    private volatile long reindexedAtHighAddress = Long.MAX_VALUE;
+    /**
+     * Whether the index keys of existing values are being stored, a value without them may have index entries.
+     */
+    private volatile boolean backfillingIndexKeys;
+    private final CompletableFuture<Void> reindexed = new CompletableFuture<>();
 
     public XodusIxMap(final Xodus xodus,
                       final String name,
                       final Coder<T> coder,
                       final Map<String, Function<T, Set<Key>>> indexFunctions) {
         super(xodus, name, coder);
+        this.xodus = xodus;
         this.indexFunctions = indexFunctions;
-        Pair<Map<String, Store>, Boolean> p = xodus.createIndexes(name, indexFunctions, StoreConfig.WITH_DUPLICATES_WITH_PREFIXING);
-        indexes = p.getLeft();
-        boolean reindex = p.getRight();
-        if (reindex) {
-            reindex();
-        }
-    }
-
-    private void reindex() {
-        this.env.executeInExclusiveTransaction(txn -> {
-            indexes.forEach((name, idx) -> env.truncateStore(idx.getName(), txn));
-            try (final Cursor ci = getMainDb().openCursor(txn)) {
-                while (ci.getNext()) {
-                    ByteIterable pk = ci.getKey();
-                    final T value = getValue(new Key(pk), Bytes.toBytes(ci.getValue()));
-                    indexFunctions.forEach((n, idxFun) -> {
-                        final Store idx = getIdx(n);
-                        idxFun.apply(value).forEach(ik -> idx.put(txn, ik.toByteIterable(), pk));
-                    });
+        indexNames = indexFunctions.keySet().stream().sorted().collect(Collectors.toList());
+        final Xodus.Indexes p = xodus.createIndexes(name, indexFunctions.keySet(),
+                StoreConfig.WITH_DUPLICATES_WITH_PREFIXING, StoreConfig.WITHOUT_DUPLICATES_WITH_PREFIXING);
+        indexes = p.getStores();
+        indexKeysDb = p.getIndexKeysDb();
+        indexes.forEach((indexName, index) -> {
+            final StoreStats stats = new StoreStats(env, index);
+            indexStats.put(indexName, stats);
+            registerStoreGauges(indexName, stats);
+        });
+        if (indexKeysDb != null) {
+            indexKeysStats = new StoreStats(env, indexKeysDb);
+            registerStoreGauges(INDEX_KEYS, indexKeysStats);
+        } else {
+            indexKeysStats = null;
+        }
+        rebuiltIndexes = p.getReindexedUpTo() != null;
+        backfillingIndexKeys = p.getIndexKeysBackfilledUpTo() != null;
+        if (rebuiltIndexes) {
+            final ByteIterable reindexedUpTo = p.getReindexedUpTo();
+            xodus.runInBackground(() -> reindex(reindexedUpTo));
+        } else if (backfillingIndexKeys) {
+            final ByteIterable backfilledUpTo = p.getIndexKeysBackfilledUpTo();
+            xodus.runInBackground(() -> backfillIndexKeys(backfilledUpTo));
+        } else {
+            reindexed.complete(null);
+        }
+    }
+
+    /**
+     * Rebuilds the indexes in chunks, starting after the given primary key. Writes in the meantime keep the
+     * indexes of their values up-to-date, queries by index scan the values until the rebuild is done.
+     */
+    private void reindex(ByteIterable reindexedUpTo) {
+        try {
+            final long count = inChunks(reindexedUpTo, false);
+            // Transactions that start from now on see the final chunk
+            reindexedAtHighAddress = env.computeInReadonlyTransaction(Transaction::getHighAddress);
+            log.info("Rebuilt the indexes of {} for {} values", getName(), count);
+            reindexed.complete(null);
+        } catch (Exception e) {
+            log.error("Rebuilding the indexes of {} failed, it is continued on the next start", getName(), e);
+            reindexed.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Stores the index keys of the values in chunks, starting after the given primary key. The indexes themselves
+     * are complete and used meanwhile, writes of values without index keys decode the previous value instead.
+     */
+    private void backfillIndexKeys(ByteIterable backfilledUpTo) {
+        try {
+            final long count = inChunks(backfilledUpTo, true);
+            backfillingIndexKeys = false;
+            log.info("Stored the index keys of {} for {} values", getName(), count);
+            reindexed.complete(null);
+        } catch (Exception e) {
+            log.error("Storing the index keys of {} failed, it is continued on the next start", getName(), e);
+            reindexed.completeExceptionally(e);
+        }
+    }
+
+    private long inChunks(ByteIterable doneUpTo, boolean indexKeysOnly) {
+        ByteIterable upTo = doneUpTo;
+        long count = 0;
+        while (upTo != null) {
+            final ByteIterable from = upTo;
+            final Pair<ByteIterable, Integer> chunk = env.computeInExclusiveTransaction(txn -> indexChunk(txn, from, indexKeysOnly));
+            upTo = chunk.getLeft();
+            count += chunk.getRight();
+        }
+        return count;
+    }
+
+    /**
+     * Indexes (or only stores the index keys of) the next chunk of values after the given primary key and saves
+     * the progress, returns the last primary key that is done, or null when all of them are, and the number of
+     * values done.
+     */
+    private Pair<ByteIterable, Integer> indexChunk(Transaction txn, ByteIterable from, boolean indexKeysOnly) {
+        final XodusTx.Write tx = XodusTx.fromRWNative(env, txn);
+        int count = 0;
+        ByteIterable last = from;
+        boolean hasNext;
+        try (final Cursor ci = getMainDb().openCursor(txn)) {
+            if (from.getLength() == 0) {
+                hasNext = ci.getNext();
+            } else {
+                // The key itself may have been deleted since the previous chunk
+                hasNext = ci.getSearchKeyRange(from) != null && (ci.getKey().compareTo(from) > 0 || ci.getNext());
+            }
+            while (hasNext && count < REINDEX_CHUNK_SIZE) {
+                final ByteIterable pk = new ArrayByteIterable(Bytes.toBytes(ci.getKey()));
+                if (!indexKeysOnly) {
+                    updateIndexes(tx, pk, indexKeys(getValue(new Key(pk), ci.getValue())), getIndexKeys(txn, pk, null));
+                } else if (indexKeysDb.get(txn, pk) == null) {
+                    // Values written since the backfill started have their index keys already
+                    putIndexKeys(tx, pk, indexKeys(getValue(new Key(pk), ci.getValue())), false);
                 }
+                last = pk;
+                count++;
+                hasNext = ci.getNext();
             }
-        });
+        }
+        final ByteIterable upTo = hasNext ? last : null;
+        if (indexKeysOnly) {
+            xodus.saveIndexKeysBackfillProgress(txn, getName(), upTo);
+        } else {
+            xodus.saveReindexProgress(txn, getName(), upTo);
+        }
+        tx.applyStatsChanges();
+        return Pair.of(upTo, count);
+    }
+
+    /**
+     * Completes when the indexes and the index keys of all values are complete.
+     */
+    CompletableFuture<Void> reindexed() {
+        return reindexed;
+    }
+
+    /**
+     * Indexes that were rebuilt in this process may be incomplete for the transaction, even if the rebuild has
+     * finished since it started. The meta store is only read for transactions that may have started before.
+     */
+    private boolean indexesComplete(Tx.Read tx) {
+        if (!rebuiltIndexes) {
+            return true;
+        }
+        final Transaction txn = castTxn(tx);
+        return txn.getHighAddress() >= reindexedAtHighAddress || !xodus.isReindexing(txn, getName());
+    }
+
+    /**
+     * The index entries in [start, stop) computed from the values, in the order of the index. Used instead of the
+     * index while it is rebuilt.
+     */
+    private List<Pair<Key, Key>> scanIndex(String indexName, Tx.Read tx, ByteIterable start, ByteIterable stop) {
+        final Function<T, Set<Key>> indexFunction = indexFunctions.get(indexName);
+        if (indexFunction == null) {
+            return Collections.emptyList();
+        }
+        final Predicate<ByteIterable> inRange = start != null && start.equals(stop) ?
+                start::equals :
+                ik -> (start == null || ik.compareTo(start) >= 0) && (stop == null || ik.compareTo(stop) < 0);
+        final List<Pair<Key, Key>> entries = new ArrayList<>();
+        try (Stream<Pair<Key, T>> all = streamAll(tx)) {
+            all.forEach(p -> indexFunction.apply(p.getRight()).stream()
+                    .filter(ik -> ik != null && inRange.test(ik.toByteIterable()))
+                    .forEach(ik -> entries.add(Pair.of(ik, p.getLeft()))));
+        }
+        entries.sort(Comparator.comparing((Pair<Key, Key> e) -> e.getLeft(), KEY_ORDER).thenComparing(Pair::getRight, KEY_ORDER));
+        return entries;
+    }
+
+    private Map<String, Set<Key>> indexKeys(T value) {
+        final Map<String, Set<Key>> result = new HashMap<>();
+        indexFunctions.forEach((idxName, idxFun) -> result.put(idxName, idxFun.apply(value).stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet())));
+        return result;
+    }
+
+    /**
+     * The stored index keys of the value, the value itself is decoded when they may not have been stored yet.
+     */
+    private Map<String, Set<Key>> getIndexKeys(Transaction txn, ByteIterable pk, ByteIterable value) {
+        final Map<String, Set<Key>> result = new HashMap<>();
+        final ByteIterable stored = indexKeysDb.get(txn, pk);
+        if (stored == null) {
+            if (backfillingIndexKeys && value != null) {
+                return indexKeys(getValue(new Key(pk), value));
+            }
+            indexNames.forEach(n -> result.put(n, Collections.emptySet()));
+            return result;
+        }
+        final ByteBuffer bb = ByteBuffer.wrap(stored.getBytesUnsafe(), 0, stored.getLength());
+        for (String indexName : indexNames) {
+            final int count = bb.getInt();
+            final Set<Key> keys = new HashSet<>(count);
+            for (int i = 0; i < count; i++) {
+                final byte[] key = new byte[bb.getInt()];
+                bb.get(key);
+                keys.add(Key.of(key));
+            }
+            result.put(indexName, keys);
+        }
+        return result;
+    }
+
+    private void putIndexKeys(Tx.Write tx, ByteIterable pk, Map<String, Set<Key>> indexKeys, boolean hadIndexKeys) {
+        final Transaction txn = castTxn(tx);
+        int size = 0;
+        boolean empty = true;
+        for (String indexName : indexNames) {
+            final Set<Key> keys = indexKeys.get(indexName);
+            size += Integer.BYTES;
+            for (Key key : keys) {
+                size += Integer.BYTES + key.size();
+                empty = false;
+            }
+        }
+        if (empty) {
+            // A missing entry means that the value has no index keys at all
+            deleteIndexKeys(tx, pk);
+            return;
+        }
+        final ByteBuffer bb = ByteBuffer.allocate(size);
+        for (String indexName : indexNames) {
+            final Set<Key> keys = indexKeys.get(indexName);
+            bb.putInt(keys.size());
+            for (Key key : keys) {
+                bb.putInt(key.size());
+                bb.put(key.getBytes());
+            }
+        }
+        final ByteIterable stored = new ArrayByteIterable(bb.array());
+        if (hadIndexKeys) {
+            final ByteIterable old = indexKeysDb.get(txn, pk);
+            if (old != null) {
+                StoreStats.record(tx, indexKeysStats, -1, -StoreStats.entryBytes(pk, old));
+            }
+        }
+        indexKeysDb.put(txn, pk, stored);
+        StoreStats.record(tx, indexKeysStats, 1, StoreStats.entryBytes(pk, stored));
+    }
+
+    private void deleteIndexKeys(Tx.Write tx, ByteIterable pk) {
+        try (Cursor c = indexKeysDb.openCursor(castTxn(tx))) {
+            final ByteIterable old = c.getSearchKey(pk);
+            if (old != null) {
+                StoreStats.record(tx, indexKeysStats, -1, -StoreStats.entryBytes(pk, old));
+                c.deleteCurrent();
+            }
+        }
+    }
+
+    private void putIndexEntry(Tx.Write tx, String indexName, Key indexKey, ByteIterable pk) {
+        final ByteIterable ik = indexKey.toByteIterable();
+        if (getIdx(indexName).put(castTxn(tx), ik, pk)) {
+            StoreStats.record(tx, indexStats.get(indexName), 1, StoreStats.entryBytes(ik, pk));
+        }
+    }
+
+    private void deleteIndexEntry(Tx.Write tx, String indexName, Key indexKey, ByteIterable pk) {
+        final ByteIterable ik = indexKey.toByteIterable();
+        try (Cursor c = getIdx(indexName).openCursor(castTxn(tx))) {
+            if (c.getSearchBoth(ik, pk)) {
+                c.deleteCurrent();
+                StoreStats.record(tx, indexStats.get(indexName), -1, -StoreStats.entryBytes(ik, pk));
+            }
+        }
     }
 
     private Store getIdx(String name) {
@@ -98,7 +365,10 @@ public class XodusIxMap<T extends Serializable> extends XodusIxBase<T> implement
     }
 
     private void dropIndexes(Tx.Write tx) {
-        indexes.forEach((name, db) -> truncate(tx, db));
+        indexes.forEach((name, db) -> truncate(tx, db, indexStats.get(name)));
+        if (indexKeysDb != null) {
+            truncate(tx, indexKeysDb, indexKeysStats);
+        }
     }
 
     protected StoreConfig getStoreConfig() {
@@ -111,68 +381,125 @@ public class XodusIxMap<T extends Serializable> extends XodusIxBase<T> implement
 
     public Optional<T> get(Tx.Read tx, Key primaryKey) {
         verifyKey(primaryKey);
-        final ByteIterable bi = getMainDb().get(castTxn(tx), primaryKey.toByteIterable());
-        if (bi == null) {
-            return Optional.empty();
+        final long start = System.nanoTime();
+        try {
+            final ByteIterable bi = getMainDb().get(castTxn(tx), primaryKey.toByteIterable());
+            if (bi == null) {
+                return Optional.empty();
+            }
+            return Optional.of(getValue(primaryKey, bi));
+        } finally {
+            recordSince(getTimer, start);
         }
-        return Optional.of(getValue(primaryKey, Bytes.toBytes(bi)));
     }
 
     public List<T> get(Tx.Read txn, Set<Key> primaryKeys) {
-        return primaryKeys.stream()
-                .map(pk -> get(txn, pk))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .collect(Collectors.toList());
+        return new ArrayList<>(getAll(txn, primaryKeys).values());
     }
 
-    public Optional<T> put(Tx.Write tx, Key primaryKey, T value) {
-        checkKeyAndValue(primaryKey, value);
-        final Transaction txn = castTxn(tx);
-        final ByteIterable pkBuf = primaryKey.toByteIterable();
-        final ByteIterable newVal = valueWithChecksum(value);
-
-        final ByteIterable oldVal = getMainDb().get(txn, pkBuf);
-        if (newVal.equals(oldVal)) {
-            // Exact same value already exists in the database, no need to store it again
-            // or to update indexes.
-            return Optional.of(value);
-        }
-
-        getMainDb().put(txn, pkBuf, newVal);
-        if (oldVal != null) {
-            final T oldValue = getValue(primaryKey, Bytes.toBytes(oldVal));
-            indexFunctions.forEach((idxName, idxFun) -> {
-                final Set<Key> oldIndexKeys = idxFun.apply(oldValue);
-                final Set<Key> indexKeys = idxFun.apply(value).stream()
-                        .filter(Objects::nonNull)
-                        .collect(Collectors.toSet());
-                final Store index = getIdx(idxName);
-                oldIndexKeys.stream()
-                        .filter(oik -> !indexKeys.contains(oik))
-                        .forEach(oik -> {
-                            try (Cursor c = index.openCursor(txn)) {
-                                if (c.getSearchBoth(oik.toByteIterable(), pkBuf)) {
-                                    c.deleteCurrent();
-                                }
-                            }
-                        });
-
-                indexKeys.stream()
-                        .filter(ik -> !oldIndexKeys.contains(ik))
-                        .forEach(ik -> index.put(txn, ik.toByteIterable(), pkBuf));
-            });
-            return Optional.of(oldValue);
+    public Map<Key, T> getAll(Tx.Read tx, Collection<Key> primaryKeys) {
+        final Map<Key, T> m = new LinkedHashMap<>();
+        getAllRaw(tx, primaryKeys, (pk, bytes) -> m.put(pk, getValue(pk, bytes)));
+        return m;
+    }
+
+    @Override
+    public Stream<Pair<Key, T>> streamAllAfter(Tx.Read tx, Key after) {
+        final ByteIterable from = after.toByteIterable();
+        return new CursorIterator<>(getMainDb(), castTxn(tx),
+                c -> c.getSearchKeyRange(from) != null && (c.getKey().compareTo(from) > 0 || c.getNext()),
+                Cursor::getNext,
+                c -> {
+                    final Key k = new Key(c.getKey());
+                    return Pair.of(k, getValue(k, c.getValue()));
+                },
+                scanTimer).stream();
+    }
+
+    public void getAllRaw(Tx.Read tx, Collection<Key> primaryKeys, BiConsumer<Key, byte[]> c) {
+        final Key[] sorted = primaryKeys.toArray(new Key[0]);
+        Arrays.sort(sorted, KEY_ORDER);
+        final long start = System.nanoTime();
+        try (Cursor cursor = getMainDb().openCursor(castTxn(tx))) {
+            // Visiting the keys in the order of the B-tree keeps the page accesses sequential
+            ByteIterable current = null;
+            Key previous = null;
+            for (Key pk : sorted) {
+                if (pk.equals(previous)) {
+                    continue;
+                }
+                previous = pk;
+                final ByteIterable pkBuf = pk.toByteIterable();
+                if (current == null || current.compareTo(pkBuf) < 0) {
+                    if (cursor.getSearchKeyRange(pkBuf) == null) {
+                        // there are no keys beyond this one
+                        return;
+                    }
+                    current = cursor.getKey();
+                }
+                if (current.compareTo(pkBuf) == 0) {
+                    c.accept(pk, Bytes.toBytes(cursor.getValue()));
+                }
+            }
+        } finally {
+            recordSince(scanTimer, start);
         }
-        indexFunctions.forEach((idxName, idxFun) -> {
-            final Set<Key> indexKeys = idxFun.apply(value).stream()
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toSet());
+    }
 
-            indexKeys.forEach(ik -> getIdx(idxName).put(txn, ik.toByteIterable(), pkBuf));
-        });
+    public void put(Tx.Write tx, Key primaryKey, T value) {
+        checkKeyAndValue(primaryKey, value);
+        final long start = System.nanoTime();
+        try {
+            final Transaction txn = castTxn(tx);
+            final ByteIterable pkBuf = primaryKey.toByteIterable();
+            final ByteIterable newVal = valueWithChecksum(value);
+
+            final ByteIterable oldVal = getMainDb().get(txn, pkBuf);
+            if (newVal.equals(oldVal)) {
+                // Exact same value already exists in the database, no need to store it again
+                // or to update indexes.
+                return;
+            }
 
-        return Optional.empty();
+            final Map<String, Set<Key>> oldIndexKeys = oldVal == null || indexFunctions.isEmpty() ?
+                    null :
+                    getIndexKeys(txn, pkBuf, oldVal);
+            getMainDb().put(txn, pkBuf, newVal);
+            StoreStats.record(tx, mainStats,
+                    oldVal == null ? 1 : 0,
+                    StoreStats.entryBytes(pkBuf, newVal) - (oldVal == null ? 0 : StoreStats.entryBytes(pkBuf, oldVal)));
+            if (indexFunctions.isEmpty()) {
+                return;
+            }
+
+            updateIndexes(tx, pkBuf, indexKeys(value), oldIndexKeys);
+        } finally {
+            recordSince(putTimer, start);
+        }
+    }
+
+    /**
+     * Updates the index entries from the index keys of the old value (null when there is none), which are
+     * stored next to it so the old value itself does not have to be decoded.
+     */
+    private void updateIndexes(Tx.Write tx, ByteIterable pkBuf, Map<String, Set<Key>> indexKeys, Map<String, Set<Key>> oldIndexKeys) {
+        if (oldIndexKeys != null) {
+            if (oldIndexKeys.equals(indexKeys)) {
+                return;
+            }
+            indexKeys.forEach((idxName, keys) -> {
+                final Set<Key> oldKeys = oldIndexKeys.get(idxName);
+                oldKeys.stream()
+                        .filter(oik -> !keys.contains(oik))
+                        .forEach(oik -> deleteIndexEntry(tx, idxName, oik, pkBuf));
+                keys.stream()
+                        .filter(ik -> !oldKeys.contains(ik))
+                        .forEach(ik -> putIndexEntry(tx, idxName, ik, pkBuf));
+            });
+        } else {
+            indexKeys.forEach((idxName, keys) -> keys.forEach(ik -> putIndexEntry(tx, idxName, ik, pkBuf)));
+        }
+        putIndexKeys(tx, pkBuf, indexKeys, oldIndexKeys != null);
     }
 
     public boolean modify(Tx.Write tx, Key primaryKey, Consumer<T> modifyValue) {
@@ -187,28 +514,28 @@ public class XodusIxMap<T extends Serializable> extends XodusIxBase<T> implement
     public void delete(Tx.Write tx, Key primaryKey) {
         checkNotNull(primaryKey, "Key is null");
         final Transaction txn = castTxn(tx);
-        final Store mainDb = getMainDb();
         final ByteIterable pkBuf = primaryKey.toByteIterable();
 
-        if (indexFunctions.isEmpty()) {
-            mainDb.delete(txn, pkBuf);
-        } else {
-            final ByteIterable bb = mainDb.get(txn, pkBuf);
-            if (bb != null) {
-                // TODO probably avoid deserialization, just store the
-                //  index keys next to the serialized value
-                final T value = getValue(primaryKey, Bytes.toBytes(bb));
-                mainDb.delete(txn, pkBuf);
-                indexFunctions.forEach((idxName, idxFun) ->
-                        idxFun.apply(value).forEach(ix -> {
-                            try (Cursor c = getIdx(idxName).openCursor(txn)) {
-                                if (c.getSearchBoth(ix.toByteIterable(), pkBuf)) {
-                                    c.deleteCurrent();
-                                }
-                            }
-                        }));
+        final long start = System.nanoTime();
+        final boolean deleted;
+        Map<String, Set<Key>> oldIndexKeys = null;
+        try (Cursor c = getMainDb().openCursor(txn)) {
+            final ByteIterable oldVal = c.getSearchKey(pkBuf);
+            deleted = oldVal != null;
+            if (deleted) {
+                if (!indexFunctions.isEmpty()) {
+                    oldIndexKeys = getIndexKeys(txn, pkBuf, oldVal);
+                }
+                StoreStats.record(tx, mainStats, -1, -StoreStats.entryBytes(pkBuf, oldVal));
+                c.deleteCurrent();
             }
         }
+        if (oldIndexKeys != null) {
+            oldIndexKeys.forEach((idxName, keys) ->
+                    keys.forEach(ik -> deleteIndexEntry(tx, idxName, ik, pkBuf)));
+            deleteIndexKeys(tx, pkBuf);
+        }
+        recordSince(deleteTimer, start);
         try {
             onDeleteTriggers.forEach(bf -> bf.accept(tx, primaryKey));
         } catch (OnDeleteRestrictException o) {
@@ -222,9 +549,7 @@ public class XodusIxMap<T extends Serializable> extends XodusIxBase<T> implement
     }
 
     public Map<Key, T> values(Tx.Read tx, Set<Key> pks) {
-        final Map<Key, T> m = new HashMap<>();
-        pks.forEach(pk -> get(tx, pk).ifPresent(v -> m.put(pk, v)));
-        return m;
+        return getAll(tx, pks);
     }
 
     public Set<Key> getPkByIndex(String indexName, Tx.Read tx, Key indexKey) {
@@ -233,6 +558,12 @@ public class XodusIxMap<T extends Serializable> extends XodusIxBase<T> implement
         return getPkByIndexKeyRange(indexName, tx, idxKey, idxKey);
     }
 
+    public Stream<Key> streamPkByIndex(String indexName, Tx.Read tx, Key indexKey) {
+        checkNotNull(indexKey, "Index key is null");
+        final ByteIterable idxKey = indexKey.toByteIterable();
+        return streamPkByIndexKeyRange(indexName, tx, idxKey, idxKey);
+    }
+
     public Map<Key, T> getByIndexLessThan(String indexName, Tx.Read tx, Key indexKey) {
         return values(tx, getPkByIndexLessThan(indexName, tx, indexKey));
     }
@@ -247,6 +578,11 @@ public class XodusIxMap<T extends Serializable> extends XodusIxBase<T> implement
         return getPkByIndexKeyRange(indexName, tx, null, idxKey);
     }
 
+    public Stream<Key> streamPkByIndexLessThan(String indexName, Tx.Read tx, Key indexKey) {
+        checkNotNull(indexKey, "Index key is null");
+        return streamPkByIndexKeyRange(indexName, tx, null, indexKey.toByteIterable());
+    }
+
     public Set<Key> getPkByIndexGreaterThan(String indexName, Tx.Read tx, Key indexKey) {
         checkNotNull(indexKey, "Index key is null");
         final ByteIterable idxKey = indexKey.toByteIterable();
@@ -271,7 +607,23 @@ public class XodusIxMap<T extends Serializable> extends XodusIxBase<T> implement
 
         Store index = getIdx(indexName);
         final Map<Key, T> m = new HashMap<>();
-        if (index != null) {
+        if (!indexesComplete(tx)) {
+            final List<Pair<Key, Key>> entries = scanIndex(indexName, tx, null, null);
+            if (!ascending) {
+                Collections.reverse(entries);
+            }
+            Key foundIndexKey = null;
+            for (Pair<Key, Key> e : entries) {
+                if (foundIndexKey != null && !foundIndexKey.equals(e.getLeft())) {
+                    break;
+                }
+                final Optional<T> value = get(tx, e.getRight()).filter(predicate);
+                if (value.isPresent()) {
+                    foundIndexKey = e.getLeft();
+                    m.put(e.getRight(), value.get());
+                }
+            }
+        } else if (index != null) {
             Store mainDb = getMainDb();
             Transaction txn = castTxn(tx);
             try (Cursor cursor = index.openCursor(txn)) {
@@ -304,7 +656,7 @@ public class XodusIxMap<T extends Serializable> extends XodusIxBase<T> implement
 
     @Override
     public void clear(Tx.Write tx) {
-        truncate(tx, getMainDb());
+        truncate(tx, getMainDb(), mainStats);
         dropIndexes(tx);
     }
 
@@ -314,68 +666,47 @@ public class XodusIxMap<T extends Serializable> extends XodusIxBase<T> implement
     }
 
     private Set<Key> getPkByIndexKeyRange(String indexName, Tx.Read tx, ByteIterable start, ByteIterable stop) {
+        try (Stream<Key> pks = streamPkByIndexKeyRange(indexName, tx, start, stop)) {
+            return pks.collect(Collectors.toSet());
+        }
+    }
+
+    /**
+     * Primary keys of the index entries with keys in [start, stop), a null bound is unbounded. When start and
+     * stop are equal the index key has to match exactly.
+     */
+    private Stream<Key> streamPkByIndexKeyRange(String indexName, Tx.Read tx, ByteIterable start, ByteIterable stop) {
+        if (!indexesComplete(tx)) {
+            return scanIndex(indexName, tx, start, stop).stream().map(Pair::getRight);
+        }
         final Store index = getIdx(indexName);
         if (index == null) {
-            return Collections.emptySet();
+            return Stream.empty();
         }
-        final Transaction txn = castTxn(tx);
-        final Set<Key> pks = new HashSet<>();
-        try (Cursor cursor = index.openCursor(txn)) {
-            if (start == null) {
-                if (stop == null) {
-                    // This is actually getting everything.
-                    while (cursor.getNext()) {
-                        pks.add(new Key(cursor.getValue()));
-                    }
-                } else {
-                    while (cursor.getNext() && cursor.getKey().compareTo(stop) < 0) {
-                        pks.add(new Key(cursor.getValue()));
-                    }
-                }
-            } else {
-                if (stop == null) {
-                    ByteIterable startKey = cursor.getSearchKeyRange(start);
-                    if (startKey != null) {
-                        pks.add(new Key(cursor.getValue()));
-                        while (cursor.getNext()) {
-                            pks.add(new Key(cursor.getValue()));
-                        }
-                    }
-                } else {
-                    if (start.equals(stop)) {
-                        // special case of exact match
-                        ByteIterable startKey = cursor.getSearchKey(start);
-                        if (startKey != null) {
-                            pks.add(new Key(cursor.getValue()));
-                            while (cursor.getNextDup()) {
-                                pks.add(new Key(cursor.getValue()));
-                            }
-                        }
-                    } else {
-                        ByteIterable startKey = cursor.getSearchKeyRange(start);
-                        if (startKey != null) {
-                            pks.add(new Key(cursor.getValue()));
-                            while (cursor.getNext() && cursor.getKey().compareTo(stop) < 0) {
-                                pks.add(new Key(cursor.getValue()));
-                            }
-                        }
-                    }
-                }
-            }
+        final Predicate<Cursor> first;
+        final Predicate<Cursor> next;
+        if (start != null && start.equals(stop)) {
+            // special case of exact match
+            first = c -> c.getSearchKey(start) != null;
+            next = Cursor::getNextDup;
+        } else {
+            final Predicate<Cursor> beforeStop = c -> stop == null || c.getKey().compareTo(stop) < 0;
+            first = start == null ?
+                    c -> c.getNext() && beforeStop.test(c) :
+                    c -> c.getSearchKeyRange(start) != null && beforeStop.test(c);
+            next = c -> c.getNext() && beforeStop.test(c);
         }
-        return pks;
+        return new CursorIterator<>(index, castTxn(tx), first, next, c -> new Key(c.getValue()), scanTimer).stream();
     }
 
     @Override
     public XodusIxBase.Sizes sizeInfo(Tx.Read tx) {
         XodusIxBase.Sizes sizes = super.sizeInfo(tx);
         final Map<String, XodusIxBase.Sizes> indexSizes = new HashMap<>();
-        indexes.forEach((name, ignore) -> {
-            Store idx = getIdx(name);
-            AtomicInteger count = new AtomicInteger();
-            AtomicInteger size = new AtomicInteger();
-            indexSizes.put(name, new XodusIxBase.Sizes(count.get(), size.get()));
-        });
+        indexStats.forEach((name, stats) -> indexSizes.put(name, stats.sizes()));
+        if (indexKeysStats != null) {
+            indexSizes.put(INDEX_KEYS, indexKeysStats.sizes());
+        }
         return new Sizes(sizes.getCount(),
                 sizes.getKeysAndValuesBytes(),
                 indexSizes);
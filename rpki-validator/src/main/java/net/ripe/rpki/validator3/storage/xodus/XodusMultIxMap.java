@@ -29,6 +29,7 @@
  */
 package net.ripe.rpki.validator3.storage.xodus;
 
+import jetbrains.exodus.ArrayByteIterable;
 import jetbrains.exodus.ByteIterable;
 import jetbrains.exodus.env.Cursor;
 import jetbrains.exodus.env.StoreConfig;
@@ -62,9 +63,9 @@ public class XodusMultIxMap<T extends Serializable> extends XodusIxBase<T> imple
         try (Cursor cursor = getMainDb().openCursor(castTxn(tx))) {
             ByteIterable startKey = cursor.getSearchKey(primaryKey.toByteIterable());
             if (startKey != null) {
-                result.add(getValue(primaryKey, Bytes.toBytes(cursor.getValue())));
+                result.add(getValue(primaryKey, cursor.getValue()));
                 while (cursor.getNextDup()) {
-                    result.add(getValue(primaryKey, Bytes.toBytes(cursor.getValue())));
+                    result.add(getValue(primaryKey, cursor.getValue()));
                 }
             }
         }
@@ -90,33 +91,56 @@ public class XodusMultIxMap<T extends Serializable> extends XodusIxBase<T> imple
     @Override
     public void put(Tx.Write tx, Key primaryKey, T value) {
         checkKeyAndValue(primaryKey, value);
-        getMainDb().put(castTxn(tx), primaryKey.toByteIterable(), valueWithChecksum(value));
+        final long start = System.nanoTime();
+        final ByteIterable key = primaryKey.toByteIterable();
+        final ByteIterable stored = valueWithChecksum(value);
+        if (getMainDb().put(castTxn(tx), key, stored)) {
+            StoreStats.record(tx, mainStats, 1, StoreStats.entryBytes(key, stored));
+        }
+        recordSince(putTimer, start);
     }
 
     @Override
     public void delete(Tx.Write tx, Key primaryKey) {
-        getMainDb().delete(castTxn(tx), primaryKey.toByteIterable());
+        final long start = System.nanoTime();
+        final ByteIterable key = primaryKey.toByteIterable();
+        try (Cursor c = getMainDb().openCursor(castTxn(tx))) {
+            // The cursor does not move to the next duplicate after deleting the current one
+            while (c.getSearchKey(key) != null) {
+                deleteCurrent(tx, c);
+            }
+        }
+        recordSince(deleteTimer, start);
     }
 
     @Override
     public void delete(Tx.Write tx, Key primaryKey, T value) {
         verifyKey(primaryKey);
+        final long start = System.nanoTime();
         try (Cursor c = getMainDb().openCursor(castTxn(tx))) {
-            if (c.getSearchBoth(primaryKey.toByteIterable(), valueWithChecksum(value))) {
-                c.deleteCurrent();
+            if (searchBoth(c, primaryKey, value)) {
+                deleteCurrent(tx, c);
             }
         }
+        recordSince(deleteTimer, start);
     }
 
     @Override
     public void deleteBatch(Tx.Write tx, List<Pair<Key, T>> toDelete) {
+        final long start = System.nanoTime();
         try (Cursor c = getMainDb().openCursor(castTxn(tx))) {
             toDelete.forEach(p -> {
-                if (c.getSearchBoth(p.getKey().toByteIterable(), valueWithChecksum(p.getValue()))) {
-                    c.deleteCurrent();
+                if (searchBoth(c, p.getKey(), p.getValue())) {
+                    deleteCurrent(tx, c);
                 }
             });
         }
+        recordSince(deleteTimer, start);
+    }
+
+    private void deleteCurrent(Tx.Write tx, Cursor c) {
+        StoreStats.record(tx, mainStats, -1, -StoreStats.entryBytes(c.getKey(), c.getValue()));
+        c.deleteCurrent();
     }
 
     @Override
@@ -127,7 +151,17 @@ public class XodusMultIxMap<T extends Serializable> extends XodusIxBase<T> imple
     @Override
     public boolean exists(Tx.Read tx, Key pk, T value) {
         try (Cursor c = getMainDb().openCursor(castTxn(tx))) {
-            return c.getSearchBoth(pk.toByteIterable(), valueWithChecksum(value));
+            return searchBoth(c, pk, value);
         }
     }
+
+    /**
+     * Moves the cursor to the value, which may still be stored with the checksum of earlier versions.
+     */
+    private boolean searchBoth(Cursor c, Key pk, T value) {
+        final ByteIterable key = pk.toByteIterable();
+        final byte[] valueBytes = coder.toBytes(value);
+        return c.getSearchBoth(key, new ArrayByteIterable(ValueChecksums.withChecksum(valueBytes))) ||
+                c.getSearchBoth(key, new ArrayByteIterable(ValueChecksums.withLegacyChecksum(valueBytes)));
+    }
 }
@@ -36,8 +36,12 @@ import lombok.extern.slf4j.Slf4j;
 import net.ripe.rpki.validator3.storage.Tx;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * This is to have type-level distinction between
@@ -109,6 +113,10 @@ public abstract class XodusTx implements AutoCloseable {
         Xodus.checkEnv(env);
     }
 
+    boolean isAborted() {
+        return aborted;
+    }
+
     public void abort() {
         checkEnv();
         txn.abort();
@@ -133,9 +141,35 @@ public abstract class XodusTx implements AutoCloseable {
         @Getter
         private List<Runnable> afterCommitHooks = new ArrayList<>();
 
+        private final Map<StoreStats, long[]> statsChanges = new HashMap<>();
+
         public synchronized void afterCommit(Runnable r) {
             afterCommitHooks.add(r);
         }
+
+        void recordChange(StoreStats stats, long count, long bytes) {
+            final long[] change = statsChanges.computeIfAbsent(stats, s -> new long[2]);
+            change[0] += count;
+            change[1] += bytes;
+        }
+
+        /**
+         * Adds the changes of this transaction to the store statistics, to be called right before it commits.
+         */
+        void applyStatsChanges() {
+            if (!isAborted()) {
+                statsChanges.forEach((stats, change) -> stats.apply(change[0], change[1]));
+            }
+        }
+
+        /**
+         * Undoes {@link #applyStatsChanges()} when the commit failed.
+         */
+        void revertStatsChanges() {
+            if (!isAborted()) {
+                statsChanges.forEach((stats, change) -> stats.apply(-change[0], -change[1]));
+            }
+        }
     }
 
     public static class Read extends XodusTx implements Tx.Read {
@@ -154,6 +188,58 @@ public abstract class XodusTx implements AutoCloseable {
         }
     }
 
+    /**
+     * Shares one database snapshot between threads. Xodus transactions must not be used
+     * concurrently, so every thread gets its own read-only copy of the snapshot transaction.
+     */
+    public static class Snapshot implements Tx.Snapshot {
+        private final Environment env;
+        private final Transaction snapshot;
+        private final Consumer<XodusTx> onOpen;
+        private final Consumer<XodusTx> onClose;
+        private final Runnable onSnapshotClose;
+        private final Map<Long, Read> txByThread = new ConcurrentHashMap<>();
+        private boolean closed = false;
+
+        Snapshot(Environment env, Transaction snapshot, Consumer<XodusTx> onOpen, Consumer<XodusTx> onClose, Runnable onSnapshotClose) {
+            this.env = env;
+            this.snapshot = snapshot;
+            this.onOpen = onOpen;
+            this.onClose = onClose;
+            this.onSnapshotClose = onSnapshotClose;
+        }
+
+        @Override
+        public Read tx() {
+            return txByThread.computeIfAbsent(Thread.currentThread().getId(), threadId -> {
+                synchronized (this) {
+                    if (closed) {
+                        throw new IllegalStateException("Snapshot is already closed");
+                    }
+                    Xodus.checkEnv(env);
+                    final Read tx = new Read(env, snapshot.getReadonlySnapshot());
+                    onOpen.accept(tx);
+                    return tx;
+                }
+            });
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (env.isOpen()) {
+                txByThread.values().forEach(tx -> tx.txn.abort());
+                snapshot.abort();
+            }
+            txByThread.values().forEach(onClose);
+            txByThread.clear();
+            onSnapshotClose.run();
+        }
+    }
+
     @Override
     public void close() {
     }
@@ -0,0 +1,143 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.api.roas;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CachedExportTest {
+
+    private final CachedExport export = new CachedExport();
+
+    private final AtomicInteger serializations = new AtomicInteger();
+
+    @Test
+    public void should_serialize_only_when_the_version_changes() {
+        final CachedExport.Body first = export.get(1L, () -> serialize("a"));
+        assertThat(export.get(1L, () -> serialize("b"))).isSameAs(first);
+        assertThat(serializations).hasValue(1);
+
+        final CachedExport.Body second = export.get(2L, () -> serialize("b"));
+        assertThat(serializations).hasValue(2);
+        assertThat(second.getBytes()).isEqualTo("b".getBytes(StandardCharsets.UTF_8));
+        assertThat(second.getEtag()).isNotEqualTo(first.getEtag());
+    }
+
+    @Test
+    public void should_keep_etag_and_modification_time_when_the_content_is_the_same() {
+        final CachedExport.Body first = export.get(1L, () -> serialize("a"));
+        final CachedExport.Body second = export.get(2L, () -> serialize("a"));
+
+        assertThat(second.getEtag()).isEqualTo(first.getEtag());
+        assertThat(second.getLastModified()).isEqualTo(first.getLastModified());
+    }
+
+    @Test
+    public void should_answer_not_modified_for_a_known_etag() throws IOException {
+        final CachedExport.Body body = export.get(1L, () -> serialize("a"));
+
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/export.json");
+        request.addHeader("If-None-Match", body.getEtag());
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        CachedExport.write(body, ExportsController.JSON, request, response);
+
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    public void should_write_gzipped_body_when_accepted() throws IOException {
+        final CachedExport.Body body = export.get(1L, () -> serialize("content"));
+
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/export.json");
+        request.addHeader("Accept-Encoding", "gzip, deflate");
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        CachedExport.write(body, ExportsController.JSON, request, response);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader("Content-Encoding")).isEqualTo("gzip");
+        assertThat(response.getHeader("ETag")).isNotEqualTo(body.getEtag()).endsWith("-gzip\"");
+        assertThat(response.getContentLength()).isEqualTo(body.getGzipped().length);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))) {
+            final byte[] unzipped = new byte[body.getBytes().length];
+            assertThat(in.read(unzipped)).isEqualTo(unzipped.length);
+            assertThat(unzipped).isEqualTo(body.getBytes());
+        }
+    }
+
+    @Test
+    public void should_not_write_gzipped_body_when_refused() throws IOException {
+        final CachedExport.Body body = export.get(1L, () -> serialize("content"));
+
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/export.json");
+        request.addHeader("Accept-Encoding", "gzip;q=0, deflate");
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        CachedExport.write(body, ExportsController.JSON, request, response);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader("Content-Encoding")).isNull();
+        assertThat(response.getHeader("ETag")).isEqualTo(body.getEtag());
+        assertThat(response.getContentAsByteArray()).isEqualTo(body.getBytes());
+    }
+
+    @Test
+    public void should_accept_gzip_by_q_value() {
+        assertThat(acceptsGzip()).isFalse();
+        assertThat(acceptsGzip("deflate")).isFalse();
+        assertThat(acceptsGzip("gzip")).isTrue();
+        assertThat(acceptsGzip("deflate, GZIP;q=0.5")).isTrue();
+        assertThat(acceptsGzip("gzip; q=0.0")).isFalse();
+        assertThat(acceptsGzip("*")).isTrue();
+        assertThat(acceptsGzip("gzip;q=0, *")).isFalse();
+        assertThat(acceptsGzip("identity", "gzip")).isTrue();
+    }
+
+    private static boolean acceptsGzip(String... acceptEncoding) {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/export.json");
+        for (String header : acceptEncoding) {
+            request.addHeader("Accept-Encoding", header);
+        }
+        return CachedExport.acceptsGzip(request);
+    }
+
+    private byte[] serialize(String content) {
+        serializations.incrementAndGet();
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}
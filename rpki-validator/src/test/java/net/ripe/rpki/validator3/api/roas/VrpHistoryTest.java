@@ -0,0 +1,129 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.api.roas;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VrpHistoryTest {
+
+    private final VrpHistory<String> history = new VrpHistory<>(3);
+
+    private final AtomicInteger sourceVersion = new AtomicInteger();
+
+    @Test
+    public void should_return_all_values_without_version() {
+        update("a", "b");
+
+        final VrpHistory.Delta<String> delta = history.since(null);
+        assertThat(delta.isFull()).isTrue();
+        assertThat(delta.getVersion()).isEqualTo(history.getVersion());
+        assertThat(delta.getAdditions()).containsExactlyInAnyOrder("a", "b");
+        assertThat(delta.getWithdrawals()).isEmpty();
+    }
+
+    @Test
+    public void should_return_no_changes_for_current_version() {
+        update("a", "b");
+        final long version = history.getVersion();
+
+        final VrpHistory.Delta<String> delta = history.since(version);
+        assertThat(delta.isFull()).isFalse();
+        assertThat(delta.getVersion()).isEqualTo(version);
+        assertThat(delta.getAdditions()).isEmpty();
+        assertThat(delta.getWithdrawals()).isEmpty();
+    }
+
+    @Test
+    public void should_only_increase_version_when_values_change() {
+        update("a", "b");
+        final long version = history.getVersion();
+
+        update("b", "a");
+        assertThat(history.getVersion()).isEqualTo(version);
+
+        update("a");
+        assertThat(history.getVersion()).isEqualTo(version + 1);
+    }
+
+    @Test
+    public void should_combine_changes_since_version() {
+        update("a", "b");
+        final long version = history.getVersion();
+        update("a", "c");
+        update("a", "b", "d");
+        update("b", "d");
+
+        final VrpHistory.Delta<String> delta = history.since(version);
+        assertThat(delta.isFull()).isFalse();
+        assertThat(delta.getVersion()).isEqualTo(version + 3);
+        assertThat(delta.getAdditions()).containsExactly("d");
+        assertThat(delta.getWithdrawals()).containsExactly("a");
+
+        final VrpHistory.Delta<String> last = history.since(version + 2);
+        assertThat(last.getAdditions()).isEmpty();
+        assertThat(last.getWithdrawals()).containsExactly("a");
+    }
+
+    @Test
+    public void should_return_all_values_for_expired_or_unknown_version() {
+        update("a");
+        final long version = history.getVersion();
+        update("b");
+        update("c");
+        update("d");
+        update("e");
+
+        assertThat(history.since(version).isFull()).isTrue();
+        assertThat(history.since(version + 1).isFull()).isFalse();
+        assertThat(history.since(version + 5).isFull()).isTrue();
+        assertThat(history.since(version + 5).getAdditions()).containsExactly("e");
+    }
+
+    @Test
+    public void should_keep_version_when_the_source_did_not_change() {
+        history.update(1, () -> Arrays.asList("a").stream());
+        final long version = history.getVersion();
+
+        history.update(1, () -> Collections.<String>emptyList().stream());
+        assertThat(history.getVersion()).isEqualTo(version);
+        assertThat(history.since(null).getAdditions()).isEqualTo(ImmutableSet.of("a"));
+    }
+
+    private void update(String... values) {
+        history.update(sourceVersion.incrementAndGet(), () -> Arrays.stream(values));
+    }
+}
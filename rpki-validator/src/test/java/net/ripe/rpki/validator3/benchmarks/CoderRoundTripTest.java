@@ -0,0 +1,115 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.benchmarks;
+
+import com.google.common.io.ByteStreams;
+import net.ripe.rpki.commons.crypto.CertificateRepositoryObject;
+import net.ripe.rpki.commons.crypto.util.CertificateRepositoryObjectFactory;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.validator3.api.util.InstantWithoutNanos;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.data.Ref;
+import net.ripe.rpki.validator3.storage.data.RpkiObject;
+import net.ripe.rpki.validator3.storage.data.validation.CertificateTreeValidationRun;
+import net.ripe.rpki.validator3.storage.data.validation.ValidationCheck;
+import net.ripe.rpki.validator3.storage.encoding.Coder;
+import net.ripe.rpki.validator3.storage.encoding.custom.RpkiObjectCoder;
+import net.ripe.rpki.validator3.storage.encoding.custom.validation.CTValidationRunCoder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Security;
+
+/**
+ * Round trips of the custom binary coders, run manually to compare coder changes.
+ */
+@Ignore
+public class CoderRoundTripTest {
+
+    private static final int WARMUP_ITERATIONS = 200_000;
+    private static final int ITERATIONS = 1_000_000;
+
+    @BeforeClass
+    public static void setUp() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    public void rpkiObject() throws IOException {
+        final byte[] content;
+        try (InputStream is = getClass().getResourceAsStream("/557B4C46969B11E681906146C4F9AE02.roa")) {
+            content = ByteStreams.toByteArray(is);
+        }
+        final CertificateRepositoryObject repositoryObject = CertificateRepositoryObjectFactory.createCertificateRepositoryObject(
+                content, ValidationResult.withLocation("whatever.roa"));
+        run("RpkiObject", new RpkiObjectCoder(), new RpkiObject(repositoryObject));
+    }
+
+    @Test
+    public void certificateTreeValidationRun() {
+        final CertificateTreeValidationRun validationRun = new CertificateTreeValidationRun(Ref.unsafe("trust-anchors", Key.of(1L)));
+        validationRun.setId(Key.of(42L));
+        validationRun.setCreatedAt(InstantWithoutNanos.now());
+        validationRun.setCompletedAt(InstantWithoutNanos.now());
+        validationRun.setSucceeded();
+        for (int i = 0; i < 100; i++) {
+            validationRun.addCheck(new ValidationCheck("rsync://rpki.example.org/repository/" + i + ".roa",
+                    ValidationCheck.Status.WARNING, "cert.not.valid.after", "2020-01-01T00:00:00Z"));
+        }
+        run("CertificateTreeValidationRun", new CTValidationRunCoder(), validationRun);
+    }
+
+    private static <T> void run(String name, Coder<T> coder, T value) {
+        final byte[] bytes = coder.toBytes(value);
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += coder.fromBytes(coder.toBytes(value)).hashCode();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += coder.toBytes(value).length;
+        }
+        final long encodeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += coder.fromBytes(bytes).hashCode();
+        }
+        final long decodeNanos = System.nanoTime() - start;
+
+        System.out.printf("%s (%d bytes): encode %d ns/op, decode %d ns/op (%d)%n",
+                name, bytes.length, encodeNanos / ITERATIONS, decodeNanos / ITERATIONS, sink);
+    }
+}
@@ -29,6 +29,7 @@
  */
 package net.ripe.rpki.validator3.domain.cleanup;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import net.ripe.ipresource.Asn;
 import net.ripe.ipresource.IpRange;
 import net.ripe.ipresource.IpResourceSet;
@@ -69,6 +70,9 @@ public class RpkiObjectCleanupServiceTest extends GenericStorageTest {
     @Autowired
     private RpkiObjects rpkiObjects;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Test
     public void should_delete_objects_not_reachable_from_manifest() throws Exception {
         BigInteger serial = TrustAnchorsFactory.nextSerial();
@@ -101,6 +105,34 @@ public class RpkiObjectCleanupServiceTest extends GenericStorageTest {
         wtx0(tx -> rpkiObjects.markReachable(tx, orphan.key(), InstantWithoutNanos.now().minus(Duration.ofDays(10))));
 
         // Orphan is now old, so should be deleted
+        final double deletedBefore = meterRegistry.get("rpkivalidator.cleanup.rpki.objects.deleted").counter().count();
         assertThat(subject.cleanupRpkiObjects()).isEqualTo(1);
+        assertThat(meterRegistry.get("rpkivalidator.cleanup.rpki.objects.deleted").counter().count()).isEqualTo(deletedBefore + 1);
+        assertThat(meterRegistry.get("rpkivalidator.cleanup.rpki.objects.pending").gauge().value()).isEqualTo(0);
+    }
+
+    @Test
+    public void should_keep_objects_reached_by_validation() throws Exception {
+        TrustAnchor trustAnchor = wtx(tx -> factory.createTrustAnchor(tx, ta -> {}));
+        assertThat(subject.cleanupRpkiObjects()).isEqualTo(0);
+
+        RpkiObject object = new RpkiObject(
+            new X509ResourceCertificateBuilder()
+                .withResources(IpResourceSet.parse("10.0.0.0/8"))
+                .withIssuerDN(trustAnchor.getCertificate().getSubject())
+                .withSubjectDN(new X500Principal("CN=reached"))
+                .withSerial(TrustAnchorsFactory.nextSerial())
+                .withPublicKey(KEY_PAIR_FACTORY.generate().getPublic())
+                .withSigningKeyPair(KEY_PAIR_FACTORY.generate())
+                .withValidityPeriod(new ValidityPeriod(DateTime.now(), DateTime.now().plusYears(1)))
+                .build()
+        );
+        wtx0(tx -> rpkiObjects.put(tx, object));
+        wtx0(tx -> rpkiObjects.markReachable(tx, object.key(), InstantWithoutNanos.now().minus(Duration.ofDays(10))));
+
+        // Reached by a validation run, so the old reachable time is replaced
+        wtx0(tx -> rpkiObjects.markReachable(tx, Collections.singletonList(object.key())));
+
+        assertThat(subject.cleanupRpkiObjects()).isEqualTo(0);
     }
 }
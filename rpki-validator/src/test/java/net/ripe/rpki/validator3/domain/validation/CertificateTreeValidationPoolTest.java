@@ -0,0 +1,95 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.ripe.rpki.validator3.domain.validation.ValidatedRpkiObjects.TrustAnchorData;
+import net.ripe.rpki.validator3.storage.data.Key;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CertificateTreeValidationPoolTest {
+
+    private static final TrustAnchorData TRUST_ANCHOR = TrustAnchorData.of(Key.of(1), "test");
+
+    private final CertificateTreeValidationPool subject = new CertificateTreeValidationPool(4, 2, new SimpleMeterRegistry());
+
+    @After
+    public void tearDown() {
+        subject.shutdown();
+    }
+
+    @Test
+    public void should_return_results_in_order_of_items() {
+        final List<Integer> items = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+
+        final List<Integer> results = subject.map(TRUST_ANCHOR, items, i -> i * 2);
+
+        assertThat(results).isEqualTo(items.stream().map(i -> i * 2).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void should_limit_threads_working_on_one_trust_anchor() {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<Integer> items = IntStream.range(0, 200).boxed().collect(Collectors.toList());
+
+        subject.map(TRUST_ANCHOR, items, i -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            return i;
+        });
+
+        assertThat(maxRunning.get()).isBetween(1, 2);
+    }
+
+    @Test
+    public void should_support_nested_mapping() {
+        final List<Integer> items = IntStream.range(0, 20).boxed().collect(Collectors.toList());
+
+        final List<Integer> sums = subject.invoke(() -> subject.map(TRUST_ANCHOR, items, i ->
+                subject.map(TRUST_ANCHOR, items, j -> i * j).stream().mapToInt(Integer::intValue).sum()));
+
+        assertThat(sums).hasSize(20);
+        assertThat(sums.get(3)).isEqualTo(3 * 190);
+    }
+}
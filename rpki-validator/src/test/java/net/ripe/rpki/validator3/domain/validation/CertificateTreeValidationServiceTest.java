@@ -41,6 +41,7 @@ import net.ripe.rpki.commons.validation.ValidationResult;
 import net.ripe.rpki.commons.validation.ValidationString;
 import net.ripe.rpki.validator3.background.ValidationScheduler;
 import net.ripe.rpki.validator3.domain.ta.TrustAnchorsFactory;
+import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.data.Ref;
 import net.ripe.rpki.validator3.storage.data.RoaPrefix;
 import net.ripe.rpki.validator3.storage.data.RpkiObject;
@@ -252,6 +253,47 @@ public class CertificateTreeValidationServiceTest extends GenericStorageTest {
         assertThat(cro).isPresent().hasValueSatisfying(x -> assertThat(x.getSubject()).isEqualTo(new X500Principal("CN=child-ca")));
     }
 
+    @Test
+    public void should_reuse_unchanged_certificate_authorities_in_next_validation_run() {
+        KeyPair childKeyPair = KEY_PAIR_FACTORY.generate();
+
+        TrustAnchor ta = wtx(tx -> factory.createTrustAnchor(tx, x -> {
+            TrustAnchorsFactory.CertificateAuthority child = TrustAnchorsFactory.CertificateAuthority.builder()
+                .dn("CN=child-ca")
+                .keyPair(childKeyPair)
+                .certificateLocation(TA_CA_REPOSITORY_URI + "CN=child-ca.cer")
+                .resources(IpResourceSet.parse("192.168.128.0/17"))
+                .notifyURI(TA_RRDP_NOTIFY_URI)
+                .manifestURI("rsync://rpki.test/CN=child-ca/child-ca.mft")
+                .repositoryURI("rsync://rpki.test/CN=child-ca/")
+                .crlDistributionPoint("rsync://rpki.test/CN=child-ca/child-ca.crl")
+                .build();
+            x.children(Arrays.asList(child));
+        }));
+
+        wtx0(tx -> {
+            this.getTrustAnchors().add(tx, ta);
+            final Ref<TrustAnchor> trustAnchorRef = this.getTrustAnchors().makeRef(tx, ta.key());
+            RpkiRepository repository = this.getRpkiRepositories().register(tx, trustAnchorRef, TA_RRDP_NOTIFY_URI, RpkiRepository.Type.RRDP);
+            repository.setDownloaded();
+            this.getRpkiRepositories().update(tx, repository);
+        });
+
+        subject.validate(ta.key().asLong());
+        subject.validate(ta.key().asLong());
+
+        List<CertificateTreeValidationRun> completed = rtx(tx -> this.getValidationRuns().findAll(tx, CertificateTreeValidationRun.class));
+        assertThat(completed).hasSize(2);
+        assertThat(completed).extracting(CertificateTreeValidationRun::getStatus).containsOnly(SUCCEEDED);
+
+        rtx0(tx -> {
+            Set<Key> first = this.getValidationRuns().findAssociatedPks(tx, completed.get(0));
+            Set<Key> second = this.getValidationRuns().findAssociatedPks(tx, completed.get(1));
+            assertThat(first).isNotEmpty();
+            assertThat(second).isEqualTo(first);
+        });
+    }
+
     @Test
     public void should_report_proper_error_when_repository_is_unavailable() {
         TrustAnchor trustAnchor = wtx(tx -> {
@@ -0,0 +1,135 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.ripe.ipresource.IpResourceSet;
+import net.ripe.rpki.commons.crypto.ValidityPeriod;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificate;
+import net.ripe.rpki.commons.crypto.x509cert.X509ResourceCertificateBuilder;
+import net.ripe.rpki.commons.validation.ValidationOptions;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.validator3.domain.ta.TrustAnchorsFactory;
+import net.ripe.rpki.validator3.storage.data.Key;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.joda.time.DateTime;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.security.auth.x500.X500Principal;
+import java.security.KeyPair;
+import java.security.Security;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static net.ripe.rpki.validator3.domain.ta.TrustAnchorsFactory.KEY_PAIR_FACTORY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SignatureVerificationCacheTest {
+
+    private static final Key ISSUER = Key.of("issuer");
+    private static final Key CRL = Key.of("crl");
+    private static final ValidationOptions OPTIONS = ValidationOptions.strictValidation();
+
+    private final SignatureVerificationCache subject = new SignatureVerificationCache(100, new SimpleMeterRegistry());
+
+    private final AtomicInteger verifications = new AtomicInteger();
+
+    @BeforeClass
+    public static void add_security_provider() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Test
+    public void should_skip_verification_of_unchanged_object() {
+        X509ResourceCertificate certificate = certificate(DateTime.now().minusDays(1), DateTime.now().plusYears(1));
+
+        validate(certificate, ISSUER, CRL, OPTIONS, v -> {});
+        validate(certificate, ISSUER, CRL, OPTIONS, v -> {});
+
+        assertThat(verifications.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void should_verify_again_when_issuer_crl_or_options_changed() {
+        X509ResourceCertificate certificate = certificate(DateTime.now().minusDays(1), DateTime.now().plusYears(1));
+
+        validate(certificate, ISSUER, CRL, OPTIONS, v -> {});
+        validate(certificate, Key.of("other-issuer"), CRL, OPTIONS, v -> {});
+        validate(certificate, ISSUER, Key.of("other-crl"), OPTIONS, v -> {});
+        validate(certificate, ISSUER, CRL, ValidationOptions.backCompatibleRipeNccValidator(), v -> {});
+
+        assertThat(verifications.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void should_not_remember_results_with_warnings() {
+        X509ResourceCertificate certificate = certificate(DateTime.now().minusDays(1), DateTime.now().plusYears(1));
+
+        ValidationResult first = validate(certificate, ISSUER, CRL, OPTIONS, v -> v.warn("some.warning"));
+        ValidationResult second = validate(certificate, ISSUER, CRL, OPTIONS, v -> v.warn("some.warning"));
+
+        assertThat(verifications.get()).isEqualTo(2);
+        assertThat(first.hasWarnings()).isTrue();
+        assertThat(second.hasWarnings()).isTrue();
+    }
+
+    @Test
+    public void should_verify_again_outside_of_validity_period() {
+        X509ResourceCertificate certificate = certificate(DateTime.now().minusYears(1), DateTime.now().minusDays(1));
+
+        validate(certificate, ISSUER, CRL, OPTIONS, v -> {});
+        validate(certificate, ISSUER, CRL, OPTIONS, v -> {});
+
+        assertThat(verifications.get()).isEqualTo(2);
+    }
+
+    private ValidationResult validate(X509ResourceCertificate certificate, Key issuer, Key crl, ValidationOptions options, Consumer<ValidationResult> validation) {
+        ValidationResult validationResult = ValidationResult.withLocation("rsync://example.com/repository/object.cer");
+        subject.validate(certificate, Key.of(certificate.getEncoded()), issuer, crl, options, validationResult, v -> {
+            verifications.incrementAndGet();
+            validation.accept(v);
+        });
+        return validationResult;
+    }
+
+    private static X509ResourceCertificate certificate(DateTime notValidBefore, DateTime notValidAfter) {
+        KeyPair keyPair = KEY_PAIR_FACTORY.generate();
+        return new X509ResourceCertificateBuilder()
+                .withResources(IpResourceSet.parse("10.0.0.0/8"))
+                .withIssuerDN(new X500Principal("CN=issuer"))
+                .withSubjectDN(new X500Principal("CN=subject"))
+                .withSerial(TrustAnchorsFactory.nextSerial())
+                .withPublicKey(keyPair.getPublic())
+                .withSigningKeyPair(keyPair)
+                .withValidityPeriod(new ValidityPeriod(notValidBefore, notValidAfter))
+                .build();
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import net.ripe.ipresource.IpRange;
+import net.ripe.rpki.validator3.api.Paging;
+import net.ripe.rpki.validator3.api.SearchTerm;
+import net.ripe.rpki.validator3.api.Sorting;
+import net.ripe.rpki.validator3.domain.ValidatedRoaPrefix;
+import net.ripe.rpki.validator3.storage.data.Key;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ValidatedRoaPrefixIndexTest {
+
+    private static final String[] SEARCH_TERMS = {
+            "AS10", "17", "10.0.0.0/8", "10.1.0.0/16", "10.1.2.3", "0.0.0.0/0", "2001:db8::/32", "2001:db8:1::/48",
+            "2001:db8:1:2::1", "::/0", "ripe", "apnic", "c.roa", "no match"
+    };
+
+    private List<ValidatedRoaPrefix> prefixes;
+    private List<ValidatedRoaPrefixTable> tables;
+    private ValidatedRoaPrefixIndex index;
+
+    @Before
+    public void setUp() {
+        final Random random = new Random(42);
+        tables = new ArrayList<>();
+        prefixes = new ArrayList<>();
+        for (String name : new String[]{"ripe", "apnic", "arin"}) {
+            final ValidatedRpkiObjects.TrustAnchorData trustAnchor = ValidatedRpkiObjects.TrustAnchorData.of(Key.of(name), name);
+            final List<ValidatedRoaPrefix> taPrefixes = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                final int a = random.nextInt(4);
+                final int b = random.nextInt(4);
+                final String[] candidates = {
+                        "10." + a + "." + b + ".0/24", "10." + a + ".0.0/16", "10.0.0.0/8", "0.0.0.0/0",
+                        "2001:db8:" + a + ":" + b + "::/64", "2001:db8:" + a + "::/48", "2001:db8::/32", "::/0"
+                };
+                final IpRange prefix = IpRange.parse(candidates[random.nextInt(candidates.length)]);
+                final String location = "rsync://" + name + "/" + (char) ('a' + random.nextInt(5)) + ".roa";
+                taPrefixes.add(ValidatedRoaPrefix.of(trustAnchor, random.nextInt(20), prefix,
+                        random.nextBoolean() ? null : prefix.getPrefixLength() + random.nextInt(3), 1000L, 2000L, BigInteger.valueOf(i),
+                        random.nextInt(4) == 0 ? ImmutableSortedSet.of(location, "rsync://" + name + "/f.roa") : ImmutableSortedSet.of(location)));
+            }
+            final ValidatedRoaPrefixTable table = ValidatedRoaPrefixTable.of(taPrefixes);
+            tables.add(table);
+            table.stream().forEach(prefixes::add);
+        }
+        index = ValidatedRoaPrefixIndex.of(tables);
+    }
+
+    @Test
+    public void should_find_all_prefixes_in_the_order_of_the_sorting() {
+        for (Sorting.By by : Sorting.By.values()) {
+            final List<ValidatedRoaPrefix> expected = sorted(prefixes.stream(), by);
+
+            assertEquals(by.name(), expected, find(null, Sorting.of(by, Sorting.Direction.ASC), Paging.of(0L, Long.MAX_VALUE)));
+            assertEquals(by.name(), Lists.reverse(expected), find(null, Sorting.of(by, Sorting.Direction.DESC), Paging.of(0L, Long.MAX_VALUE)));
+            assertEquals(by.name(), expected.subList(100, 125), find(null, Sorting.of(by, Sorting.Direction.ASC), Paging.of(100L, 25L)));
+        }
+        assertEquals(prefixes.size(), index.count(null));
+    }
+
+    @Test
+    public void should_search_like_search_term() {
+        for (String term : SEARCH_TERMS) {
+            final SearchTerm searchTerm = new SearchTerm(term);
+            for (Sorting.By by : ImmutableList.of(Sorting.By.PREFIX, Sorting.By.ASN, Sorting.By.TA, Sorting.By.LOCATION)) {
+                final List<ValidatedRoaPrefix> expected = sorted(prefixes.stream().filter(searchTerm), by);
+
+                assertEquals(term, expected.size(), index.count(searchTerm));
+                assertEquals(term, expected, find(searchTerm, Sorting.of(by, Sorting.Direction.ASC), Paging.of(0L, Long.MAX_VALUE)));
+                assertEquals(term, Lists.reverse(expected), find(searchTerm, Sorting.of(by, Sorting.Direction.DESC), Paging.of(0L, Long.MAX_VALUE)));
+                assertEquals(term, expected.stream().skip(3).limit(10).collect(Collectors.toList()),
+                        find(searchTerm, Sorting.of(by, Sorting.Direction.ASC), Paging.of(3L, 10L)));
+            }
+        }
+    }
+
+    @Test
+    public void should_page_past_the_end() {
+        assertEquals(ImmutableList.of(), find(null, Sorting.of(Sorting.By.TA, Sorting.Direction.ASC), Paging.of(10_000L, 20L)));
+        assertEquals(0, ValidatedRoaPrefixIndex.EMPTY.count(null));
+    }
+
+    private List<ValidatedRoaPrefix> find(SearchTerm searchTerm, Sorting sorting, Paging paging) {
+        return index.find(searchTerm, sorting, paging).collect(Collectors.toList());
+    }
+
+    private static List<ValidatedRoaPrefix> sorted(Stream<ValidatedRoaPrefix> prefixes, Sorting.By by) {
+        return prefixes.sorted(Sorting.of(by, Sorting.Direction.ASC).comparator()).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import net.ripe.ipresource.IpRange;
+import net.ripe.rpki.validator3.api.SearchTerm;
+import net.ripe.rpki.validator3.domain.ValidatedRoaPrefix;
+import net.ripe.rpki.validator3.storage.data.Key;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class ValidatedRoaPrefixTableTest {
+
+    private static final ValidatedRpkiObjects.TrustAnchorData RIPE = ValidatedRpkiObjects.TrustAnchorData.of(Key.of(1L), "RIPE NCC");
+    private static final ValidatedRpkiObjects.TrustAnchorData APNIC = ValidatedRpkiObjects.TrustAnchorData.of(Key.of(2L), "APNIC");
+
+    private final List<ValidatedRoaPrefix> prefixes = ImmutableList.of(
+            prefix(RIPE, 3333, "193.0.0.0/21", 24, BigInteger.ONE, "rsync://example.org/a.roa"),
+            prefix(RIPE, 3333, "2001:67c:2e8::/48", null, BigInteger.ONE, "rsync://example.org/a.roa"),
+            prefix(RIPE, 4294967295L, "0.0.0.0/0", 32, BigInteger.TEN, "rsync://example.org/b.roa", "https://example.org/b.roa"),
+            prefix(APNIC, 4608, "::/0", 128, BigInteger.ONE, "rsync://example.net/c.roa"),
+            prefix(APNIC, 4608, "2001:db8::1/128", null, BigInteger.ONE, "rsync://example.net/c.roa"),
+            prefix(APNIC, 4608, "8000::/1", 64, BigInteger.valueOf(7), "rsync://example.net/d.roa"),
+            prefix(APNIC, 0, "10.0.0.1/32", null, BigInteger.valueOf(7), "rsync://example.net/d.roa")
+    );
+
+    @Test
+    public void should_materialize_the_prefixes() {
+        final ValidatedRoaPrefixTable table = ValidatedRoaPrefixTable.of(prefixes);
+
+        assertEquals(prefixes.size(), table.size());
+        assertEquals(prefixes, table.stream().collect(Collectors.toList()));
+        for (int row = 0; row < table.size(); row++) {
+            assertEquals(prefixes.get(row).getAsn(), table.getAsn(row));
+            assertEquals(prefixes.get(row).getPrefix(), table.getPrefix(row));
+            assertEquals(prefixes.get(row).getTrustAnchor(), table.getTrustAnchor(row));
+        }
+    }
+
+    @Test
+    public void should_keep_distinct_prefixes() {
+        final ValidatedRoaPrefixTable table = ValidatedRoaPrefixTable.of(ImmutableList.<ValidatedRoaPrefix>builder()
+                .addAll(prefixes)
+                .addAll(prefixes)
+                .build());
+
+        assertEquals(prefixes, table.stream().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void should_search_like_search_term() {
+        final ValidatedRoaPrefixTable table = ValidatedRoaPrefixTable.of(prefixes);
+        for (String term : new String[]{"AS3333", "4608", "4294967295", "193.0.4.0/22", "193.0.8.0/22", "10.0.0.1",
+                "2001:db8::/32", "2001:67c:2e8:1::1", "ffff::/16", "0.0.0.0/0", "RIPE", "example.net", "b.roa", ""}) {
+            final SearchTerm searchTerm = new SearchTerm(term);
+            final List<ValidatedRoaPrefix> expected = prefixes.stream().filter(searchTerm).collect(Collectors.toList());
+            assertEquals(term, expected, table.stream(searchTerm).collect(Collectors.toList()));
+            assertEquals(term, expected.size(), table.count(searchTerm));
+        }
+    }
+
+    private static ValidatedRoaPrefix prefix(ValidatedRpkiObjects.TrustAnchorData trustAnchor, long asn, String prefix, Integer maximumLength,
+                                             BigInteger serialNumber, String... locations) {
+        return ValidatedRoaPrefix.of(trustAnchor, asn, IpRange.parse(prefix), maximumLength, 1000L, 2000L,
+                serialNumber, ImmutableSortedSet.copyOf(locations));
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.domain.validation;
+
+import com.google.common.collect.ImmutableSortedSet;
+import net.ripe.ipresource.IpRange;
+import net.ripe.rpki.validator3.domain.ValidatedRoaPrefix;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.data.Ref;
+import net.ripe.rpki.validator3.storage.data.TrustAnchor;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ValidatedRpkiObjectsTest {
+
+    private final ValidatedRpkiObjects validatedRpkiObjects = new ValidatedRpkiObjects();
+
+    @Test
+    public void should_publish_a_new_version_for_every_change() {
+        final ValidatedRpkiObjects.Snapshot empty = validatedRpkiObjects.getSnapshot();
+
+        validatedRpkiObjects.updateByKey(trustAnchor(1), accumulator(1, "10.0.0.0/8", "2001:db8::/32"));
+        final ValidatedRpkiObjects.Snapshot first = validatedRpkiObjects.getSnapshot();
+        validatedRpkiObjects.updateByKey(trustAnchor(2), accumulator(2, "192.168.0.0/16"));
+        final ValidatedRpkiObjects.Snapshot second = validatedRpkiObjects.getSnapshot();
+
+        assertTrue(empty.getVersion() < first.getVersion());
+        assertTrue(first.getVersion() < second.getVersion());
+        assertEquals(2, first.getRoaPrefixIndex().size());
+        assertEquals(3, second.getRoaPrefixIndex().size());
+        assertEquals(3, validatedRpkiObjects.findCurrentlyValidatedRoaPrefixes().getTotalCount());
+
+        final TrustAnchor removed = new TrustAnchor(false);
+        removed.setId(Key.of(1L));
+        validatedRpkiObjects.remove(removed);
+
+        assertEquals(1, validatedRpkiObjects.findCurrentlyValidatedRoaPrefixes().getTotalCount());
+        // Earlier snapshots do not change
+        assertEquals(3, second.getRoaPrefixIndex().size());
+    }
+
+    @Test
+    public void should_notify_listeners_of_the_latest_version_only() throws Exception {
+        final CountDownLatch listening = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> notified = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(3);
+        validatedRpkiObjects.addListener((Collection<ValidatedRpkiObjects.RoaPrefixesAndRouterCertificates> objects) -> {
+            if (!objects.isEmpty()) {
+                listening.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            notified.add(objects.size());
+            done.countDown();
+        });
+        // The current version is passed before adding the listener returns
+        assertEquals(Collections.singletonList(0), notified);
+
+        validatedRpkiObjects.updateByKey(trustAnchor(1), accumulator(1, "10.0.0.0/8"));
+        assertTrue(listening.await(10, TimeUnit.SECONDS));
+
+        // The listener is still busy with the first update, the updates are not blocked by it
+        for (int i = 2; i <= 5; i++) {
+            validatedRpkiObjects.updateByKey(trustAnchor(i), accumulator(i, "10.0.0.0/8"));
+        }
+        release.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(Arrays.asList(0, 1, 5), notified);
+    }
+
+    @Test
+    public void should_not_notify_a_listener_added_while_notifying_of_the_same_version_twice() throws Exception {
+        final CountDownLatch listening = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        validatedRpkiObjects.addListener((Collection<ValidatedRpkiObjects.RoaPrefixesAndRouterCertificates> objects) -> {
+            if (objects.size() == 1) {
+                listening.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else if (objects.size() == 2) {
+                done.countDown();
+            }
+        });
+        validatedRpkiObjects.updateByKey(trustAnchor(1), accumulator(1, "10.0.0.0/8"));
+        assertTrue(listening.await(10, TimeUnit.SECONDS));
+        validatedRpkiObjects.updateByKey(trustAnchor(2), accumulator(2, "10.0.0.0/8"));
+
+        // Added while the listener thread is busy, it is notified of the newer version once
+        final List<Integer> notified = new CopyOnWriteArrayList<>();
+        validatedRpkiObjects.addListener(objects -> notified.add(objects.size()));
+        assertEquals(Collections.singletonList(2), notified);
+        release.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(Collections.singletonList(2), notified);
+    }
+
+    private static Ref<TrustAnchor> trustAnchor(long id) {
+        return Ref.unsafe("trust-anchors", Key.of(id));
+    }
+
+    private static ValidatedRpkiObjects.Accumulator accumulator(long trustAnchorId, String... prefixes) {
+        final ValidatedRpkiObjects.TrustAnchorData trustAnchorData = ValidatedRpkiObjects.TrustAnchorData.of(Key.of(trustAnchorId), "ta-" + trustAnchorId);
+        final ValidatedRpkiObjects.Accumulator accumulator = new ValidatedRpkiObjects.Accumulator();
+        for (String prefix : prefixes) {
+            accumulator.getValidatedRoaPrefixes().add(ValidatedRoaPrefix.of(trustAnchorData, 3333, IpRange.parse(prefix), null,
+                    1000L, 2000L, BigInteger.ONE, ImmutableSortedSet.of("rsync://example.org/" + trustAnchorId + ".roa")));
+        }
+        return accumulator;
+    }
+}
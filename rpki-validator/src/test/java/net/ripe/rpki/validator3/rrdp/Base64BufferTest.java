@@ -0,0 +1,104 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.rrdp;
+
+import org.junit.Test;
+
+import java.util.Base64;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class Base64BufferTest {
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void should_decode_chunked_input_with_whitespace() {
+        final Base64Buffer buffer = new Base64Buffer(4);
+        for (int length = 0; length < 200; length++) {
+            final byte[] data = new byte[length];
+            random.nextBytes(data);
+            final char[] encoded = withWhitespace(Base64.getEncoder().encodeToString(data));
+
+            int start = 0;
+            while (start < encoded.length) {
+                final int chunk = Math.min(encoded.length - start, 1 + random.nextInt(10));
+                buffer.append(encoded, start, chunk);
+                start += chunk;
+            }
+
+            assertThat(buffer.toByteArray()).isEqualTo(data);
+            buffer.reset();
+        }
+    }
+
+    @Test
+    public void should_accept_missing_padding() {
+        assertThat(decode("YWI")).isEqualTo("ab".getBytes());
+        assertThat(decode("YQ")).isEqualTo("a".getBytes());
+    }
+
+    @Test
+    public void should_reject_invalid_input() {
+        assertThatThrownBy(() -> decode("YW*j")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> decode("YWJj\nZ")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> decode("YQ==YWJj")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> decode("Y===")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void should_reject_padding_that_does_not_complete_the_last_unit() {
+        assertThat(decode("YQ==")).isEqualTo("a".getBytes());
+        assertThat(decode("YWI=")).isEqualTo("ab".getBytes());
+        for (String base64 : new String[]{"AA=", "AAA==", "AA===", "YWJj="}) {
+            assertThatThrownBy(() -> Base64.getDecoder().decode(base64)).isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> decode(base64)).isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    private static byte[] decode(String base64) {
+        final Base64Buffer buffer = new Base64Buffer();
+        buffer.append(base64.toCharArray(), 0, base64.length());
+        return buffer.toByteArray();
+    }
+
+    private char[] withWhitespace(String base64) {
+        final StringBuilder sb = new StringBuilder("\n  ");
+        for (int i = 0; i < base64.length(); i++) {
+            sb.append(base64.charAt(i));
+            if (random.nextInt(16) == 0) {
+                sb.append(random.nextBoolean() ? "\r\n" : " \t");
+            }
+        }
+        return sb.append("\n").toString().toCharArray();
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.rrdp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class DeltaPrefetcherTest {
+
+    private final RrdpClientStub rrdpClient = new RrdpClientStub();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void should_apply_deltas_in_order() throws Exception {
+        final List<DeltaInfo> deltas = deltas(10);
+        final List<String> applied = new ArrayList<>();
+        final List<Path> files = new ArrayList<>();
+
+        final AtomicLong bytesOnDisk = new AtomicLong();
+        final DeltaPrefetcher prefetcher = new DeltaPrefetcher(rrdpClient, executor, 3, Long.MAX_VALUE, bytesOnDisk);
+        prefetcher.forEachInOrder(deltas, (delta, file) -> {
+            try {
+                applied.add(new String(Files.readAllBytes(file.getPath()), US_ASCII));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            files.add(file.getPath());
+        });
+
+        assertThat(applied).containsExactly("0", "1", "2", "3", "4", "5", "6", "7", "8", "9");
+        assertThat(files).noneMatch(Files::exists);
+        assertThat(bytesOnDisk.get()).isZero();
+    }
+
+    @Test
+    public void should_stop_at_first_failure() {
+        final List<DeltaInfo> deltas = deltas(5);
+        final List<BigInteger> applied = new ArrayList<>();
+
+        assertThatThrownBy(() -> new DeltaPrefetcher(rrdpClient, executor, 3, 0, new AtomicLong()).forEachInOrder(deltas, (delta, file) -> {
+            if (delta.getSerial().equals(BigInteger.valueOf(2))) {
+                throw new RrdpException("rrdp.test", "cannot apply delta");
+            }
+            applied.add(delta.getSerial());
+        })).isInstanceOf(RrdpException.class).hasMessage("cannot apply delta");
+
+        assertThat(applied).containsExactly(BigInteger.ZERO, BigInteger.ONE);
+    }
+
+    @Test
+    public void should_share_the_byte_budget_between_prefetchers() {
+        final List<DeltaInfo> deltas = deltas(3);
+        final List<Integer> fetchedWhenApplied = new ArrayList<>();
+
+        // The deltas of another repository already take up the budget, only the delta needed next is downloaded
+        final AtomicLong bytesOnDisk = new AtomicLong(100);
+        new DeltaPrefetcher(rrdpClient, executor, 3, 100, bytesOnDisk).forEachInOrder(deltas, (delta, file) ->
+                fetchedWhenApplied.add((int) deltas.stream().filter(d -> rrdpClient.fetchCount(d.getUri()) > 0).count()));
+
+        assertThat(fetchedWhenApplied).containsExactly(1, 2, 3);
+        assertThat(bytesOnDisk.get()).isEqualTo(100);
+    }
+
+    private List<DeltaInfo> deltas(int count) {
+        final List<DeltaInfo> deltas = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final String uri = "https://host/path/delta-" + i + ".xml";
+            rrdpClient.add(uri, Integer.toString(i).getBytes(US_ASCII));
+            deltas.add(new DeltaInfo(uri, "", BigInteger.valueOf(i)));
+        }
+        return deltas;
+    }
+}
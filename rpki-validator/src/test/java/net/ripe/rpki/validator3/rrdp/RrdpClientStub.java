@@ -40,12 +40,15 @@ import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
 public class RrdpClientStub extends HttpRrdpClient {
 
     private Map<String, byte[]> contents = new HashMap<>();
+    // Fetched concurrently by the delta prefetcher
+    private final Map<String, Integer> fetchCounts = new ConcurrentHashMap<>();
 
     public RrdpClientStub() {
         super(null, null, null);
@@ -54,6 +57,7 @@ public class RrdpClientStub extends HttpRrdpClient {
     @Override
     public <T> T readStream(String uri, Function<InputStream, T> reader) {
         final byte[] bytes = contents.get(uri);
+        fetchCounts.merge(uri, 1, Integer::sum);
         return reader.apply(new ByteArrayInputStream(bytes));
     }
 
@@ -65,4 +69,8 @@ public class RrdpClientStub extends HttpRrdpClient {
     public void add(String uri, byte[] content) {
         contents.put(uri, content);
     }
+
+    public int fetchCount(String uri) {
+        return fetchCounts.getOrDefault(uri, 0);
+    }
 }
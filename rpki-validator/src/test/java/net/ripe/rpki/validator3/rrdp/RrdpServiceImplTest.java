@@ -30,9 +30,12 @@
 package net.ripe.rpki.validator3.rrdp;
 
 import com.google.common.collect.Sets;
+import fj.data.Either;
+import net.ripe.rpki.commons.validation.ValidationResult;
 import net.ripe.rpki.validator3.IntegrationTest;
 import net.ripe.rpki.validator3.TestObjects;
 import net.ripe.rpki.validator3.domain.ErrorCodes;
+import net.ripe.rpki.validator3.domain.RpkiObjectUtils;
 import net.ripe.rpki.validator3.domain.metrics.RrdpMetricsService;
 import net.ripe.rpki.validator3.storage.Tx;
 import net.ripe.rpki.validator3.storage.data.Ref;
@@ -44,9 +47,11 @@ import net.ripe.rpki.validator3.storage.data.validation.ValidationCheck;
 import net.ripe.rpki.validator3.storage.stores.impl.GenericStorageTest;
 import net.ripe.rpki.validator3.util.Hex;
 import net.ripe.rpki.validator3.util.Sha256;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.test.context.junit4.SpringRunner;
 
@@ -58,6 +63,8 @@ import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 @RunWith(SpringRunner.class)
 @IntegrationTest
@@ -73,10 +80,13 @@ public class RrdpServiceImplTest extends GenericStorageTest {
     @MockBean
     private RrdpMetricsService rrdpMetricsService;
 
+    @Autowired
+    private SnapshotIngestPipeline snapshotIngestPipeline;
+
     @Before
     public void setUp() throws Exception {
         super.setUp();
-        subject = new RrdpServiceImpl(rrdpClient, this.getRpkiObjects(), this.getRpkiRepositories(), getStorage(), rrdpMetricsService);
+        subject = new RrdpServiceImpl(rrdpClient, this.getRpkiObjects(), this.getRpkiRepositories(), getStorage(), rrdpMetricsService, snapshotIngestPipeline, 4, Long.MAX_VALUE);
     }
 
     @Test
@@ -94,14 +104,19 @@ public class RrdpServiceImplTest extends GenericStorageTest {
         final RrdpRepositoryValidationRun validationRun = wtx(tx ->
                 this.getValidationRuns().add(tx, new RrdpRepositoryValidationRun(rpkiRepositoryRef)));
 
-        new RrdpParser().parseSnapshot(
-                Objects.fileIS("rrdp/snapshot2.xml"),
-                (snapshotInfo) -> {
-                },
-                (snapshotObject) -> {
-                    subject.storeSnapshotObjects(Collections.singletonList(snapshotObject), validationRun);
-                }
-        );
+        try (SnapshotIngestPipeline.Ingest<SnapshotObject, Either<ValidationResult, Pair<String, RpkiObject>>> ingest = snapshotIngestPipeline.start(
+                value -> RpkiObjectUtils.createRpkiObject(value.getUri(), value.getContent()),
+                converted -> subject.storeConvertedSnapshotObjects(converted, validationRun))) {
+            new RrdpParser().parseSnapshot(
+                    Objects.fileIS("rrdp/snapshot2.xml"),
+                    (snapshotInfo) -> {
+                    },
+                    (snapshotObject) -> {
+                        ingest.submit(Collections.singletonList(snapshotObject));
+                    }
+            );
+            assertEquals(3, ingest.finish());
+        }
 
         final List<RpkiObject> objects = rtx(tx -> this.getRpkiObjects().values(tx));
         assertEquals(3, objects.size());
@@ -558,6 +573,44 @@ public class RrdpServiceImplTest extends GenericStorageTest {
     }
 
 
+    @Test
+    public void should_report_failure_of_snapshot_chosen_over_deltas_as_snapshot_failure() {
+        final byte[] certificate = Objects.aParseableCertificate();
+        final String sessionId = UUID.randomUUID().toString();
+        final byte[] snapshotXml = Objects.snapshotXml(2, sessionId);
+
+        final Objects.SnapshotInfo snapshot = new Objects.SnapshotInfo(SNAPSHOT_URL, Hex.parse("FFFFFF"));
+        rrdpClient.add(snapshot.uri, snapshotXml);
+
+        final byte[] deltaXml = Objects.deltaXml(2, sessionId, new Objects.DeltaPublish("rsync://host/path/cert.cer", certificate));
+        final Objects.DeltaInfo deltaInfo = new Objects.DeltaInfo("https://host/path/delta1.xml", Sha256.hash(deltaXml), 2);
+        rrdpClient.add(deltaInfo.uri, deltaXml);
+        rrdpClient.add(RRDP_RIPE_NET_NOTIFICATION_XML, Objects.notificationXml(2, sessionId, snapshot, deltaInfo));
+
+        // Earlier downloads make the snapshot much cheaper than the delta
+        subject.syncCostModel.recordSnapshotSize(RRDP_RIPE_NET_NOTIFICATION_XML, 1);
+        subject.syncCostModel.recordDeltaSize(RRDP_RIPE_NET_NOTIFICATION_XML, 10_000_000);
+
+        final TrustAnchor trustAnchor = TestObjects.newTrustAnchor();
+        wtx0(tx -> this.getTrustAnchors().add(tx, trustAnchor));
+        final RpkiRepository rpkiRepository = makeRpkiRepository(sessionId, RRDP_RIPE_NET_NOTIFICATION_XML, trustAnchor);
+        Ref<RpkiRepository> rpkiRepositoryRef = rtx(tx -> this.getRpkiRepositories().makeRef(tx, rpkiRepository.key()));
+        final RrdpRepositoryValidationRun validationRun = wtx(tx ->
+                this.getValidationRuns().add(tx, new RrdpRepositoryValidationRun(rpkiRepositoryRef)));
+
+        subject.storeRepository(rpkiRepository, validationRun);
+
+        assertEquals(1, rrdpClient.fetchCount(SNAPSHOT_URL));
+        assertEquals(0, rrdpClient.fetchCount(deltaInfo.uri));
+        verify(rrdpMetricsService, never()).update(RRDP_RIPE_NET_NOTIFICATION_XML, ErrorCodes.RRDP_FETCH_DELTAS);
+
+        assertEquals(1, validationRun.getValidationChecks().size());
+        final ValidationCheck validationCheck = validationRun.getValidationChecks().get(0);
+        assertEquals(ErrorCodes.RRDP_FETCH, validationCheck.getKey());
+        assertEquals(ValidationCheck.Status.ERROR, validationCheck.getStatus());
+        assertTrue(validationCheck.getParameters().get(0).startsWith("Hash of the snapshot file " + SNAPSHOT_URL));
+    }
+
     private RpkiRepository makeRpkiRepository(String sessionId, String notificationUri, TrustAnchor trustAnchor) {
         RpkiRepository rpkiRepository = wtx(tx -> {
             final Ref<TrustAnchor> trustAnchorRef = this.getTrustAnchors().makeRef(tx, trustAnchor.key());
@@ -0,0 +1,83 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.rrdp;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RrdpSyncCostModelTest {
+
+    private static final String NOTIFY_URI = "https://rrdp.example.org/notification.xml";
+
+    private final RrdpSyncCostModel model = new RrdpSyncCostModel();
+
+    @Test
+    public void should_use_deltas_without_history() {
+        model.recordDeltaSize(NOTIFY_URI, 1_000);
+
+        final RrdpSyncCostModel.Decision decision = model.decide(NOTIFY_URI, 500);
+
+        assertThat(decision.getPath()).isEqualTo(RrdpSyncCostModel.SyncPath.DELTAS);
+        assertThat(decision.getReason()).isEqualTo("no size history for this repository");
+    }
+
+    @Test
+    public void should_use_deltas_when_cheaper() {
+        model.recordSnapshotSize(NOTIFY_URI, 50_000_000);
+        model.recordDeltaSize(NOTIFY_URI, 10_000);
+
+        final RrdpSyncCostModel.Decision decision = model.decide(NOTIFY_URI, 10);
+
+        assertThat(decision.getPath()).isEqualTo(RrdpSyncCostModel.SyncPath.DELTAS);
+        assertThat(decision.getEstimatedDeltasBytes()).isEqualTo(10 * (10_000 + RrdpSyncCostModel.REQUEST_OVERHEAD_BYTES));
+    }
+
+    @Test
+    public void should_use_snapshot_when_many_deltas_are_missing() {
+        model.recordSnapshotSize(NOTIFY_URI, 1_000_000);
+        model.recordDeltaSize(NOTIFY_URI, 10_000);
+
+        final RrdpSyncCostModel.Decision decision = model.decide(NOTIFY_URI, 100);
+
+        assertThat(decision.getPath()).isEqualTo(RrdpSyncCostModel.SyncPath.SNAPSHOT);
+        assertThat(decision.getEstimatedSnapshotBytes()).isEqualTo(1_000_000 + RrdpSyncCostModel.REQUEST_OVERHEAD_BYTES);
+    }
+
+    @Test
+    public void should_smooth_sizes_per_repository() {
+        model.recordSnapshotSize(NOTIFY_URI, 1_000_000);
+        model.recordSnapshotSize(NOTIFY_URI, 2_000_000);
+        model.recordDeltaSize(NOTIFY_URI, 10_000);
+        model.recordSnapshotSize("https://other.example.org/notification.xml", 1);
+
+        assertThat(model.decide(NOTIFY_URI, 1).getEstimatedSnapshotBytes()).isEqualTo(1_200_000 + RrdpSyncCostModel.REQUEST_OVERHEAD_BYTES);
+    }
+}
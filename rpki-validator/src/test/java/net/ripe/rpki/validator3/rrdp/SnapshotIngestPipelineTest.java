@@ -0,0 +1,87 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.rrdp;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SnapshotIngestPipelineTest {
+
+    private final SnapshotIngestPipeline subject = new SnapshotIngestPipeline(4, 2, new SimpleMeterRegistry());
+
+    @After
+    public void tearDown() {
+        subject.shutdown();
+    }
+
+    @Test
+    public void should_write_batches_in_submission_order() {
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+
+        final int count;
+        try (SnapshotIngestPipeline.Ingest<Integer, Integer> ingest = subject.start(i -> i * 2, batch -> {
+            written.addAll(batch);
+            return batch.size();
+        })) {
+            for (int i = 0; i < 100; i++) {
+                ingest.submit(IntStream.range(i * 10, i * 10 + 10).boxed().collect(Collectors.toList()));
+            }
+            count = ingest.finish();
+        }
+
+        assertThat(count).isEqualTo(1000);
+        assertThat(written).isEqualTo(IntStream.range(0, 1000).map(i -> i * 2).boxed().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void should_report_decoding_failure() {
+        try (SnapshotIngestPipeline.Ingest<Integer, Integer> ingest = subject.start(i -> {
+            if (i == 3) {
+                throw new RrdpException("rrdp.test", "cannot decode");
+            }
+            return i;
+        }, List::size)) {
+            ingest.submit(Arrays.asList(1, 2));
+            ingest.submit(Arrays.asList(3, 4));
+            assertThatThrownBy(ingest::finish).isInstanceOf(RrdpException.class).hasMessageContaining("cannot decode");
+        }
+    }
+}
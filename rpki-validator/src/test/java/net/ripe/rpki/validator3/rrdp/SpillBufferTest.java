@@ -0,0 +1,100 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.rrdp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpillBufferTest {
+
+    @Test
+    public void should_keep_small_buffer_in_memory() {
+        final List<SnapshotObject> result = new ArrayList<>();
+        try (SpillBuffer<SnapshotObject> buffer = SpillBuffer.snapshotObjects(1000)) {
+            buffer.add(new SnapshotObject(new byte[]{1, 2, 3}, "rsync://host/repo/a.mft"));
+            buffer.add(new SnapshotObject(new byte[]{4, 5}, "rsync://host/repo/b.mft"));
+
+            assertThat(buffer.isSpilled()).isFalse();
+            buffer.forEach(result::add);
+        }
+
+        assertThat(result).extracting(SnapshotObject::getUri).containsExactly("rsync://host/repo/a.mft", "rsync://host/repo/b.mft");
+    }
+
+    @Test
+    public void should_spill_snapshot_objects_in_order() {
+        final List<SnapshotObject> result = new ArrayList<>();
+        try (SpillBuffer<SnapshotObject> buffer = SpillBuffer.snapshotObjects(30)) {
+            for (int i = 0; i < 10; i++) {
+                buffer.add(new SnapshotObject(new byte[]{(byte) i, (byte) (i + 1)}, "rsync://host/repo/" + i + ".mft"));
+            }
+
+            assertThat(buffer.isSpilled()).isTrue();
+            assertThat(buffer.size()).isEqualTo(10);
+            buffer.forEach(result::add);
+        }
+
+        assertThat(result).hasSize(10);
+        for (int i = 0; i < 10; i++) {
+            assertThat(result.get(i).getUri()).isEqualTo("rsync://host/repo/" + i + ".mft");
+            assertThat(result.get(i).getContent()).containsExactly((byte) i, (byte) (i + 1));
+        }
+    }
+
+    @Test
+    public void should_spill_delta_elements() {
+        final List<DeltaElement> result = new ArrayList<>();
+        try (SpillBuffer<DeltaElement> buffer = SpillBuffer.deltaElements(0)) {
+            buffer.add(new DeltaPublish(new byte[]{1}, "rsync://host/repo/a.mft", null));
+            buffer.add(new DeltaPublish(new byte[]{2}, "rsync://host/repo/b.mft", new byte[]{3, 4}));
+            buffer.add(new DeltaWithdraw("rsync://host/repo/c.mft", new byte[]{5, 6}));
+
+            buffer.forEach(result::add);
+        }
+
+        assertThat(result).hasSize(3);
+        final DeltaPublish a = (DeltaPublish) result.get(0);
+        assertThat(a.getUri()).isEqualTo("rsync://host/repo/a.mft");
+        assertThat(a.getContent()).containsExactly(1);
+        assertThat(a.getHash()).isEmpty();
+
+        final DeltaPublish b = (DeltaPublish) result.get(1);
+        assertThat(b.getContent()).containsExactly(2);
+        assertThat(b.getHash().get()).containsExactly(3, 4);
+
+        final DeltaWithdraw c = (DeltaWithdraw) result.get(2);
+        assertThat(c.getUri()).isEqualTo("rsync://host/repo/c.mft");
+        assertThat(c.getHash()).containsExactly(5, 6);
+    }
+}
@@ -32,12 +32,14 @@ package net.ripe.rpki.validator3.storage;
 import com.google.common.collect.Sets;
 import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.util.Time;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -52,6 +54,7 @@ import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -102,6 +105,50 @@ public abstract class IxMapTest {
     }
 
 
+    @Test
+    public void getAllInKeyOrder() {
+        wtx0(tx -> {
+            ixMap.put(tx, Key.of(3L), "c");
+            ixMap.put(tx, Key.of(1L), "a");
+            ixMap.put(tx, Key.of(5L), "e");
+            ixMap.put(tx, Key.of(-1L), "z");
+        });
+
+        rtx0(tx -> {
+            final Map<Key, String> all = ixMap.getAll(tx, Arrays.asList(Key.of(5L), Key.of(-1L), Key.of(2L), Key.of(1L), Key.of(5L), Key.of(7L)));
+            assertEquals(Arrays.asList(Key.of(1L), Key.of(5L), Key.of(-1L)), new ArrayList<>(all.keySet()));
+            assertEquals(Arrays.asList("a", "e", "z"), new ArrayList<>(all.values()));
+
+            final List<String> raw = new ArrayList<>();
+            ixMap.getAllRaw(tx, Sets.newHashSet(Key.of(3L), Key.of(4L)), (k, bytes) -> raw.add(ixMap.toValue(bytes)));
+            assertEquals(Collections.singletonList("c"), raw);
+
+            assertEquals(Collections.emptyMap(), ixMap.getAll(tx, Collections.emptyList()));
+        });
+    }
+
+    @Test
+    public void streamLazily() {
+        wtx0(tx -> {
+            ixMap.put(tx, Key.of(3L), "cc");
+            ixMap.put(tx, Key.of(1L), "a");
+            ixMap.put(tx, Key.of(2L), "bb");
+        });
+
+        rtx0(tx -> {
+            assertEquals(Arrays.asList(Key.of(1L), Key.of(2L), Key.of(3L)), ixMap.streamKeys(tx).collect(Collectors.toList()));
+            assertEquals(Arrays.asList("a", "bb", "cc"), ixMap.streamValues(tx).collect(Collectors.toList()));
+            assertEquals(Pair.of(Key.of(2L), "bb"), ixMap.streamAll(tx).skip(1).findFirst().get());
+            assertEquals(Arrays.asList(Key.of(2L), Key.of(3L)), ixMap.streamPkByIndex(LENGTH_INDEX, tx, intKey(2)).collect(Collectors.toList()));
+            assertEquals(0, ixMap.streamPkByIndex(LENGTH_INDEX, tx, intKey(4)).count());
+
+            // a partially consumed stream releases its cursor when it is closed
+            try (Stream<String> values = ixMap.streamValues(tx)) {
+                assertEquals("a", values.findFirst().get());
+            }
+        });
+    }
+
     @Test
     public void putAndUpdateWithBiggerValue() {
         Random r = new Random();
@@ -0,0 +1,95 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.data;
+
+import com.google.common.cache.Cache;
+import com.google.common.io.ByteStreams;
+import net.ripe.rpki.commons.crypto.cms.roa.RoaCms;
+import net.ripe.rpki.commons.crypto.crl.X509Crl;
+import net.ripe.rpki.commons.crypto.util.CertificateRepositoryObjectFactory;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ParsedObjectCacheTest {
+
+    private RpkiObject rpkiObject;
+
+    @Before
+    public void setUp() throws IOException {
+        byte[] content = ByteStreams.toByteArray(getClass().getResourceAsStream("/557B4C46969B11E681906146C4F9AE02.roa"));
+        rpkiObject = new RpkiObject(CertificateRepositoryObjectFactory.createCertificateRepositoryObject(content, ValidationResult.withLocation("whatever.roa")));
+    }
+
+    @After
+    public void tearDown() {
+        ParsedObjectCache.configure(ParsedObjectCache.DEFAULT_MAXIMUM_WEIGHT, false);
+    }
+
+    @Test
+    public void should_reuse_decoded_object() {
+        Cache<Key, ?> cache = ParsedObjectCache.configure(1024 * 1024, false);
+
+        Optional<RoaCms> first = rpkiObject.get(RoaCms.class, "whatever.roa");
+        Optional<RoaCms> second = rpkiObject.get(RoaCms.class, "whatever.roa");
+
+        assertThat(first).isPresent();
+        assertThat(second.get()).isSameAs(first.get());
+        assertThat(cache.stats().missCount()).isEqualTo(1);
+        assertThat(cache.stats().hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void should_check_type_of_cached_object() {
+        ParsedObjectCache.configure(1024 * 1024, false);
+        rpkiObject.get(RoaCms.class, "whatever.roa");
+
+        ValidationResult validationResult = ValidationResult.withLocation("whatever.roa");
+        assertThat(rpkiObject.get(X509Crl.class, validationResult)).isEmpty();
+        assertThat(validationResult.hasFailures()).isTrue();
+    }
+
+    @Test
+    public void should_not_keep_objects_larger_than_the_cache() {
+        Cache<Key, ?> cache = ParsedObjectCache.configure(rpkiObject.getEncoded().length - 1, false);
+
+        Optional<RoaCms> first = rpkiObject.get(RoaCms.class, "whatever.roa");
+        Optional<RoaCms> second = rpkiObject.get(RoaCms.class, "whatever.roa");
+
+        assertThat(second.get()).isNotSameAs(first.get());
+        assertThat(cache.size()).isZero();
+    }
+}
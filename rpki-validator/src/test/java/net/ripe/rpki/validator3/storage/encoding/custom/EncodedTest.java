@@ -31,6 +31,7 @@ package net.ripe.rpki.validator3.storage.encoding.custom;
 
 import com.pholser.junit.quickcheck.Property;
 import com.pholser.junit.quickcheck.runner.JUnitQuickcheck;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.nio.charset.StandardCharsets;
@@ -39,6 +40,7 @@ import java.util.Map;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 
 @RunWith(JUnitQuickcheck.class)
@@ -51,11 +53,37 @@ public class EncodedTest {
             for (short tag = 0; tag < s.size(); tag++) {
                 e.append(tag, s.get(tag).getBytes(StandardCharsets.UTF_8));
             }
-            final Encoded encoded = Encoded.fromByteArray(e.toByteArray());
+            final EncodedView encoded = EncodedView.of(e.toByteArray());
             for (short tag = 0; tag < s.size(); tag++) {
-                byte[] bytes = encoded.getContent().get(tag);
+                byte[] bytes = encoded.get(tag);
                 assertEquals(s.get(tag), new String(bytes, StandardCharsets.UTF_8));
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Written by the encoder that kept the fields in a HashMap, with the fields appended in the order
+     * 2, 33, 1, 17 and stored in the iteration order of the HashMap: 33, 1, 17, 2.
+     */
+    private static final byte[] LEGACY_ENCODED = {
+            0, 0, 0, 4,
+            0, 33, 0, 0, 0, 28,
+            0, 1, 0, 0, 0, 40,
+            0, 17, 0, 0, 0, 43,
+            0, 2, 0, 0, 0, 52,
+            't', 'h', 'i', 'r', 't', 'y', '-', 't', 'h', 'r', 'e', 'e',
+            'o', 'n', 'e',
+            's', 'e', 'v', 'e', 'n', 't', 'e', 'e', 'n',
+            't', 'w', 'o'
+    };
+
+    @Test
+    public void decodeLegacyEncoded() {
+        final EncodedView encoded = EncodedView.of(LEGACY_ENCODED);
+        assertEquals("one", encoded.getString((short) 1));
+        assertEquals("two", encoded.getString((short) 2));
+        assertEquals("seventeen", encoded.getString((short) 17));
+        assertEquals("thirty-three", encoded.getString((short) 33));
+        assertFalse(encoded.has((short) 3));
+    }
+}
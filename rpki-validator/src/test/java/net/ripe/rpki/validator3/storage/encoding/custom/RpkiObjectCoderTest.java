@@ -54,6 +54,9 @@ import java.security.KeyPair;
 
 import static net.ripe.rpki.validator3.domain.ta.TrustAnchorsFactory.KEY_PAIR_FACTORY;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(SpringRunner.class)
 @IntegrationTest
@@ -95,4 +98,23 @@ public class RpkiObjectCoderTest {
         assertEquals(rpkiObject, rpkiObject1);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testMetadataOnly() throws IOException {
+        InputStream is = this.getClass().getResourceAsStream("/557B4C46969B11E681906146C4F9AE02.roa");
+        byte[] content = ByteStreams.toByteArray(is);
+
+        ValidationResult validationResult = ValidationResult.withLocation("whatever.roa");
+        CertificateRepositoryObject repositoryObject = CertificateRepositoryObjectFactory.createCertificateRepositoryObject(content, validationResult);
+        RpkiObject rpkiObject = new RpkiObject(repositoryObject);
+
+        byte[] metadata = RpkiObjectCoder.metadataOnly().toBytes(rpkiObject);
+        assertFalse(RpkiObjectCoder.hasEncoded(metadata));
+        assertTrue(RpkiObjectCoder.hasEncoded(new RpkiObjectCoder().toBytes(rpkiObject)));
+
+        RpkiObject rpkiObject1 = RpkiObjectCoder.metadataOnly().fromBytes(metadata);
+        assertNull(rpkiObject1.getEncoded());
+        rpkiObject1.setEncoded(content);
+        assertEquals(rpkiObject, rpkiObject1);
+    }
+
+}
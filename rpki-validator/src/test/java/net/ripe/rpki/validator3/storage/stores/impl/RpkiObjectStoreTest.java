@@ -0,0 +1,272 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.stores.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.UnsignedBytes;
+import com.google.common.util.concurrent.Uninterruptibles;
+import net.ripe.rpki.commons.crypto.util.CertificateRepositoryObjectFactory;
+import net.ripe.rpki.commons.validation.ValidationResult;
+import net.ripe.rpki.validator3.api.util.InstantWithoutNanos;
+import net.ripe.rpki.validator3.storage.IxMap;
+import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.data.RpkiObject;
+import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
+import net.ripe.rpki.validator3.storage.encoding.custom.RpkiObjectCoder;
+import net.ripe.rpki.validator3.storage.xodus.Xodus;
+import net.ripe.rpki.validator3.storage.xodus.XodusTests;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RpkiObjectStoreTest {
+
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private Xodus xodus;
+    private SettingsStore settings;
+
+    private RpkiObject roa;
+    private RpkiObject ta;
+
+    @Before
+    public void setUp() throws Exception {
+        xodus = XodusTests.makeXodus(tmp.newFolder().getAbsolutePath());
+        settings = new SettingsStore(xodus);
+        roa = readObject("/557B4C46969B11E681906146C4F9AE02.roa");
+        ta = readObject("/ripe-ncc-ta.cer");
+    }
+
+    @Test
+    public void testMoveEncodedToSeparateMap() throws Exception {
+        writeLegacy(roa, ta);
+
+        final RpkiObjectStore store = movedStore();
+
+        assertFalse(storedWithEncoded(roa));
+        assertFalse(storedWithEncoded(ta));
+        assertTrue(xodus.readTx(settings::areEncodedObjectsMoved));
+
+        assertEncodedReadBack(store, roa, ta);
+    }
+
+    @Test
+    public void testReadWhileMovingEncoded() throws Exception {
+        writeLegacy(roa, ta);
+
+        final CountDownLatch moving = new CountDownLatch(1);
+        xodus.runInBackground(() -> Uninterruptibles.awaitUninterruptibly(moving));
+        final RpkiObjectStore store = store();
+        try {
+            // The store is usable right away, the objects that are not moved yet contain the encoded objects
+            assertFalse(store.encodedMoved().isDone());
+            assertTrue(storedWithEncoded(roa));
+            assertEncodedReadBack(store, roa, ta);
+        } finally {
+            moving.countDown();
+        }
+
+        store.encodedMoved().get(10, TimeUnit.SECONDS);
+        assertFalse(storedWithEncoded(roa));
+        assertFalse(storedWithEncoded(ta));
+        assertEncodedReadBack(store, roa, ta);
+    }
+
+    @Test
+    public void testContinueMovingEncodedAfterProgress() throws Exception {
+        writeLegacy(roa, ta);
+        final RpkiObject first = UnsignedBytes.lexicographicalComparator().compare(roa.key().getBytes(), ta.key().getBytes()) < 0 ? roa : ta;
+        final RpkiObject second = first == roa ? ta : roa;
+        xodus.writeTx0(tx -> settings.setEncodedObjectsMovedUpTo(tx, first.key()));
+
+        final RpkiObjectStore store = movedStore();
+
+        // Only the objects after the saved progress are moved
+        assertTrue(storedWithEncoded(first));
+        assertFalse(storedWithEncoded(second));
+        assertEncodedReadBack(store, roa, ta);
+    }
+
+    @Test
+    public void testMoveEncodedOnlyOnce() throws Exception {
+        movedStore();
+        writeLegacy(roa);
+
+        // completion is recorded, so the legacy object is not moved but still read back with its encoded object
+        final RpkiObjectStore store = store();
+
+        assertTrue(store.encodedMoved().isDone());
+
+        assertTrue(storedWithEncoded(roa));
+        assertEncodedReadBack(store, roa);
+    }
+
+    @Test
+    public void testDeleteRemovesEncoded() throws Exception {
+        writeLegacy(roa, ta);
+        final RpkiObjectStore store = movedStore();
+        final IxMap<byte[]> encodedMap = xodus.createIxMap("rpki-objects-encoded", ImmutableMap.of(), CoderFactory.bytesCoder());
+
+        xodus.writeTx0(tx -> store.delete(tx, roa));
+
+        assertEquals(Optional.empty(), xodus.readTx(tx -> store.get(tx, roa.key())));
+        assertFalse(xodus.readTx(tx -> encodedMap.exists(tx, roa.key())));
+        assertTrue(xodus.readTx(tx -> encodedMap.exists(tx, ta.key())));
+        assertEncodedReadBack(store, ta);
+    }
+
+    @Test
+    public void testMarkReachableOnlyRewritesOldReachableTimes() {
+        final RpkiObjectStore store = store();
+        final InstantWithoutNanos now = InstantWithoutNanos.now();
+        xodus.writeTx0(tx -> {
+            store.put(tx, roa);
+            store.put(tx, ta);
+            store.markReachable(tx, roa.key(), now.minus(Duration.ofHours(1)));
+            store.markReachable(tx, ta.key(), now.minus(Duration.ofDays(2)));
+        });
+
+        xodus.writeTx0(tx -> store.markReachable(tx, Arrays.asList(roa.key(), ta.key())));
+
+        // The reachable time of roa is recent enough and kept, the one of ta is rewritten
+        assertEquals(1, store.deleteUnreachableObjects(now.minus(Duration.ofMinutes(30)), remaining -> {}));
+        assertEquals(Optional.empty(), xodus.readTx(tx -> store.get(tx, roa.key())));
+        assertTrue(xodus.readTx(tx -> store.get(tx, ta.key())).isPresent());
+    }
+
+    @Test
+    public void testReachableRefreshIsSpreadOverKeys() {
+        final RpkiObjectStore store = store();
+        final long refresh = Duration.ofDays(1).toMillis();
+        final Random random = new Random(42);
+        final Set<Long> intervals = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            final byte[] sha256 = new byte[32];
+            random.nextBytes(sha256);
+            final long interval = store.reachableRefreshMillis(Key.of(sha256));
+            assertTrue(interval > refresh / 2 && interval <= refresh);
+            assertEquals(interval, store.reachableRefreshMillis(Key.of(sha256)));
+            intervals.add(interval);
+        }
+        assertTrue(intervals.size() > 990);
+    }
+
+    private void assertEncodedReadBack(RpkiObjectStore store, RpkiObject... objects) {
+        final List<Key> keys = Arrays.stream(objects).map(RpkiObject::key).collect(Collectors.toList());
+        xodus.readTx0(tx -> {
+            for (RpkiObject o : objects) {
+                assertArrayEquals(o.getEncoded(), store.get(tx, o.key()).get().getEncoded());
+            }
+            assertEncoded(objects, store.getAll(tx, keys));
+            assertEncoded(objects, store.values(tx));
+            for (RpkiObject o : objects) {
+                try (Stream<byte[]> encoded = store.streamObjects(tx, o.getType())) {
+                    assertTrue(encoded.anyMatch(bytes -> Arrays.equals(o.getEncoded(), bytes)));
+                }
+            }
+        });
+    }
+
+    private static void assertEncoded(RpkiObject[] expected, List<RpkiObject> actual) {
+        final Map<Key, byte[]> encoded = new HashMap<>();
+        actual.forEach(o -> encoded.put(o.key(), o.getEncoded()));
+        assertEquals(expected.length, encoded.size());
+        for (RpkiObject o : expected) {
+            assertArrayEquals(o.getEncoded(), encoded.get(o.key()));
+        }
+    }
+
+    private boolean storedWithEncoded(RpkiObject o) {
+        return xodus.readTx(tx -> legacyMap().get(tx, o.key())).get().getEncoded() != null;
+    }
+
+    /**
+     * Writes the objects the way they were stored before the encoded objects were stored separately.
+     */
+    private void writeLegacy(RpkiObject... objects) {
+        final IxMap<RpkiObject> legacy = legacyMap();
+        xodus.writeTx0(tx -> {
+            for (RpkiObject o : objects) {
+                legacy.put(tx, o.key(), o);
+            }
+        });
+    }
+
+    private IxMap<RpkiObject> legacyMap() {
+        return xodus.createIxMap(
+                "rpki-objects",
+                ImmutableMap.of(
+                        "by-aki-mft", o -> o.getType() == RpkiObject.Type.MFT ? Key.keys(Key.of(o.getAuthorityKeyIdentifier())) : Collections.emptySet(),
+                        "by-type", o -> Key.keys(Key.of(o.getType().toString()))),
+                new RpkiObjectCoder());
+    }
+
+    private RpkiObjectStore store() {
+        return new RpkiObjectStore(xodus, settings, "P7D");
+    }
+
+    private RpkiObjectStore movedStore() throws Exception {
+        final RpkiObjectStore store = store();
+        store.encodedMoved().get(10, TimeUnit.SECONDS);
+        return store;
+    }
+
+    private static RpkiObject readObject(String resource) throws IOException {
+        try (InputStream is = RpkiObjectStoreTest.class.getResourceAsStream(resource)) {
+            final byte[] content = ByteStreams.toByteArray(is);
+            return new RpkiObject(CertificateRepositoryObjectFactory.createCertificateRepositoryObject(content, ValidationResult.withLocation(resource)));
+        }
+    }
+}
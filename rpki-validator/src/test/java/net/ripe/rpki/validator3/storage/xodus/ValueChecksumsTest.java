@@ -0,0 +1,80 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2018 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.ripe.rpki.validator3.storage.xodus;
+
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ValueChecksumsTest {
+
+    private static final byte[] VALUE = "123456789".getBytes(US_ASCII);
+
+    @Test
+    public void crc32c() {
+        // The check value of CRC-32C
+        assertEquals(0xE3069283, ValueChecksums.crc32c(VALUE, 0, VALUE.length));
+    }
+
+    @Test
+    public void withChecksum() {
+        final byte[] stored = ValueChecksums.withChecksum(VALUE);
+
+        assertTrue(ValueChecksums.verify(stored, stored.length));
+        assertEquals(stored.length - VALUE.length, ValueChecksums.valueOffset(stored));
+
+        stored[stored.length - 1]++;
+        assertFalse(ValueChecksums.verify(stored, stored.length));
+    }
+
+    @Test
+    public void withLegacyChecksum() {
+        final byte[] stored = ValueChecksums.withLegacyChecksum(VALUE);
+
+        assertTrue(ValueChecksums.verify(stored, stored.length));
+        assertEquals(Long.BYTES, ValueChecksums.valueOffset(stored));
+
+        stored[Long.BYTES]++;
+        assertFalse(ValueChecksums.verify(stored, stored.length));
+    }
+
+    @Test
+    public void verifyOnlyTheStoredLength() {
+        final byte[] stored = ValueChecksums.withChecksum(VALUE);
+        final byte[] buffer = new byte[stored.length + 10];
+        System.arraycopy(stored, 0, buffer, 0, stored.length);
+
+        assertTrue(ValueChecksums.verify(buffer, stored.length));
+        assertFalse(ValueChecksums.verify(buffer, buffer.length));
+    }
+}
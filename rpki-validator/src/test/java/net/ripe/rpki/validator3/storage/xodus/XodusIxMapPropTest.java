@@ -86,7 +86,11 @@ public class XodusIxMapPropTest {
         assumeThat(value, CoreMatchers.not(equalTo(null)));
 
         Key k = XodusIxMapTest.key(key);
-        Optional<String> oldValue = xodus.writeTx(tx -> ixMap.put(tx, k, value));
+        Optional<String> oldValue = xodus.writeTx(tx -> {
+            final Optional<String> previous = ixMap.get(tx, k);
+            ixMap.put(tx, k, value);
+            return previous;
+        });
         xodus.readTx0(tx -> {
             assertEquals(value, ixMap.get(tx, k).get());
             Map<Key, String> byIndex = ixMap.getByIndex(LENGTH_INDEX, tx, intKey(value.length()));
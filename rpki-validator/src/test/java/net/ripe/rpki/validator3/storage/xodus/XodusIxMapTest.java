@@ -31,10 +31,16 @@ package net.ripe.rpki.validator3.storage.xodus;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jetbrains.exodus.ArrayByteIterable;
+import jetbrains.exodus.env.StoreConfig;
 import jetbrains.exodus.env.Transaction;
 import net.ripe.rpki.validator3.storage.IxMapTest;
 import net.ripe.rpki.validator3.storage.Tx;
 import net.ripe.rpki.validator3.storage.data.Key;
+import net.ripe.rpki.validator3.storage.encoding.Coder;
 import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -42,13 +48,18 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.*;
 
 public class XodusIxMapTest extends IxMapTest {
@@ -69,7 +80,7 @@ public class XodusIxMapTest extends IxMapTest {
     }
 
     @Test
-    public void testReindex() {
+    public void testReindex() throws Exception {
         ixMap = xodus.createIxMap("testReindex",
                 ImmutableMap.of(
                         "len", IxMapTest::stringLen,
@@ -105,6 +116,207 @@ public class XodusIxMapTest extends IxMapTest {
         assertEquals(ImmutableMap.of(Key.of(1L), "aa"), xodus.readTx(tx -> ixMap.getByIndex("lenPlus1", tx, intKey(3))));
         assertEquals(ImmutableMap.of(Key.of(2L), "aBa"), xodus.readTx(tx -> ixMap.getByIndex("lenPlus1", tx, intKey(4))));
         assertEquals(ImmutableMap.of(Key.of(2L), "aBa"), xodus.readTx(tx -> ixMap.getByIndex("lower", tx, Key.of("aba"))));
+
+        ((XodusIxMap<String>) ixMap).reindexed().get();
+        assertEquals(ImmutableMap.of(Key.of(1L), "aa"), xodus.readTx(tx -> ixMap.getByIndex("lenPlus1", tx, intKey(3))));
+        assertEquals(ImmutableMap.of(Key.of(2L), "aBa"), xodus.readTx(tx -> ixMap.getByIndex("lower", tx, Key.of("aba"))));
+    }
+
+    @Test
+    public void testOnlineReindex() throws Exception {
+        final int count = 2500;
+        wtx0(tx -> {
+            for (long i = 0; i < count; i++) {
+                ixMap.put(tx, Key.of(i), String.valueOf(i));
+            }
+        });
+
+        ixMap = xodus.createIxMap("test",
+                ImmutableMap.of(
+                        LENGTH_INDEX, IxMapTest::stringLen,
+                        "last", s -> Key.keys(Key.of(s.substring(s.length() - 1)))),
+                CoderFactory.makeCoder(String.class));
+
+        // Writes while the indexes are rebuilt, queries scan the values meanwhile
+        wtx0(tx -> ixMap.put(tx, Key.of(0L), "10"));
+        wtx0(tx -> ixMap.put(tx, Key.of(2499L), "7"));
+        wtx0(tx -> ixMap.delete(tx, Key.of(1L)));
+        final Set<Key> endingIn7 = rtx(tx -> ixMap.getPkByIndex("last", tx, Key.of("7")));
+
+        ((XodusIxMap<String>) ixMap).reindexed().get();
+
+        assertEquals(endingIn7, rtx(tx -> ixMap.getPkByIndex("last", tx, Key.of("7"))));
+        assertEquals(251, endingIn7.size());
+        assertTrue(endingIn7.contains(Key.of(2499L)));
+        final Set<Key> lengthTwo = rtx(tx -> ixMap.getPkByIndex(LENGTH_INDEX, tx, intKey(2)));
+        assertTrue(lengthTwo.contains(Key.of(0L)));
+        assertFalse(lengthTwo.contains(Key.of(1L)));
+        assertFalse(lengthTwo.contains(Key.of(2499L)));
+        assertFalse(rtx(tx -> ixMap.getPkByIndex("last", tx, Key.of("1"))).contains(Key.of(1L)));
+    }
+
+    @Test
+    public void testMigrateIndexKeys() {
+        wtx0(tx -> ixMap.put(tx, Key.of(1L), "aa"));
+        wtx0(tx -> ixMap.put(tx, Key.of(2L), "aBa"));
+
+        // Maps written before the index keys were stored next to the values do not have the store
+        wtx0(tx -> xodus.getEnv().removeStore("test-index-keys", (Transaction) tx.txn()));
+        ixMap = xodus.createIxMap("test",
+                ImmutableMap.of(
+                        LENGTH_INDEX, IxMapTest::stringLen,
+                        PAIRS_INDEX, s -> charPairSet(s).stream().map(Key::of).collect(Collectors.toSet())),
+                CoderFactory.makeCoder(String.class));
+
+        wtx0(tx -> ixMap.put(tx, Key.of(1L), "abc"));
+        wtx0(tx -> ixMap.delete(tx, Key.of(2L)));
+
+        assertEquals(Collections.emptySet(), rtx(tx -> ixMap.getPkByIndex(LENGTH_INDEX, tx, intKey(2))));
+        assertEquals(ImmutableMap.of(Key.of(1L), "abc"), rtx(tx -> ixMap.getByIndex(LENGTH_INDEX, tx, intKey(3))));
+        assertEquals(ImmutableMap.of(Key.of(1L), "abc"), rtx(tx -> ixMap.getByIndex(PAIRS_INDEX, tx, Key.of("ab"))));
+        assertEquals(ImmutableMap.of(), rtx(tx -> ixMap.getByIndex(PAIRS_INDEX, tx, Key.of("aa"))));
+        assertEquals(Collections.emptySet(), rtx(tx -> ixMap.getPkByIndex(PAIRS_INDEX, tx, Key.of("Ba"))));
+    }
+
+    @Test
+    public void testMigrateIndexKeysKeepsIndexes() throws Exception {
+        wtx0(tx -> {
+            for (long i = 0; i < 100; i++) {
+                ixMap.put(tx, Key.of(i), String.valueOf(i));
+            }
+        });
+        final long lengthTwoEntries = rtx(tx -> xodus.getEnv().openStore("test-idx-" + LENGTH_INDEX,
+                StoreConfig.USE_EXISTING, (Transaction) tx.txn()).count((Transaction) tx.txn()));
+        wtx0(tx -> xodus.getEnv().removeStore("test-index-keys", (Transaction) tx.txn()));
+
+        // Keep the backfill of the index keys waiting, decoding on this thread means scanning the values
+        final CountDownLatch backfill = new CountDownLatch(1);
+        xodus.runInBackground(() -> Uninterruptibles.awaitUninterruptibly(backfill));
+        final Thread testThread = Thread.currentThread();
+        final AtomicInteger decoded = new AtomicInteger();
+        final Coder<String> coder = CoderFactory.makeCoder(String.class);
+        ixMap = xodus.createIxMap("test",
+                ImmutableMap.of(
+                        LENGTH_INDEX, IxMapTest::stringLen,
+                        PAIRS_INDEX, s -> charPairSet(s).stream().map(Key::of).collect(Collectors.toSet())),
+                new Coder<String>() {
+                    @Override
+                    public byte[] toBytes(String s) {
+                        return coder.toBytes(s);
+                    }
+
+                    @Override
+                    public String fromBytes(byte[] bb) {
+                        if (Thread.currentThread() == testThread) {
+                            decoded.incrementAndGet();
+                        }
+                        return coder.fromBytes(bb);
+                    }
+                });
+
+        assertEquals(lengthTwoEntries, (long) rtx(tx -> xodus.getEnv().openStore("test-idx-" + LENGTH_INDEX,
+                StoreConfig.USE_EXISTING, (Transaction) tx.txn()).count((Transaction) tx.txn())));
+        assertEquals(90, rtx(tx -> ixMap.getPkByIndex(LENGTH_INDEX, tx, intKey(2))).size());
+        assertEquals(Collections.singleton(Key.of(12L)), rtx(tx -> ixMap.getPkByIndex(PAIRS_INDEX, tx, Key.of("12"))));
+        assertEquals(0, decoded.get());
+
+        // Values without stored index keys yet still have their index entries updated
+        wtx0(tx -> ixMap.put(tx, Key.of(12L), "123"));
+        wtx0(tx -> ixMap.delete(tx, Key.of(13L)));
+        backfill.countDown();
+        ((XodusIxMap<String>) ixMap).reindexed().get();
+
+        assertEquals(88, rtx(tx -> ixMap.getPkByIndex(LENGTH_INDEX, tx, intKey(2))).size());
+        assertEquals(Collections.singleton(Key.of(12L)), rtx(tx -> ixMap.getPkByIndex(LENGTH_INDEX, tx, intKey(3))));
+        assertEquals(Collections.emptySet(), rtx(tx -> ixMap.getPkByIndex(PAIRS_INDEX, tx, Key.of("13"))));
+
+        wtx0(tx -> ixMap.put(tx, Key.of(12L), "4"));
+        assertEquals(Collections.singleton(Key.of(23L)), rtx(tx -> ixMap.getPkByIndex(PAIRS_INDEX, tx, Key.of("23"))));
+        assertEquals(11, rtx(tx -> ixMap.getPkByIndex(LENGTH_INDEX, tx, intKey(1))).size());
+    }
+
+    @Test
+    public void testChecksums() {
+        wtx0(tx -> ixMap.put(tx, Key.of(1L), "a"));
+        // Values written with the CRC32 of earlier versions are still readable
+        wtx0(tx -> ((XodusIxMap<String>) ixMap).getMainDb().put((Transaction) tx.txn(), Key.of(2L).toByteIterable(),
+                new ArrayByteIterable(ValueChecksums.withLegacyChecksum("b".getBytes(UTF_8)))));
+
+        assertEquals(Optional.of("a"), rtx(tx -> ixMap.get(tx, Key.of(1L))));
+        assertEquals(Optional.of("b"), rtx(tx -> ixMap.get(tx, Key.of(2L))));
+        assertEquals(0, xodus.verifyChecksums());
+
+        final byte[] corrupted = ValueChecksums.withChecksum("c".getBytes(UTF_8));
+        corrupted[corrupted.length - 1] = 'd';
+        wtx0(tx -> ((XodusIxMap<String>) ixMap).getMainDb().put((Transaction) tx.txn(), Key.of(3L).toByteIterable(),
+                new ArrayByteIterable(corrupted)));
+
+        assertEquals(1, xodus.verifyChecksums());
+        try {
+            rtx(tx -> ixMap.get(tx, Key.of(3L)));
+            fail("Expected the corrupted value to be rejected");
+        } catch (RuntimeException e) {
+            assertEquals("Data for the key " + Key.of(3L) + " is corrupted", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSizeInfo() {
+        for (long i = 0; i < 100; i++) {
+            final long k = i;
+            wtx0(tx -> ixMap.put(tx, Key.of(k), "value" + k));
+        }
+        wtx0(tx -> ixMap.put(tx, Key.of(3L), "longer value"));
+        wtx0(tx -> ixMap.put(tx, Key.of(4L), "value4"));
+        for (long i = 0; i < 100; i += 3) {
+            final long k = i;
+            wtx0(tx -> ixMap.delete(tx, Key.of(k)));
+        }
+        wtx0(tx -> ixMap.put(tx, Key.of(1000L), ""));
+
+        final XodusIxMap.Sizes sizes = (XodusIxMap.Sizes) rtx(tx -> ixMap.sizeInfo(tx));
+        assertEquals(100 - 34 + 1, sizes.getCount());
+        assertEquals(Sets.newHashSet(LENGTH_INDEX, PAIRS_INDEX, "index-keys"), sizes.getIndexSizes().keySet());
+
+        // A new instance counts the stores from scratch
+        final XodusIxMap<String> recounted = (XodusIxMap<String>) xodus.createIxMap("test",
+                ImmutableMap.of(
+                        LENGTH_INDEX, IxMapTest::stringLen,
+                        PAIRS_INDEX, s -> charPairSet(s).stream().map(Key::of).collect(Collectors.toSet())),
+                CoderFactory.makeCoder(String.class));
+        final XodusIxMap.Sizes expected = (XodusIxMap.Sizes) rtx(recounted::sizeInfo);
+        assertEquals(expected.getCount(), sizes.getCount());
+        assertEquals(expected.getKeysAndValuesBytes(), sizes.getKeysAndValuesBytes());
+        assertEquals(expected.getIndexSizes(), sizes.getIndexSizes());
+
+        wtx0(tx -> ixMap.clear(tx));
+        final XodusIxMap.Sizes cleared = (XodusIxMap.Sizes) rtx(tx -> ixMap.sizeInfo(tx));
+        assertEquals(0, cleared.getCount());
+        assertEquals(0, cleared.getTotalKeysAndValuesBytes());
+    }
+
+    @Test
+    public void testReadSnapshot() throws Exception {
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        xodus.setMeterRegistry(meterRegistry);
+        final Timer readTxTimer = meterRegistry.get("rpkivalidator.storage.transaction.duration").tag("type", "read").timer();
+        wtx0(tx -> ixMap.put(tx, Key.of(1L), "a"));
+
+        try (Tx.Snapshot snapshot = xodus.readSnapshot()) {
+            wtx0(tx -> ixMap.put(tx, Key.of(1L), "b"));
+            wtx0(tx -> ixMap.put(tx, Key.of(2L), "c"));
+
+            assertEquals(Optional.of("a"), ixMap.get(snapshot.tx(), Key.of(1L)));
+            assertEquals(Optional.empty(), ixMap.get(snapshot.tx(), Key.of(2L)));
+
+            final CompletableFuture<Optional<String>> otherThread = CompletableFuture.supplyAsync(() -> ixMap.get(snapshot.tx(), Key.of(1L)));
+            assertEquals(Optional.of("a"), otherThread.get());
+            assertEquals(0, readTxTimer.count());
+        }
+        // The snapshot is timed as a single read transaction when it is closed
+        assertEquals(1, readTxTimer.count());
+
+        assertEquals(Optional.of("b"), rtx(tx -> ixMap.get(tx, Key.of(1L))));
     }
 
     @Override
@@ -29,9 +29,16 @@
  */
 package net.ripe.rpki.validator3.storage.xodus;
 
+import com.google.common.collect.ImmutableList;
+import net.ripe.rpki.validator3.storage.IxBase;
 import net.ripe.rpki.validator3.storage.MultiIxMapTest;
+import net.ripe.rpki.validator3.storage.data.Key;
 import net.ripe.rpki.validator3.storage.encoding.CoderFactory;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
 
 public class XodusMultiIxMapTest extends MultiIxMapTest {
 
@@ -40,4 +47,27 @@ public class XodusMultiIxMapTest extends MultiIxMapTest {
         storage = XodusTests.makeXodus(tmp.newFolder().getAbsolutePath());
         multIxMap = storage.createMultIxMap("test", CoderFactory.makeCoder(String.class));
     }
+
+    @Test
+    public void testSizeInfo() {
+        final Key k1 = Key.of(1L);
+        final Key k2 = Key.of(2L);
+        storage.writeTx0(tx -> {
+            multIxMap.put(tx, k1, "a");
+            multIxMap.put(tx, k1, "b");
+            multIxMap.put(tx, k1, "b");
+            multIxMap.put(tx, k2, "cc");
+            multIxMap.put(tx, k2, "dd");
+            multIxMap.put(tx, k2, "ee");
+        });
+        storage.writeTx0(tx -> multIxMap.delete(tx, k1));
+        storage.writeTx0(tx -> multIxMap.delete(tx, k2, "cc"));
+        storage.writeTx0(tx -> multIxMap.deleteBatch(tx, ImmutableList.of(Pair.of(k2, "dd"), Pair.of(k2, "xx"))));
+
+        final IxBase.Sizes sizes = storage.readTx(tx -> multIxMap.sizeInfo(tx));
+        final IxBase.Sizes recounted = storage.readTx(tx ->
+                storage.createMultIxMap("test", CoderFactory.makeCoder(String.class)).sizeInfo(tx));
+        assertEquals(1, sizes.getCount());
+        assertEquals(recounted, sizes);
+    }
 }